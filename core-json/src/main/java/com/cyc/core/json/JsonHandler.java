@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+//// Internal Imports
+
+import java.io.IOException;
+
+//// External Imports
+
+/**
+ * <p/>Receives the tokens of a JSON document as they are read; see
+ * {@link JsonTokenizer#parse(JsonHandler)}. Nothing is allocated for a token
+ * unless the handler asks for its value, so a handler that only looks at a
+ * few members costs little more than scanning the input.
+ */
+public interface JsonHandler {
+
+  /**
+   * Handles one token.
+   * @param token the token
+   * @param source the tokenizer, positioned on <code>token</code>, from which
+   * to get its text or value, e.g. with {@link JsonTokenizer#getText()} or
+   * {@link JsonTokenizer#textEquals(String)}
+   * @return true to go on, or false to stop reading
+   * @throws IOException to abort reading
+   */
+  boolean token(JsonToken token, JsonTokenizer source) throws IOException;
+}
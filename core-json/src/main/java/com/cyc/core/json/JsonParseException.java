@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+//// Internal Imports
+
+import java.io.IOException;
+
+//// External Imports
+
+/**
+ * <p/>Thrown when the input is not well-formed JSON.
+ */
+public class JsonParseException extends IOException {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>JsonParseException</code>.
+   * @param message what was wrong
+   * @param offset the number of characters read before the error
+   */
+  public JsonParseException(String message, long offset) {
+    super(message + " at character " + offset);
+    this.offset = offset;
+  }
+
+  //// Public Area
+
+  /** Returns the number of characters read before the error. */
+  public long getOffset() {
+    return offset;
+  }
+
+  //// Internal Rep
+
+  private static final long serialVersionUID = 1L;
+
+  private final long offset;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+/**
+ * The tokens a {@link JsonTokenizer} reads.
+ */
+public enum JsonToken {
+
+  /** <code>{</code> */
+  START_OBJECT,
+  /** <code>}</code> */
+  END_OBJECT,
+  /** <code>[</code> */
+  START_ARRAY,
+  /** <code>]</code> */
+  END_ARRAY,
+  /** The name of an object member; its value is the next token. */
+  FIELD_NAME,
+  /** A string value. */
+  STRING,
+  /** A number value. */
+  NUMBER,
+  /** <code>true</code> */
+  TRUE,
+  /** <code>false</code> */
+  FALSE,
+  /** <code>null</code> */
+  NULL;
+
+  /** Returns whether this token is a complete value by itself: a string, number, boolean or null. */
+  public boolean isScalarValue() {
+    return (this == STRING) || (this == NUMBER) || (this == TRUE) || (this == FALSE) || (this == NULL);
+  }
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+//// External Imports
+
+/**
+ * <p/>A streaming (pull) JSON tokenizer: reads one token of a single JSON value
+ * at a time straight from a <code>Reader</code>, checking that the input is
+ * well-formed (RFC 8259) as it goes. Example:
+ * <code><pre>
+ *    JsonTokenizer tokens = new JsonTokenizer(reader);
+ *    JsonToken token;
+ *    while ((token = tokens.next()) != null) {
+ *      if ((token == JsonToken.FIELD_NAME) &amp;&amp; tokens.textEquals("id")) {
+ *        tokens.next();
+ *        long id = tokens.getLong();
+ *      }
+ *    }
+ * </pre></code>
+ * <p/>
+ * The tokenizer reads through its own buffer, so the reader needn't be
+ * buffered, and decodes strings and numbers into a reused character buffer:
+ * no objects are allocated per token unless asked for, e.g. by
+ * {@link #getText()}. Field names are shared through a small cache, so the
+ * same member name in many objects yields one <code>String</code>.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class JsonTokenizer implements Closeable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>JsonTokenizer</code>.
+   * @param reader the JSON text
+   */
+  public JsonTokenizer(Reader reader) {
+    this(reader, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new instance of <code>JsonTokenizer</code>.
+   * @param reader the JSON text
+   * @param bufferSize the number of characters to read at a time
+   */
+  public JsonTokenizer(Reader reader, int bufferSize) {
+    if ((reader == null) || (bufferSize < 1)) {
+      throw new IllegalArgumentException("Got invalid reader or buffer size.");
+    }
+    this.reader = reader;
+    this.buf = new char[bufferSize];
+  }
+
+  //// Public Area
+
+  /**
+   * Reads the next token.
+   * @return the token, or null once the whole value has been read
+   * @throws JsonParseException if the input is not well-formed JSON
+   * @throws IOException if reading fails
+   */
+  public JsonToken next() throws IOException {
+    textString = null;
+    int c = skipWhitespace();
+    switch (state) {
+      case S_DONE:
+        if (c >= 0) {
+          throw error("Expected end of input but got '" + (char) c + "'");
+        }
+        return token = null;
+      case S_NAME_OR_END:
+        if (c == '}') {
+          pos++;
+          return endContainer(JsonToken.END_OBJECT);
+        }
+        return readName(c);
+      case S_VALUE_OR_END:
+        if (c == ']') {
+          pos++;
+          return endContainer(JsonToken.END_ARRAY);
+        }
+        return readValue(c);
+      case S_COMMA_OR_END:
+        boolean inObject = stack[depth - 1];
+        if (c == ',') {
+          pos++;
+          c = skipWhitespace();
+          return inObject ? readName(c) : readValue(c);
+        }
+        if (c == (inObject ? '}' : ']')) {
+          pos++;
+          return endContainer(inObject ? JsonToken.END_OBJECT : JsonToken.END_ARRAY);
+        }
+        throw error("Expected ',' or '" + (inObject ? '}' : ']') + "' but got " + describe(c));
+      default:
+        return readValue(c);
+    }
+  }
+
+  /** Returns the current token, or null before the first and after the last. */
+  public JsonToken getToken() {
+    return token;
+  }
+
+  /** Returns the number of objects and arrays open after the current token. */
+  public int getDepth() {
+    return depth;
+  }
+
+  /** Returns the number of characters read so far. */
+  public long getOffset() {
+    return consumed + pos;
+  }
+
+  /**
+   * Returns the text of the current field name, string or number, or the
+   * literal for <code>true</code>, <code>false</code> and <code>null</code>.
+   * Allocates the string on the first call for each token.
+   */
+  public String getText() {
+    if (textString == null) {
+      if (token == JsonToken.FIELD_NAME) {
+        textString = internName();
+      } else if ((token == JsonToken.STRING) || (token == JsonToken.NUMBER)) {
+        textString = new String(text, 0, textLength);
+      } else if (token == JsonToken.TRUE) {
+        textString = "true";
+      } else if (token == JsonToken.FALSE) {
+        textString = "false";
+      } else if (token == JsonToken.NULL) {
+        textString = "null";
+      } else {
+        throw new IllegalStateException("No text for " + token);
+      }
+    }
+    return textString;
+  }
+
+  /**
+   * Returns a view of the text of the current field name, string or number
+   * without allocating, valid only until the next call to {@link #next()}.
+   */
+  public CharSequence getTextChars() {
+    return textView;
+  }
+
+  /** Returns whether the text of the current field name, string or number is <code>str</code>. */
+  public boolean textEquals(String str) {
+    if (str.length() != textLength) {
+      return false;
+    }
+    for (int i = 0; i < textLength; i++) {
+      if (text[i] != str.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns whether the current number has no fraction or exponent. */
+  public boolean isIntegral() {
+    checkNumber();
+    return integral;
+  }
+
+  /**
+   * Returns the current number as a <code>long</code>.
+   * @throws NumberFormatException if it has a fraction or exponent, or is out of range
+   */
+  public long getLong() {
+    checkNumber();
+    if (!integral || overflow) {
+      throw new NumberFormatException("Not a long: " + getText());
+    }
+    return longValue;
+  }
+
+  /** Returns the current number as a <code>double</code>. */
+  public double getDouble() {
+    checkNumber();
+    return (integral && !overflow) ? longValue : Double.parseDouble(getText());
+  }
+
+  /** Returns the current number as a <code>Long</code> if it is one, else a <code>Double</code>. */
+  public Number getNumber() {
+    checkNumber();
+    if (integral && !overflow) {
+      return Long.valueOf(longValue);
+    }
+    return Double.valueOf(Double.parseDouble(getText()));
+  }
+
+  /**
+   * Skips the rest of the current object or array, leaving the tokenizer on
+   * its end; does nothing for other tokens.
+   * @throws IOException if reading fails or the input is not well-formed
+   */
+  public void skipChildren() throws IOException {
+    if ((token != JsonToken.START_OBJECT) && (token != JsonToken.START_ARRAY)) {
+      return;
+    }
+    int target = depth - 1;
+    while (depth > target) {
+      if (next() == null) {
+        throw error("Unexpected end of input");
+      }
+    }
+  }
+
+  /**
+   * Passes each remaining token to <code>handler</code>.
+   * @param handler the handler
+   * @return true if all the tokens were read, false if the handler stopped early
+   * @throws IOException if reading fails, the input is not well-formed, or the handler throws it
+   */
+  public boolean parse(JsonHandler handler) throws IOException {
+    JsonToken next;
+    while ((next = next()) != null) {
+      if (!handler.token(next, this)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sets the deepest nesting of objects and arrays accepted, to bound the
+   * work and memory of hostile input. Defaults to {@value #DEFAULT_MAX_DEPTH}.
+   * @param maxDepth the most containers open at once
+   */
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth < 1) {
+      throw new IllegalArgumentException("Got invalid max depth: " + maxDepth);
+    }
+    this.maxDepth = maxDepth;
+  }
+
+  /** Closes the reader. */
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  //// Private Area
+
+  /** Reads a value starting with <code>c</code>. */
+  private JsonToken readValue(int c) throws IOException {
+    if (depth > 0) {
+      state = S_COMMA_OR_END;
+    } else {
+      state = S_DONE;
+    }
+    switch (c) {
+      case '{':
+        pos++;
+        return startContainer(true, JsonToken.START_OBJECT);
+      case '[':
+        pos++;
+        return startContainer(false, JsonToken.START_ARRAY);
+      case '"':
+        pos++;
+        readString();
+        return token = JsonToken.STRING;
+      case 't':
+        readLiteral("true");
+        return token = JsonToken.TRUE;
+      case 'f':
+        readLiteral("false");
+        return token = JsonToken.FALSE;
+      case 'n':
+        readLiteral("null");
+        return token = JsonToken.NULL;
+      default:
+        if ((c == '-') || ((c >= '0') && (c <= '9'))) {
+          readNumber();
+          return token = JsonToken.NUMBER;
+        }
+        throw error("Expected a value but got " + describe(c));
+    }
+  }
+
+  /** Reads a member name starting with <code>c</code>, and the colon after it. */
+  private JsonToken readName(int c) throws IOException {
+    if (c != '"') {
+      throw error("Expected a field name but got " + describe(c));
+    }
+    pos++;
+    readString();
+    c = skipWhitespace();
+    if (c != ':') {
+      throw error("Expected ':' but got " + describe(c));
+    }
+    pos++;
+    state = S_VALUE;
+    return token = JsonToken.FIELD_NAME;
+  }
+
+  private JsonToken startContainer(boolean object, JsonToken result) throws IOException {
+    if (depth == maxDepth) {
+      throw error("Nesting deeper than " + maxDepth);
+    }
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, stack.length * 2);
+    }
+    stack[depth++] = object;
+    state = object ? S_NAME_OR_END : S_VALUE_OR_END;
+    textLength = 0;
+    return token = result;
+  }
+
+  private JsonToken endContainer(JsonToken result) {
+    depth--;
+    state = (depth > 0) ? S_COMMA_OR_END : S_DONE;
+    textLength = 0;
+    return token = result;
+  }
+
+  /** Reads the rest of a string, after its opening quote, into the text buffer. */
+  private void readString() throws IOException {
+    textLength = 0;
+    while (true) {
+      if ((pos == limit) && !fill()) {
+        throw error("Unterminated string");
+      }
+      int start = pos;
+      char c = 0;
+      while (pos < limit) {
+        c = buf[pos];
+        if ((c == '"') || (c == '\\') || (c < 0x20)) {
+          break;
+        }
+        pos++;
+      }
+      appendText(buf, start, pos - start);
+      if (pos == limit) {
+        continue;
+      }
+      pos++;
+      if (c == '"') {
+        return;
+      }
+      if (c != '\\') {
+        throw error("Unescaped control character in string");
+      }
+      appendText(readEscape());
+    }
+  }
+
+  /** Reads an escape sequence, after its backslash. */
+  private char readEscape() throws IOException {
+    int c = read();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0) {
+            throw error("Invalid \\u escape");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value; // surrogate pairs arrive as two escapes
+      default:
+        throw error("Invalid escape " + describe(c));
+    }
+  }
+
+  /** Reads a number into the text buffer, computing its value if it fits in a long. */
+  private void readNumber() throws IOException {
+    textLength = 0;
+    integral = true;
+    overflow = false;
+    boolean negative = (peek() == '-');
+    if (negative) {
+      appendText((char) read());
+    }
+    // accumulated negatively, since -Long.MIN_VALUE doesn't fit
+    long value = 0;
+    int c = peek();
+    if (c == '0') {
+      appendText((char) read());
+    } else if ((c >= '1') && (c <= '9')) {
+      while (((c = peek()) >= '0') && (c <= '9')) {
+        appendText((char) read());
+        int digit = c - '0';
+        if (value < (Long.MIN_VALUE + digit) / 10) {
+          overflow = true;
+        } else {
+          value = value * 10 - digit;
+        }
+      }
+    } else {
+      throw error("Expected a digit but got " + describe(c));
+    }
+    if (peek() == '.') {
+      integral = false;
+      appendText((char) read());
+      readDigits();
+    }
+    c = peek();
+    if ((c == 'e') || (c == 'E')) {
+      integral = false;
+      appendText((char) read());
+      c = peek();
+      if ((c == '+') || (c == '-')) {
+        appendText((char) read());
+      }
+      readDigits();
+    }
+    if (!negative) {
+      if (value == Long.MIN_VALUE) {
+        overflow = true;
+      }
+      value = -value;
+    }
+    longValue = value;
+  }
+
+  /** Reads one or more digits into the text buffer. */
+  private void readDigits() throws IOException {
+    int c = peek();
+    if ((c < '0') || (c > '9')) {
+      throw error("Expected a digit but got " + describe(c));
+    }
+    while (((c = peek()) >= '0') && (c <= '9')) {
+      appendText((char) read());
+    }
+  }
+
+  private void readLiteral(String literal) throws IOException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (read() != literal.charAt(i)) {
+        throw error("Expected '" + literal + "'");
+      }
+    }
+    textLength = 0;
+  }
+
+  /** Skips whitespace, returning the next character without consuming it, or -1 at the end. */
+  private int skipWhitespace() throws IOException {
+    while (true) {
+      if ((pos == limit) && !fill()) {
+        return -1;
+      }
+      char c = buf[pos];
+      if ((c == ' ') || (c == '\n') || (c == '\r') || (c == '\t')) {
+        pos++;
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    if ((pos == limit) && !fill()) {
+      return -1;
+    }
+    return buf[pos];
+  }
+
+  private int read() throws IOException {
+    if ((pos == limit) && !fill()) {
+      return -1;
+    }
+    return buf[pos++];
+  }
+
+  /** Refills the buffer, returning false at the end of input. */
+  private boolean fill() throws IOException {
+    consumed += limit;
+    pos = 0;
+    limit = 0;
+    int charsRead;
+    do {
+      charsRead = reader.read(buf, 0, buf.length);
+    } while (charsRead == 0);
+    if (charsRead < 0) {
+      return false;
+    }
+    limit = charsRead;
+    return true;
+  }
+
+  private void appendText(char c) {
+    if (textLength == text.length) {
+      text = Arrays.copyOf(text, text.length * 2);
+    }
+    text[textLength++] = c;
+  }
+
+  private void appendText(char[] chars, int offset, int length) {
+    if (textLength + length > text.length) {
+      text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+    }
+    System.arraycopy(chars, offset, text, textLength, length);
+    textLength += length;
+  }
+
+  /** Returns the current field name, shared with earlier equal names if it is in the name cache. */
+  private String internName() {
+    if (textLength > MAX_CACHED_NAME_LENGTH) {
+      return new String(text, 0, textLength);
+    }
+    int hash = 0;
+    for (int i = 0; i < textLength; i++) {
+      hash = 31 * hash + text[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+    String cached = nameCache[slot];
+    if ((cached != null) && textEquals(cached)) {
+      return cached;
+    }
+    cached = new String(text, 0, textLength);
+    nameCache[slot] = cached;
+    return cached;
+  }
+
+  private void checkNumber() {
+    if (token != JsonToken.NUMBER) {
+      throw new IllegalStateException("Not a number: " + token);
+    }
+  }
+
+  private static String describe(int c) {
+    return (c < 0) ? "end of input" : ("'" + (char) c + "'");
+  }
+
+  private JsonParseException error(String message) {
+    return new JsonParseException(message, getOffset());
+  }
+
+  /** The current text, as a reusable <code>CharSequence</code>. */
+  private final class TextView implements CharSequence {
+
+    @Override
+    public int length() {
+      return textLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index >= textLength) {
+        throw new IndexOutOfBoundsException("" + index);
+      }
+      return text[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if ((start < 0) || (end > textLength) || (start > end)) {
+        throw new IndexOutOfBoundsException(start + ", " + end);
+      }
+      return new String(text, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(text, 0, textLength);
+    }
+  }
+
+  //// Internal Rep
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+  public static final int DEFAULT_MAX_DEPTH = 512;
+
+  /** what may come next: a value, a name or '}', a value or ']', ',' or the end of the container, nothing. */
+  private static final int S_VALUE = 0;
+  private static final int S_NAME_OR_END = 1;
+  private static final int S_VALUE_OR_END = 2;
+  private static final int S_COMMA_OR_END = 3;
+  private static final int S_DONE = 4;
+
+  /** size of the field name cache, a power of 2, and the longest name it holds. */
+  private static final int NAME_CACHE_SIZE = 256;
+  private static final int MAX_CACHED_NAME_LENGTH = 64;
+
+  private final Reader reader;
+  private final char[] buf;
+  private int pos = 0;
+  private int limit = 0;
+  /** characters read before the current buffer. */
+  private long consumed = 0;
+
+  private int state = S_VALUE;
+  /** per open container, whether it is an object rather than an array. */
+  private boolean[] stack = new boolean[16];
+  private int depth = 0;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+
+  private JsonToken token = null;
+  private char[] text = new char[256];
+  private int textLength = 0;
+  private String textString = null;
+  private final CharSequence textView = new TextView();
+  private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+  private boolean integral;
+  private boolean overflow;
+  private long longValue;
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//// External Imports
+
+/**
+ * <p/>Reads JSON into a tree of plain Java objects, with no JSON-specific node
+ * classes:
+ * <ul>
+ * <li>objects become <code>Map&lt;String, Object&gt;</code>s, keeping their member order;</li>
+ * <li>arrays become <code>List&lt;Object&gt;</code>s;</li>
+ * <li>strings become <code>String</code>s, and true and false <code>Boolean</code>s;</li>
+ * <li>numbers become <code>Long</code>s if integral and in range, integers
+ *     beyond that <code>BigInteger</code>s, and the rest <code>Double</code>s;</li>
+ * <li>null becomes <code>null</code>.</li>
+ * </ul>
+ * The tree is built iteratively, so deep nesting can't overflow the stack.
+ */
+public class JsonTree {
+
+  //// Constructors
+
+  private JsonTree() {
+  }
+
+  //// Public Area
+
+  /**
+   * Reads the next value from <code>tokenizer</code>.
+   * @param tokenizer the tokenizer, before the value
+   * @return the value, as described in the class comment
+   * @throws JsonParseException if there is no value or it is not well-formed
+   * @throws IOException if reading fails
+   */
+  public static Object read(JsonTokenizer tokenizer) throws IOException {
+    JsonToken token = tokenizer.next();
+    if (token == null) {
+      throw new JsonParseException("Expected a value but got end of input", tokenizer.getOffset());
+    }
+    return read(tokenizer, token);
+  }
+
+  /**
+   * Reads the value that starts with the current token of <code>tokenizer</code>.
+   * @param tokenizer the tokenizer, on the first token of the value
+   * @param token the current token
+   * @return the value, as described in the class comment
+   * @throws JsonParseException if the value is not well-formed
+   * @throws IOException if reading fails
+   */
+  @SuppressWarnings("unchecked")
+  public static Object read(JsonTokenizer tokenizer, JsonToken token) throws IOException {
+    List<Object> containers = new ArrayList<Object>();
+    String name = null;
+    Object result = null;
+    while (true) {
+      Object value;
+      switch (token) {
+        case START_OBJECT:
+          value = new LinkedHashMap<String, Object>();
+          break;
+        case START_ARRAY:
+          value = new ArrayList<Object>();
+          break;
+        case END_OBJECT:
+        case END_ARRAY:
+          containers.remove(containers.size() - 1);
+          if (containers.isEmpty()) {
+            return result;
+          }
+          token = next(tokenizer);
+          continue;
+        case FIELD_NAME:
+          name = tokenizer.getText();
+          token = next(tokenizer);
+          continue;
+        default:
+          value = getScalar(tokenizer, token);
+      }
+      if (containers.isEmpty()) {
+        result = value;
+      } else {
+        Object container = containers.get(containers.size() - 1);
+        if (container instanceof Map) {
+          ((Map<String, Object>) container).put(name, value);
+        } else {
+          ((List<Object>) container).add(value);
+        }
+      }
+      if ((token == JsonToken.START_OBJECT) || (token == JsonToken.START_ARRAY)) {
+        containers.add(value);
+      } else if (containers.isEmpty()) {
+        return result;
+      }
+      token = next(tokenizer);
+    }
+  }
+
+  /**
+   * Parses a complete JSON document.
+   * @param json the JSON text
+   * @return the value, as described in the class comment
+   * @throws JsonParseException if <code>json</code> is not well-formed JSON
+   */
+  public static Object parse(String json) throws JsonParseException {
+    try {
+      return parse(new StringReader(json));
+    } catch (JsonParseException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // can't happen reading a string
+    }
+  }
+
+  /**
+   * Parses a complete JSON document, checking that nothing follows it.
+   * Does not close the reader.
+   * @param reader the JSON text
+   * @return the value, as described in the class comment
+   * @throws JsonParseException if the input is not well-formed JSON
+   * @throws IOException if reading fails
+   */
+  public static Object parse(Reader reader) throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(reader);
+    Object result = read(tokenizer);
+    tokenizer.next();
+    return result;
+  }
+
+  /**
+   * Returns the value of the current scalar token.
+   * @param tokenizer the tokenizer
+   * @param token its current token, a string, number, boolean or null
+   * @return the value, as described in the class comment
+   */
+  public static Object getScalar(JsonTokenizer tokenizer, JsonToken token) {
+    switch (token) {
+      case STRING:
+        return tokenizer.getText();
+      case NUMBER:
+        if (tokenizer.isIntegral()) {
+          try {
+            return Long.valueOf(tokenizer.getLong());
+          } catch (NumberFormatException e) {
+            return new BigInteger(tokenizer.getText());
+          }
+        }
+        return Double.valueOf(tokenizer.getDouble());
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case NULL:
+        return null;
+      default:
+        throw new IllegalArgumentException("Got non-scalar token: " + token);
+    }
+  }
+
+  //// Private Area
+
+  private static JsonToken next(JsonTokenizer tokenizer) throws IOException {
+    JsonToken token = tokenizer.next();
+    if (token == null) {
+      throw new JsonParseException("Unexpected end of input", tokenizer.getOffset());
+    }
+    return token;
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.json;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//// External Imports
+
+/**
+ * Tests JsonTokenizer, mainly at the edges of its buffer and of well-formed
+ * input.
+ */
+public class JsonTokenizerTest {
+
+  @Test
+  public void testSameTokensWithAnyBufferSize() throws IOException {
+    String json = "{\"name\" : \"va\\\"lue\\n\\u00e9\\ud83d\\ude00\", \"n\":-12.5e+3,"
+        + " \"arr\":[1, true,false ,null, []], \"big\":12345678901234567890, \"longer name\":\"x\"}";
+    List<String> expected = tokens(json, JsonTokenizer.DEFAULT_BUFFER_SIZE);
+    assertEquals(Arrays.asList("START_OBJECT", "FIELD_NAME name", "STRING va\"lue\n\u00e9\ud83d\ude00",
+        "FIELD_NAME n", "NUMBER -12.5e+3", "FIELD_NAME arr", "START_ARRAY", "NUMBER 1", "TRUE true",
+        "FALSE false", "NULL null", "START_ARRAY", "END_ARRAY", "END_ARRAY", "FIELD_NAME big",
+        "NUMBER 12345678901234567890", "FIELD_NAME longer name", "STRING x", "END_OBJECT"), expected);
+    for (int bufferSize = 1; bufferSize <= 9; bufferSize++) {
+      assertEquals("buffer of " + bufferSize, expected, tokens(json, bufferSize));
+    }
+  }
+
+  @Test
+  public void testEscapes() throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(
+        new StringReader("\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u0041\\u00E9\\ud83d\\ude00\""), 3);
+    assertEquals(JsonToken.STRING, tokenizer.next());
+    assertEquals("\"\\/\b\f\n\r\tA\u00e9\ud83d\ude00", tokenizer.getText());
+    assertTrue(tokenizer.textEquals("\"\\/\b\f\n\r\tA\u00e9\ud83d\ude00"));
+    assertNull(tokenizer.next());
+  }
+
+  @Test
+  public void testLongRange() throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(
+        "[9223372036854775807, -9223372036854775808, 9223372036854775808, 1.0, 1e2]"));
+    tokenizer.next();
+    tokenizer.next();
+    assertEquals(Long.MAX_VALUE, tokenizer.getLong());
+    tokenizer.next();
+    assertEquals(Long.MIN_VALUE, tokenizer.getLong());
+    tokenizer.next();
+    assertTrue(tokenizer.isIntegral());
+    assertNotLong(tokenizer);
+    assertEquals(9.223372036854775808e18, tokenizer.getDouble(), 0);
+    assertEquals(Double.valueOf(9.223372036854775808e18), tokenizer.getNumber());
+    tokenizer.next();
+    assertFalse(tokenizer.isIntegral());
+    assertNotLong(tokenizer);
+    assertEquals(Double.valueOf(1.0), tokenizer.getNumber());
+    tokenizer.next();
+    assertNotLong(tokenizer);
+    assertEquals(100.0, tokenizer.getDouble(), 0);
+  }
+
+  @Test
+  public void testTreeKeepsBigIntegers() throws IOException {
+    List<?> tree = (List<?>) JsonTree.parse("[9223372036854775807, 9223372036854775808, 0.5]");
+    assertEquals(Long.valueOf(Long.MAX_VALUE), tree.get(0));
+    assertEquals(new BigInteger("9223372036854775808"), tree.get(1));
+    assertEquals(Double.valueOf(0.5), tree.get(2));
+  }
+
+  @Test
+  public void testTrailingInputRejected() throws IOException {
+    for (String json : new String[] {"{} x", "1 2", "[1]]", "\"a\" \"b\"", "null,"}) {
+      JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(json));
+      try {
+        while (tokenizer.next() != null) {
+        }
+        fail("Accepted " + json);
+      } catch (JsonParseException e) {
+        assertTrue(e.getOffset() > 0);
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedInputRejected() {
+    for (String json : new String[] {"", "{\"a\" 1}", "{\"a\":1,}", "[1,]", "[1 2]", "{1:2}",
+        "\"unterminated", "\"bad \\x escape\"", "\"bad \\u00g0 escape\"", "\"tab\there\"",
+        "-", "1.", "1e", ".5", "tru", "nul", "[", "{\"a\":"}) {
+      try {
+        JsonTree.parse(json);
+        fail("Accepted " + json);
+      } catch (JsonParseException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testHandlerStopsEarly() throws IOException {
+    StringBuilder json = new StringBuilder("{\"id\":42,\"rest\":[");
+    for (int i = 0; i < 10000; i++) {
+      json.append(i).append(',');
+    }
+    json.append("0]}");
+    CountingReader reader = new CountingReader(new StringReader(json.toString()));
+    final long[] id = new long[1];
+    JsonTokenizer tokenizer = new JsonTokenizer(reader, 16);
+    boolean finished = tokenizer.parse(new JsonHandler() {
+      @Override
+      public boolean token(JsonToken token, JsonTokenizer source) throws IOException {
+        if (token == JsonToken.NUMBER) {
+          id[0] = source.getLong();
+          return false;
+        }
+        return true;
+      }
+    });
+    assertFalse(finished);
+    assertEquals(42, id[0]);
+    assertTrue("read " + reader.count + " chars", reader.count <= 32);
+  }
+
+  @Test
+  public void testSkipChildren() throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(
+        "{\"skip\":{\"a\":[1,2,{\"b\":[]}],\"c\":\"}\"},\"scalar\":1,\"keep\":4}"), 5);
+    assertEquals(JsonToken.START_OBJECT, tokenizer.next());
+    assertEquals(JsonToken.FIELD_NAME, tokenizer.next());
+    assertEquals(JsonToken.START_OBJECT, tokenizer.next());
+    tokenizer.skipChildren();
+    assertEquals(JsonToken.END_OBJECT, tokenizer.getToken());
+    assertEquals(1, tokenizer.getDepth());
+    assertEquals(JsonToken.FIELD_NAME, tokenizer.next());
+    assertEquals(JsonToken.NUMBER, tokenizer.next());
+    tokenizer.skipChildren(); // not a container; stays put
+    assertEquals(JsonToken.NUMBER, tokenizer.getToken());
+    assertEquals(JsonToken.FIELD_NAME, tokenizer.next());
+    assertEquals("keep", tokenizer.getText());
+    assertEquals(JsonToken.NUMBER, tokenizer.next());
+    assertEquals(4, tokenizer.getLong());
+    assertEquals(JsonToken.END_OBJECT, tokenizer.next());
+    assertNull(tokenizer.next());
+  }
+
+  @Test
+  public void testMaxDepth() throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(new StringReader("[[[]]]"));
+    tokenizer.setMaxDepth(3);
+    while (tokenizer.next() != null) {
+    }
+    tokenizer = new JsonTokenizer(new StringReader("[[[[]]]]"));
+    tokenizer.setMaxDepth(3);
+    try {
+      while (tokenizer.next() != null) {
+      }
+      fail("Accepted nesting of 4");
+    } catch (JsonParseException e) {
+      assertEquals(3, tokenizer.getDepth());
+    }
+  }
+
+  @Test
+  public void testFieldNamesAreShared() throws IOException {
+    List<?> tree = (List<?>) JsonTree.parse("[{\"name\":1},{\"name\":2}]");
+    String first = ((Map<?, ?>) tree.get(0)).keySet().iterator().next().toString();
+    String second = ((Map<?, ?>) tree.get(1)).keySet().iterator().next().toString();
+    assertTrue(first == second);
+  }
+
+  //// Private Area
+
+  /** Returns each token of <code>json</code> with its text, if any. */
+  private static List<String> tokens(String json, int bufferSize) throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(json), bufferSize);
+    List<String> result = new ArrayList<String>();
+    JsonToken token;
+    while ((token = tokenizer.next()) != null) {
+      boolean hasText = (token != JsonToken.START_OBJECT) && (token != JsonToken.END_OBJECT)
+          && (token != JsonToken.START_ARRAY) && (token != JsonToken.END_ARRAY);
+      result.add(hasText ? token + " " + tokenizer.getText() : token.toString());
+    }
+    return result;
+  }
+
+  private static void assertNotLong(JsonTokenizer tokenizer) {
+    try {
+      tokenizer.getLong();
+      fail("Got a long for " + tokenizer.getText());
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  /** Counts the characters read through it. */
+  private static final class CountingReader extends Reader {
+
+    CountingReader(Reader in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int result = in.read(cbuf, off, len);
+      if (result > 0) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private final Reader in;
+    long count;
+  }
+}
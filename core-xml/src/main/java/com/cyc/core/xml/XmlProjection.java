@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.xml;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+//// External Imports
+
+/**
+ * <p/>A compiled projection: a few XPath paths whose values are picked out of
+ * an XML document while it is read with StAX, without building a DOM.
+ * Reading stops as soon as every path has its value, so a value near the top
+ * of a large document costs little more than the bytes before it. Example:
+ * <code><pre>
+ *    XmlProjection spec = XmlProjection.compile("/response/@status | //result/name");
+ *    Map&lt;String, String&gt; values = spec.evaluate(reader);
+ *    String name = values.get("//result/name");
+ * </pre></code>
+ * <p/>
+ * Each path yields the XPath <code>string()</code> of the first node it
+ * selects in document order: the value of an attribute, or all the text
+ * inside an element; or null if it selects nothing. The supported subset is
+ * <ul>
+ * <li>child steps, <code>a/b</code>, with a leading <code>/</code> optional;</li>
+ * <li>descendant steps, <code>//b</code> and <code>a//b</code>;</li>
+ * <li>the wildcard <code>*</code> for any element;</li>
+ * <li>a final attribute step, <code>a/@id</code>.</li>
+ * </ul>
+ * Names are matched by local name, ignoring namespaces, since a projection
+ * has no namespace context to resolve prefixes in. Predicates, axes and
+ * functions are not supported.
+ * <p/>
+ * Compiled projections are cached by {@link #compile(String...)}, and are
+ * immutable and thread-safe.
+ */
+public class XmlProjection {
+
+  //// Constructors
+
+  private XmlProjection(List<Path> paths) {
+    this.paths = paths.toArray(new Path[paths.size()]);
+    StringBuilder spec = new StringBuilder();
+    for (Path path : paths) {
+      if (spec.length() > 0) {
+        spec.append(" | ");
+      }
+      spec.append(path.text);
+    }
+    this.spec = spec.toString();
+  }
+
+  //// Public Area
+
+  /**
+   * Returns the compiled projection of <code>paths</code>, from the cache if
+   * it has been compiled before. Each argument may hold several paths
+   * separated by <code>|</code>.
+   * @param paths the paths, in the subset described in the class comment
+   * @return the projection
+   * @throws IllegalArgumentException if there are no paths or one is not in the subset
+   */
+  public static XmlProjection compile(String... paths) {
+    if ((paths == null) || (paths.length == 0)) {
+      throw new IllegalArgumentException("Got no projection paths.");
+    }
+    String key = (paths.length == 1) ? paths[0] : Arrays.toString(paths);
+    if (key == null) {
+      throw new IllegalArgumentException("Got null projection path.");
+    }
+    XmlProjection result = compiled.get(key);
+    if (result != null) {
+      return result;
+    }
+    List<Path> compiledPaths = new ArrayList<Path>();
+    for (String arg : paths) {
+      if (arg == null) {
+        throw new IllegalArgumentException("Got null projection path.");
+      }
+      for (String path : arg.split("\\|", -1)) {
+        compiledPaths.add(Path.compile(path.trim()));
+      }
+    }
+    result = new XmlProjection(compiledPaths);
+    if (compiled.size() >= MAX_COMPILED) {
+      compiled.clear(); // specs are normally a handful of constants
+    }
+    compiled.put(key, result);
+    return result;
+  }
+
+  /** Returns the paths, separated by <code>" | "</code>; equal for equal projections. */
+  public String getSpec() {
+    return spec;
+  }
+
+  /** Returns the paths, in order. */
+  public List<String> getPaths() {
+    List<String> result = new ArrayList<String>(paths.length);
+    for (Path path : paths) {
+      result.add(path.text);
+    }
+    return result;
+  }
+
+  /**
+   * Reads <code>reader</code> until every path has its value, or to the end
+   * of the document. Does not close the reader.
+   * @param reader the XML text
+   * @return the value of each path, keyed by the path as returned by
+   * {@link #getPaths()}, in order; null for a path that selects nothing
+   * @throws XMLStreamException if the XML read is not well-formed
+   * @throws IOException if reading fails
+   */
+  public Map<String, String> evaluate(Reader reader) throws IOException, XMLStreamException {
+    XMLStreamReader xml = inputFactory.get().createXMLStreamReader(reader);
+    try {
+      return evaluate(xml);
+    } catch (XMLStreamException e) {
+      if (e.getNestedException() instanceof IOException) {
+        throw (IOException) e.getNestedException();
+      }
+      throw e;
+    } finally {
+      try { xml.close(); } catch (Exception e) {}
+    }
+  }
+
+  /**
+   * Reads <code>xml</code> from its current event until every path has its
+   * value, or to the end of the document; paths are matched from the root
+   * element. Leaves the reader just past the event completing the last value.
+   * @param xml the XML reader, before the root element
+   * @return the value of each path, as for {@link #evaluate(Reader)}
+   * @throws XMLStreamException if the XML read is not well-formed
+   */
+  public Map<String, String> evaluate(XMLStreamReader xml) throws XMLStreamException {
+    int count = paths.length;
+    String[] values = new String[count];
+    boolean[] found = new boolean[count];
+    int remaining = count;
+    // states[depth * count + i]: the steps of path i matched at that depth, as a bit set
+    long[] states = new long[8 * count];
+    for (int i = 0; i < count; i++) {
+      states[i] = 1L; // nothing matched yet at the document
+    }
+    int[] captureDepth = new int[count];
+    Arrays.fill(captureDepth, -1);
+    StringBuilder[] captures = new StringBuilder[count];
+    int capturing = 0;
+    int depth = 0;
+    while (xml.hasNext()) {
+      switch (xml.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          if ((depth + 1) * count > states.length) {
+            states = Arrays.copyOf(states, states.length * 2);
+          }
+          String name = xml.getLocalName();
+          int parent = (depth - 1) * count;
+          int current = depth * count;
+          for (int i = 0; i < count; i++) {
+            if (found[i] || (captureDepth[i] >= 0)) {
+              states[current + i] = 0;
+              continue;
+            }
+            Path path = paths[i];
+            long state = path.advance(states[parent + i], name);
+            states[current + i] = state;
+            if (!path.isMatch(state)) {
+              continue;
+            }
+            if (path.attribute == null) {
+              captureDepth[i] = depth;
+              if (captures[i] == null) {
+                captures[i] = new StringBuilder();
+              }
+              capturing++;
+            } else {
+              String value = getAttributeValue(xml, path.attribute);
+              if (value != null) {
+                values[i] = value;
+                found[i] = true;
+                remaining--;
+              }
+            }
+          }
+          if (remaining == 0) {
+            return toMap(values);
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (capturing > 0) {
+            for (int i = 0; i < count; i++) {
+              if (captureDepth[i] >= 0) {
+                captures[i].append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+              }
+            }
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if (capturing > 0) {
+            for (int i = 0; i < count; i++) {
+              if (captureDepth[i] == depth) {
+                values[i] = captures[i].toString();
+                found[i] = true;
+                captureDepth[i] = -1;
+                capturing--;
+                remaining--;
+              }
+            }
+            if (remaining == 0) {
+              return toMap(values);
+            }
+          }
+          depth--;
+          break;
+        default:
+          break;
+      }
+    }
+    return toMap(values);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return (obj instanceof XmlProjection) && spec.equals(((XmlProjection) obj).spec);
+  }
+
+  @Override
+  public int hashCode() {
+    return spec.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return spec;
+  }
+
+  //// Private Area
+
+  private Map<String, String> toMap(String[] values) {
+    Map<String, String> result = new LinkedHashMap<String, String>(paths.length * 2);
+    for (int i = 0; i < paths.length; i++) {
+      result.put(paths[i].text, values[i]);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private static String getAttributeValue(XMLStreamReader xml, String localName) {
+    for (int i = 0, n = xml.getAttributeCount(); i < n; i++) {
+      if (localName.equals(xml.getAttributeLocalName(i))) {
+        return xml.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  //// Internal Rep
+
+  /**
+   * One compiled path. Its states are bit sets in which bit <code>i</code>
+   * means the first <code>i</code> element steps have matched the element or
+   * one of its ancestors; bit <code>names.length</code> means the element is
+   * selected.
+   */
+  private static final class Path {
+
+    private Path(String text, String[] names, boolean[] descendant, String attribute) {
+      this.text = text;
+      this.names = names;
+      this.descendant = descendant;
+      this.attribute = attribute;
+    }
+
+    static Path compile(String text) {
+      boolean nextDescendant = text.startsWith("//");
+      String rest = nextDescendant ? text.substring(2) : (text.startsWith("/") ? text.substring(1) : text);
+      List<String> names = new ArrayList<String>();
+      List<Boolean> descendant = new ArrayList<Boolean>();
+      String attribute = null;
+      int start = 0;
+      while (start <= rest.length()) {
+        int end = rest.indexOf('/', start);
+        if (end < 0) {
+          end = rest.length();
+        }
+        String step = rest.substring(start, end);
+        start = end + 1;
+        if (step.isEmpty()) {
+          if (nextDescendant || (end == rest.length())) {
+            throw invalidPath(text); // "///" or a trailing "/"
+          }
+          nextDescendant = true;
+          continue;
+        }
+        if (attribute != null) {
+          throw invalidPath(text); // an attribute must be the last step
+        }
+        if (step.startsWith("@")) {
+          if (names.isEmpty() || nextDescendant || !isName(step.substring(1))) {
+            throw invalidPath(text);
+          }
+          attribute = step.substring(1);
+          continue;
+        }
+        if (!step.equals("*") && !isName(step)) {
+          throw invalidPath(text);
+        }
+        names.add(step.equals("*") ? null : step);
+        descendant.add(Boolean.valueOf(nextDescendant));
+        nextDescendant = false;
+      }
+      if (names.isEmpty() || (names.size() > MAX_STEPS)) {
+        throw invalidPath(text);
+      }
+      boolean[] descendantSteps = new boolean[descendant.size()];
+      for (int i = 0; i < descendantSteps.length; i++) {
+        descendantSteps[i] = descendant.get(i).booleanValue();
+      }
+      return new Path(text, names.toArray(new String[names.size()]), descendantSteps, attribute);
+    }
+
+    /** Returns the state of a child element named <code>name</code> of an element in <code>state</code>. */
+    long advance(long state, String name) {
+      long result = 0;
+      for (int i = 0; i < names.length; i++) {
+        if ((state & (1L << i)) != 0) {
+          if (descendant[i]) {
+            result |= 1L << i; // the step may still match further down
+          }
+          if ((names[i] == null) || names[i].equals(name)) {
+            result |= 1L << (i + 1);
+          }
+        }
+      }
+      return result;
+    }
+
+    boolean isMatch(long state) {
+      return (state & (1L << names.length)) != 0;
+    }
+
+    private static boolean isName(String step) {
+      if (step.isEmpty() || !(Character.isLetter(step.charAt(0)) || (step.charAt(0) == '_'))) {
+        return false;
+      }
+      for (int i = 1; i < step.length(); i++) {
+        char c = step.charAt(i);
+        if (!(Character.isLetterOrDigit(c) || (c == '_') || (c == '-') || (c == '.'))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static IllegalArgumentException invalidPath(String text) {
+      return new IllegalArgumentException("Got invalid projection path: '" + text + "'");
+    }
+
+    final String text;
+    final String[] names; // null for *
+    final boolean[] descendant;
+    final String attribute;
+
+    private static final int MAX_STEPS = 62;
+  }
+
+  private static final int MAX_COMPILED = 1024;
+
+  private static final Map<String, XmlProjection> compiled = new ConcurrentHashMap<String, XmlProjection>();
+
+  private static ThreadLocal<XMLInputFactory> inputFactory = new ThreadLocal<XMLInputFactory>() {
+    @Override
+    protected synchronized XMLInputFactory initialValue() {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+      return factory;
+    }
+  };
+
+  private final Path[] paths;
+  private final String spec;
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.core.xml;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//// External Imports
+
+/**
+ * Tests XmlProjection: its path subset, and reading no more than it needs.
+ */
+public class XmlProjectionTest {
+
+  private static final String DOC = "<r status=\"ok\" xmlns:n=\"urn:n\">"
+      + "<head><n:title lang=\"en\">T</n:title></head>"
+      + "<body><item id=\"1\">one<b>bold</b></item><item id=\"2\">two</item></body>"
+      + "</r>";
+
+  @Test
+  public void testPathSubset() throws Exception {
+    Map<String, String> values = evaluate(DOC, "/r/@status", "r/head/title", "//title/@lang",
+        "//item/@id", "//b", "/r/*/item", "r//item", "/r/body/item/@missing", "/r/missing", "/body/item");
+    assertEquals("ok", values.get("/r/@status"));
+    assertEquals("T", values.get("r/head/title"));
+    assertEquals("en", values.get("//title/@lang"));
+    assertEquals("1", values.get("//item/@id"));
+    assertEquals("bold", values.get("//b"));
+    assertEquals("onebold", values.get("/r/*/item"));
+    assertEquals("onebold", values.get("r//item"));
+    assertNull(values.get("/r/body/item/@missing"));
+    assertNull(values.get("/r/missing"));
+    assertNull(values.get("/body/item")); // paths start at the root element
+    assertEquals(10, values.size());
+  }
+
+  @Test
+  public void testPathsKeepTheirOrder() throws Exception {
+    XmlProjection spec = XmlProjection.compile("//b | /r/@status", "//item");
+    assertEquals(Arrays.asList("//b", "/r/@status", "//item"), spec.getPaths());
+    assertEquals("//b | /r/@status | //item", spec.getSpec());
+    assertEquals(spec.getPaths(), Arrays.asList(spec.evaluate(new StringReader(DOC)).keySet().toArray()));
+  }
+
+  @Test
+  public void testInvalidPaths() {
+    for (String path : new String[] {"", "/", "a/", "///a", "a///b", "@id", "//@id", "a/@id/b",
+        "a//@id", "a/@", "a[1]", "a/text()", "1a", "a|", "a/../b", "a b"}) {
+      try {
+        XmlProjection.compile(path);
+        fail("Compiled " + path);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    try {
+      XmlProjection.compile();
+      fail("Compiled no paths");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCompiledProjectionsAreShared() {
+    assertSame(XmlProjection.compile("/a/b | //c"), XmlProjection.compile("/a/b | //c"));
+    assertEquals(XmlProjection.compile("/a/b", "//c"), XmlProjection.compile("/a/b|//c"));
+  }
+
+  @Test
+  public void testNestedCaptures() throws Exception {
+    Map<String, String> values = evaluate("<r><item>a<item>b</item>c</item><item>d</item></r>",
+        "//item", "//item/item", "/r/item/item");
+    assertEquals("abc", values.get("//item"));
+    assertEquals("b", values.get("//item/item"));
+    assertEquals("b", values.get("/r/item/item"));
+  }
+
+  @Test
+  public void testTextKinds() throws Exception {
+    Map<String, String> values = evaluate(
+        "<r><t><![CDATA[<x>&]]> &amp; &#65;<!-- c --><?p i?></t><e/></r>", "/r/t", "/r/e");
+    assertEquals("<x>& & A", values.get("/r/t"));
+    assertEquals("", values.get("/r/e"));
+  }
+
+  @Test
+  public void testStopsOnceEveryPathHasItsValue() throws Exception {
+    StringBuilder xml = new StringBuilder("<r id=\"7\"><name>n</name><rest>");
+    for (int i = 0; i < 100000; i++) {
+      xml.append("<x>").append(i).append("</x>");
+    }
+    xml.append("</rest></r>");
+    CountingReader reader = new CountingReader(new StringReader(xml.toString()));
+    Map<String, String> values = XmlProjection.compile("/r/@id | /r/name").evaluate(reader);
+    assertEquals("7", values.get("/r/@id"));
+    assertEquals("n", values.get("/r/name"));
+    assertTrue("read " + reader.count + " of " + xml.length() + " chars", reader.count < xml.length() / 10);
+  }
+
+  @Test
+  public void testMalformedXml() throws Exception {
+    for (String xml : new String[] {"<r><a>x</b></r>", "<r><a>x</a>", "not xml", "<r a=1/>"}) {
+      try {
+        evaluate(xml, "//missing");
+        fail("Accepted " + xml);
+      } catch (XMLStreamException e) {
+        // expected
+      }
+    }
+    // nothing after the last value is read, so a later error goes unnoticed
+    assertEquals("x", evaluate("<r><a>x</a><oops></r>", "/r/a").get("/r/a"));
+  }
+
+  @Test
+  public void testDtdEntitiesNotExpanded() throws Exception {
+    try {
+      Map<String, String> values = evaluate(
+          "<!DOCTYPE r [<!ENTITY e \"expanded\">]><r><a>&e;</a></r>", "/r/a");
+      assertTrue(!"expanded".equals(values.get("/r/a")));
+    } catch (XMLStreamException e) {
+      // also fine: the entity is undeclared without DTD support
+    }
+  }
+
+  //// Private Area
+
+  private static Map<String, String> evaluate(String xml, String... paths)
+      throws IOException, XMLStreamException {
+    return XmlProjection.compile(paths).evaluate(new StringReader(xml));
+  }
+
+  /** Counts the characters read through it. */
+  private static final class CountingReader extends Reader {
+
+    CountingReader(Reader in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int result = in.read(cbuf, off, len);
+      if (result > 0) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private final Reader in;
+    long count;
+  }
+}
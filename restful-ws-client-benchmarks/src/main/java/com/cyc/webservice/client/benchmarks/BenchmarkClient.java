@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient;
+import com.cyc.webservice.client.WSRequestParams;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+//// External Imports
+
+/**
+ * Exposes the client's protected hot-path steps so they can be benchmarked in isolation.
+ */
+public class BenchmarkClient extends GenericRestfulWSClient {
+
+  //// Constructors
+
+  public BenchmarkClient(int port, Map<WSRequestParams, Object> cache) {
+    this("http", "127.0.0.1", port, "/webservices/concept/find", cache);
+  }
+
+  public BenchmarkClient(String protocol, String host, int port, String servicePath,
+      Map<WSRequestParams, Object> cache) {
+    super(protocol, host, port, servicePath, null, cache);
+  }
+
+  //// Public Area
+
+  public String urlFor(boolean allowPost, Object... paramNameThenValue) {
+    return getURLStringForRequest(allowPost, paramNameThenValue);
+  }
+
+  public String postDataFor(Object... paramNameThenValue) {
+    return getPostableData(paramNameThenValue);
+  }
+
+  public Document parse(String str) throws IOException, ParserConfigurationException, SAXException {
+    return convertStringToXml(str);
+  }
+
+  public static String decode(Reader reader) throws IOException {
+    return readFully(reader);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.ParserConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+//// External Imports
+
+/**
+ * Measures the response side without the network: decoding a UTF-8 body into
+ * a <code>String</code> the way the String calls do, and parsing that string
+ * into a DOM the way the XML calls do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodingBenchmark {
+
+  /** Size of the response body. */
+  @Param({"1024", "65536", "1048576"})
+  public int payloadBytes;
+
+  private BenchmarkClient client;
+  private byte[] body;
+  private String text;
+
+  @Setup
+  public void setUp() {
+    client = new BenchmarkClient(8080, null);
+    text = StubServer.xmlPayload(payloadBytes);
+    body = text.getBytes(UTF8);
+  }
+
+  @Benchmark
+  public String decodeString() throws IOException {
+    return BenchmarkClient.decode(new InputStreamReader(new ByteArrayInputStream(body), UTF8));
+  }
+
+  @Benchmark
+  public Document parseXml() throws IOException, ParserConfigurationException, SAXException {
+    return client.parse(text);
+  }
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//// External Imports
+
+/**
+ * Measures building the request URL (GET) and the form-encoded body (POST)
+ * from a parameter list, including URL encoding of the values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+  /** Number of name/value pairs per request. */
+  @Param({"2", "8", "32"})
+  public int paramPairs;
+
+  private BenchmarkClient client;
+  private Object[] paramNameThenValue;
+
+  @Setup
+  public void setUp() {
+    client = new BenchmarkClient(8080, null);
+    paramNameThenValue = new Object[paramPairs * 2];
+    for (int i = 0; i < paramPairs; i++) {
+      paramNameThenValue[i * 2] = "param" + i;
+      // mix plain values, values that need escaping, and non-strings
+      switch (i % 3) {
+        case 0:
+          paramNameThenValue[i * 2 + 1] = "dog";
+          break;
+        case 1:
+          paramNameThenValue[i * 2 + 1] = "(#$isa ?X #$Dog) & caf\u00e9";
+          break;
+        default:
+          paramNameThenValue[i * 2 + 1] = i;
+      }
+    }
+  }
+
+  @Benchmark
+  public String getUrl() {
+    return client.urlFor(false, paramNameThenValue);
+  }
+
+  @Benchmark
+  public String postUrl() {
+    return client.urlFor(true, paramNameThenValue);
+  }
+
+  @Benchmark
+  public String postData() {
+    return client.postDataFor(paramNameThenValue);
+  }
+}
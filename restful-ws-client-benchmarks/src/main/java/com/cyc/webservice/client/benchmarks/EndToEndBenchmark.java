@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.ParserConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+//// External Imports
+
+/**
+ * <p/>Measures uncached GET and POST throughput through the full client stack
+ * against a {@link StubServer} on the loopback interface. Concurrency is set
+ * with JMH's <code>-t</code> option; payload size and server latency with
+ * <code>-p payloadBytes=...</code> and <code>-p latencyMillis=...</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+  /** Size of each response body. */
+  @Param({"1024", "65536"})
+  public int payloadBytes;
+
+  /** Server side delay before each response. */
+  @Param({"0"})
+  public int latencyMillis;
+
+  private StubServer server;
+  private BenchmarkClient client;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new StubServer(payloadBytes, latencyMillis).start();
+    client = new BenchmarkClient(server.getPort(), null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  public String get() throws IOException {
+    return client.get(QUERY);
+  }
+
+  @Benchmark
+  public String post() throws IOException {
+    return client.post(QUERY);
+  }
+
+  @Benchmark
+  public Document getAsXml() throws IOException, ParserConfigurationException, SAXException {
+    return client.getAsXml(QUERY);
+  }
+
+  private static final Object[] QUERY = {"str", "dog", "searchType", "ANY", "maxResults", 100,
+    "startingFrom", 0, "uriType", "current", "conceptDetails", "typical",
+    "isExactMatch", true, "ignoreCase", true};
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+import com.cyc.webservice.client.WSRequestParams;
+import com.cyc.webservice.client.metrics.LatencyHistogram;
+import com.cyc.webservice.client.metrics.WSClientMetrics;
+import com.cyc.webservice.client.recording.WSCallLogReader;
+import com.cyc.webservice.client.recording.WSCallRecord;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//// External Imports
+
+/**
+ * <p/>Replays a call log recorded with
+ * {@link com.cyc.webservice.client.recording.WSCallRecorder} through a
+ * <code>GenericRestfulWSClient</code>, by default against a local
+ * {@link ReplayStubServer} that answers with the recorded response sizes and
+ * latencies, and reports throughput, latency percentiles, allocation rate and
+ * cache hit ratio.
+ * <p/>
+ * The recorded calls are replayed in order, wrapping around, by
+ * <code>--concurrency</code> threads. In closed-loop mode (the default) each
+ * thread issues its next call as soon as the previous one finishes. In
+ * open-loop mode (<code>--rate</code>) calls are issued on a fixed schedule
+ * regardless of how fast they complete, and latency is measured from the
+ * scheduled start, so queueing behind slow calls is counted.
+ * <p/>
+ * Usage:
+ * <pre>
+ *   java -cp target/benchmarks.jar com.cyc.webservice.client.benchmarks.LoadGenerator \
+ *     --log concept-find.wslog [--concurrency 8] [--rate 500] [--duration 30] \
+ *     [--requests 100000] [--cache-size 10000] [--latency-scale 1.0] \
+ *     [--target http://host:port/service/path] [--print]
+ * </pre>
+ */
+public class LoadGenerator {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>LoadGenerator</code>.
+   * @param records the calls to replay, at least one
+   * @param client the client to replay them through
+   * @param concurrency the number of replaying threads
+   * @param rate calls per second for open-loop replay, or 0 for closed-loop
+   * @param durationSecs stop after this many seconds
+   * @param maxRequests stop after this many calls, or 0 for no limit
+   */
+  public LoadGenerator(List<WSCallRecord> records, BenchmarkClient client,
+      int concurrency, double rate, int durationSecs, long maxRequests) {
+    if (records.isEmpty()) {
+      throw new IllegalArgumentException("Got empty call log.");
+    }
+    if ((concurrency < 1) || (rate < 0) || (durationSecs < 1) || (maxRequests < 0)) {
+      throw new IllegalArgumentException("Got invalid load parameters.");
+    }
+    this.records = records.toArray(new WSCallRecord[records.size()]);
+    this.client = client;
+    this.concurrency = concurrency;
+    this.rate = rate;
+    this.durationNanos = TimeUnit.SECONDS.toNanos(durationSecs);
+    this.maxRequests = (maxRequests == 0) ? Long.MAX_VALUE : maxRequests;
+  }
+
+  //// Public Area
+
+  /**
+   * Runs the replay to completion and prints a report.
+   * @param out where to print the report
+   * @throws InterruptedException if interrupted while waiting for the replay
+   */
+  public void run(PrintStream out) throws InterruptedException {
+    client.getMetrics().reset();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency,
+        0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    long startTime = System.nanoTime();
+    if (rate > 0) {
+      runOpenLoop(executor, startTime);
+    } else {
+      runClosedLoop(executor, startTime);
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    report(out, System.nanoTime() - startTime);
+  }
+
+  /**
+   * Command line entry point; see the class comment for the options.
+   * @param args the command line
+   * @throws Exception if the replay can't be run
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parseOptions(args);
+    String log = options.get("log");
+    if (log == null) {
+      System.err.println("Usage: LoadGenerator --log FILE [--concurrency N] [--rate PER_SEC]"
+          + " [--duration SECS] [--requests N] [--cache-size N] [--latency-scale X]"
+          + " [--target URL] [--print]");
+      System.exit(2);
+    }
+    List<WSCallRecord> records = WSCallLogReader.readAll(new File(log));
+    if (options.containsKey("print")) {
+      for (WSCallRecord record : records) {
+        System.out.println(record);
+      }
+      return;
+    }
+    int cacheSize = Integer.parseInt(option(options, "cache-size", "0"));
+    String target = options.get("target");
+    ReplayStubServer server = null;
+    BenchmarkClient client;
+    if (target == null) {
+      // only used to encode requests the way the replaying client will
+      BenchmarkClient encoder = new BenchmarkClient(0, null);
+      server = new ReplayStubServer(records, encoder,
+          Double.parseDouble(option(options, "latency-scale", "1.0")));
+      server.start();
+      client = new BenchmarkClient(server.getPort(), newCache(cacheSize));
+    } else {
+      URL url = new URL(target);
+      client = new BenchmarkClient(url.getProtocol(), url.getHost(), url.getPort(), url.getPath(),
+          newCache(cacheSize));
+    }
+    try {
+      new LoadGenerator(records, client,
+          Integer.parseInt(option(options, "concurrency", "8")),
+          Double.parseDouble(option(options, "rate", "0")),
+          Integer.parseInt(option(options, "duration", "30")),
+          Long.parseLong(option(options, "requests", "0"))).run(System.out);
+      if (server != null) {
+        System.out.println("Stub server requests: " + server.getRequestCount());
+      }
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  //// Private Area
+
+  private void runClosedLoop(ExecutorService executor, final long startTime) {
+    for (int i = 0; i < concurrency; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long index;
+          while (((index = nextIndex.getAndIncrement()) < maxRequests)
+              && ((System.nanoTime() - startTime) < durationNanos)) {
+            replay(records[(int) (index % records.length)], System.nanoTime());
+          }
+        }
+      });
+    }
+  }
+
+  private void runOpenLoop(ExecutorService executor, long startTime) {
+    double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    for (long index = 0; index < maxRequests; index++) {
+      final long scheduledTime = startTime + (long) (index * intervalNanos);
+      if ((scheduledTime - startTime) >= durationNanos) {
+        break;
+      }
+      long wait;
+      while ((wait = scheduledTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      final WSCallRecord record = records[(int) (index % records.length)];
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          replay(record, scheduledTime);
+        }
+      });
+    }
+  }
+
+  /** Replays one call, measuring from <code>startTime</code>. */
+  private void replay(WSCallRecord record, long startTime) {
+    long allocatedBefore = threadAllocatedBytes();
+    try {
+      Object[] params = record.getParams();
+      RequestType requestType = RequestType.valueOf(record.getMethod());
+      switch (record.getCallType()) {
+        case XML:
+          if (requestType == RequestType.GET) {
+            client.getAsXml(params);
+          } else if (requestType == RequestType.POST) {
+            client.postAsXml(params);
+          } else {
+            send(requestType, params);
+          }
+          break;
+        case JSON:
+          if (requestType == RequestType.GET) {
+            client.getAsJson(params);
+          } else if (requestType == RequestType.POST) {
+            client.postAsJson(params);
+          } else {
+            send(requestType, params);
+          }
+          break;
+        case STREAM:
+        case READER:
+        case SOURCE:
+        case PROJECTION: // the record doesn't have the projected paths, so the whole body is read
+          drain(open(requestType, params));
+          break;
+        default:
+          send(requestType, params);
+      }
+    } catch (Exception e) {
+      errors.increment();
+    } finally {
+      latencies.record(System.nanoTime() - startTime);
+      completed.increment();
+      long allocatedAfter = threadAllocatedBytes();
+      if ((allocatedBefore >= 0) && (allocatedAfter >= 0)) {
+        allocatedBytes.add(allocatedAfter - allocatedBefore);
+      }
+    }
+  }
+
+  /** Sends a call with <code>requestType</code>, reading its result as a String. */
+  private String send(RequestType requestType, Object[] params) throws IOException {
+    switch (requestType) {
+      case POST:
+        return client.post(params);
+      case PUT:
+        return client.put(params);
+      case PATCH:
+        return client.patch(params);
+      case DELETE:
+        return client.delete(params);
+      default:
+        return client.get(params);
+    }
+  }
+
+  /** Sends a call with <code>requestType</code>, returning its result as a stream. */
+  private InputStream open(RequestType requestType, Object[] params) throws IOException {
+    switch (requestType) {
+      case POST:
+        return client.postAsStream(params);
+      case PUT:
+        return client.putAsStream(params);
+      case PATCH:
+        return client.patchAsStream(params);
+      case DELETE:
+        return client.deleteAsStream(params);
+      default:
+        return client.getAsStream(params);
+    }
+  }
+
+  private void report(PrintStream out, long elapsedNanos) {
+    double secs = elapsedNanos / 1e9;
+    long calls = completed.sum();
+    WSClientMetrics metrics = client.getMetrics();
+    out.println("Mode:        " + ((rate > 0) ? "open loop at " + rate + "/s" : "closed loop")
+        + ", concurrency " + concurrency);
+    out.printf("Calls:       %d in %.1f s, %d errors%n", calls, secs, errors.sum());
+    out.printf("Throughput:  %.1f calls/s%n", calls / secs);
+    out.printf("Latency ms:  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+        millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+        millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+        millis(latencies.getMax()));
+    if (threadAllocatedBytes() >= 0) {
+      out.printf("Allocation:  %.1f MB/s, %.1f KB/call%n",
+          allocatedBytes.sum() / secs / (1024 * 1024),
+          (calls == 0) ? 0.0 : allocatedBytes.sum() / (double) calls / 1024);
+    }
+    out.printf("Cache:       %.1f%% hit ratio (%d hits, %d misses)%n",
+        metrics.getCacheHitRatio() * 100, metrics.getCacheHits(), metrics.getCacheMisses());
+    out.printf("Transfer:    %.1f MB in, %.1f MB out%n",
+        metrics.getBytesIn() / (1024.0 * 1024), metrics.getBytesOut() / (1024.0 * 1024));
+  }
+
+  private static long threadAllocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) THREADS)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    try {
+      byte[] buf = new byte[8192];
+      while (in.read(buf) >= 0) {
+        // discard
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static Map<WSRequestParams, Object> newCache(final int size) {
+    if (size <= 0) {
+      return null;
+    }
+    return Collections.synchronizedMap(new LinkedHashMap<WSRequestParams, Object>(size, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<WSRequestParams, Object> eldest) {
+        return size() > size;
+      }
+    });
+  }
+
+  private static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+      }
+      String name = args[i].substring(2);
+      if ((i + 1 < args.length) && !args[i + 1].startsWith("--")) {
+        result.put(name, args[++i]);
+      } else {
+        result.put(name, "true");
+      }
+    }
+    return result;
+  }
+
+  private static String option(Map<String, String> options, String name, String defaultValue) {
+    String result = options.get(name);
+    return (result == null) ? defaultValue : result;
+  }
+
+  //// Internal Rep
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final WSCallRecord[] records;
+  private final BenchmarkClient client;
+  private final int concurrency;
+  private final double rate;
+  private final long durationNanos;
+  private final long maxRequests;
+  private final AtomicLong nextIndex = new AtomicLong();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+import com.cyc.webservice.client.recording.WSCallRecord;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//// External Imports
+
+/**
+ * A {@link StubServer} that answers each recorded request with a body of the
+ * recorded size after the recorded latency (scaled), so a replay puts the same
+ * shape of load on the client as production did. Requests that were never
+ * recorded get the default payload and latency.
+ */
+public class ReplayStubServer extends StubServer {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>ReplayStubServer</code>.
+   * @param records the recorded calls to imitate
+   * @param client used to encode each record's parameters exactly as they will be sent
+   * @param latencyScale multiplier for recorded latencies; 0 answers immediately
+   */
+  public ReplayStubServer(List<WSCallRecord> records, BenchmarkClient client, double latencyScale) {
+    super(DEFAULT_PAYLOAD_BYTES, 0);
+    for (WSCallRecord record : records) {
+      // cache hits and failures say nothing about how the server answers
+      if (record.isCacheHit() || record.isFailed() || (record.getStatus() < 0)) {
+        continue;
+      }
+      int latencyMillis = (int) Math.round(record.getLatencyMicros() * latencyScale / 1000.0);
+      responses.put(keyFor(record, client),
+          new int[]{(int) Math.min(record.getResponseBytes(), Integer.MAX_VALUE), latencyMillis});
+    }
+  }
+
+  //// Public Area
+
+  /**
+   * Returns the key under which the server sees <code>record</code>'s request.
+   * @param record the recorded call
+   * @param client the client that will send it
+   * @return the key
+   */
+  public static String keyFor(WSCallRecord record, BenchmarkClient client) {
+    Object[] params = record.getParams();
+    boolean hasBody = RequestType.valueOf(record.getMethod()).hasBody();
+    String url = client.urlFor(hasBody, params);
+    int queryStart = url.indexOf('?');
+    String query = (queryStart < 0) ? null : url.substring(queryStart + 1);
+    return key(record.getMethod(), query, hasBody ? client.postDataFor(params) : "");
+  }
+
+  //// Protected Area
+
+  @Override
+  protected byte[] getPayload(String method, String query, String body) {
+    int[] response = responses.get(key(method, query, body));
+    if (response == null) {
+      return super.getPayload(method, query, body);
+    }
+    // round up so that a handful of sizes serve many records
+    int size = ((response[0] + PAYLOAD_GRANULARITY - 1) / PAYLOAD_GRANULARITY) * PAYLOAD_GRANULARITY;
+    byte[] payload = payloads.get(size);
+    if (payload == null) {
+      payload = xmlPayload(size).getBytes(UTF8);
+      payloads.putIfAbsent(size, payload);
+    }
+    return payload;
+  }
+
+  @Override
+  protected int getLatencyMillis(String method, String query, String body) {
+    int[] response = responses.get(key(method, query, body));
+    return (response == null) ? super.getLatencyMillis(method, query, body) : response[1];
+  }
+
+  //// Private Area
+
+  private static String key(String method, String query, String body) {
+    return method + ' ' + ((query == null) ? "" : query) + '\n' + body;
+  }
+
+  //// Internal Rep
+
+  private static final int DEFAULT_PAYLOAD_BYTES = 1024;
+  private static final int PAYLOAD_GRANULARITY = 256;
+
+  /** Request key to {response bytes, latency millis}. Written only during construction. */
+  private final Map<String, int[]> responses = new HashMap<String, int[]>();
+  private final ConcurrentMap<Integer, byte[]> payloads = new ConcurrentHashMap<Integer, byte[]>();
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.WSRequestParams;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//// External Imports
+
+/**
+ * Measures <code>WSRequestParams</code> hashing and equality, and cache lookups
+ * keyed by them, for caches of different sizes. Keys are built fresh for each
+ * lookup, the way the client builds them on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParamsBenchmark {
+
+  /** Number of entries in the cache. */
+  @Param({"100", "10000"})
+  public int cacheSize;
+
+  private Map<WSRequestParams, Object> cache;
+  private String[] terms;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    cache = new HashMap<WSRequestParams, Object>();
+    terms = new String[cacheSize];
+    for (int i = 0; i < cacheSize; i++) {
+      terms[i] = "term" + i;
+      cache.put(key(terms[i]), terms[i]);
+    }
+  }
+
+  @Benchmark
+  public int hashCodeOfKey() {
+    return key(nextTerm()).hashCode();
+  }
+
+  @Benchmark
+  public boolean equalKeys() {
+    String term = nextTerm();
+    return key(term).equals(key(term));
+  }
+
+  @Benchmark
+  public Object cacheHit() {
+    return cache.get(key(nextTerm()));
+  }
+
+  @Benchmark
+  public Object cacheMiss() {
+    return cache.get(key(nextTerm() + "-missing"));
+  }
+
+  private String nextTerm() {
+    if (next == terms.length) {
+      next = 0;
+    }
+    return terms[next++];
+  }
+
+  private static WSRequestParams key(String term) {
+    return new WSRequestParams("String", "GET", "str", term,
+        "searchType", "ANY", "maxResults", 100, "startingFrom", 0);
+  }
+}
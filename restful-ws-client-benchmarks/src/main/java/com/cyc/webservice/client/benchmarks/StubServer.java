@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.benchmarks;
+
+//// Internal Imports
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//// External Imports
+
+/**
+ * <p/>A tiny HTTP server, bound to the loopback interface on an ephemeral port,
+ * that answers every request on every path with a fixed XML document of a
+ * configurable size after a configurable delay. It lets the client be measured
+ * end to end without touching the network. Subclasses can vary the response
+ * and delay per request.
+ * <p/>
+ * Example:
+ * <code><pre>
+ *    StubServer server = new StubServer(64 * 1024, 5).start();
+ *    GenericRestfulWSClient client = new GenericRestfulWSClient("http",
+ *      "127.0.0.1", server.getPort(), "/webservices/concept/find");
+ *    ...
+ *    server.stop();
+ * </pre></code>
+ */
+public class StubServer {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>StubServer</code>.
+   * @param payloadBytes the approximate size of every response body
+   * @param latencyMillis how long to wait before answering each request
+   */
+  public StubServer(int payloadBytes, int latencyMillis) {
+    if ((payloadBytes < 0) || (latencyMillis < 0)) {
+      throw new IllegalArgumentException("Got invalid payload size or latency: "
+          + payloadBytes + ", " + latencyMillis);
+    }
+    this.payload = xmlPayload(payloadBytes).getBytes(UTF8);
+    this.latencyMillis = latencyMillis;
+  }
+
+  //// Public Area
+
+  /**
+   * Starts serving.
+   * @return this server
+   * @throws IOException if the server socket can't be opened
+   */
+  public StubServer start() throws IOException {
+    // without this the JDK server's separate header and body writes hit Nagle's
+    // algorithm and every response waits out a delayed ACK
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange);
+      }
+    });
+    server.start();
+    return this;
+  }
+
+  /** Stops serving and releases the port. */
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  /** Returns the port the server is listening on. */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** Returns the number of requests answered so far. */
+  public long getRequestCount() {
+    synchronized (this) {
+      return requestCount;
+    }
+  }
+
+  /** Returns the response body served for every request. */
+  public byte[] getPayload() {
+    return payload.clone();
+  }
+
+  /**
+   * Returns an XML document of roughly <code>bytes</code> bytes, shaped like a
+   * concept search result.
+   * @param bytes the approximate size of the document
+   * @return the document text
+   */
+  public static String xmlPayload(int bytes) {
+    StringBuilder buf = new StringBuilder(bytes + 128);
+    buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><results>");
+    for (int i = 0; buf.length() < bytes; i++) {
+      buf.append("<concept id=\"Mx4r").append(i).append("\" uriType=\"current\">")
+          .append("<label>Dog ").append(i).append("</label>")
+          .append("<comment>A domesticated carnivorous mammal, term number ").append(i).append(".</comment>")
+          .append("</concept>");
+    }
+    return buf.append("</results>").toString();
+  }
+
+  //// Protected Area
+
+  /**
+   * Returns the response body for a request. By default this is the fixed
+   * payload given to the constructor; subclasses may vary it per request.
+   * @param method the HTTP method
+   * @param query the raw (still encoded) query string, or null if none
+   * @param body the request body, empty for GET
+   * @return the response body
+   */
+  protected byte[] getPayload(String method, String query, String body) {
+    return payload;
+  }
+
+  /**
+   * Returns how long to wait before answering a request. By default this is
+   * the fixed latency given to the constructor; subclasses may vary it per request.
+   * @param method the HTTP method
+   * @param query the raw (still encoded) query string, or null if none
+   * @param body the request body, empty for GET
+   * @return the delay in milliseconds
+   */
+  protected int getLatencyMillis(String method, String query, String body) {
+    return latencyMillis;
+  }
+
+  //// Private Area
+
+  private void respond(HttpExchange exchange) throws IOException {
+    try {
+      // drain the request body so the connection can be reused
+      ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+      InputStream in = exchange.getRequestBody();
+      byte[] buf = new byte[4096];
+      int bytesRead;
+      while ((bytesRead = in.read(buf)) >= 0) {
+        requestBody.write(buf, 0, bytesRead);
+      }
+      // the client sends a PATCH as a POST with an override header
+      String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+      if (method == null) {
+        method = exchange.getRequestMethod();
+      }
+      String query = exchange.getRequestURI().getRawQuery();
+      String body = new String(requestBody.toByteArray(), UTF8);
+      int delay = getLatencyMillis(method, query, body);
+      if (delay > 0) {
+        TimeUnit.MILLISECONDS.sleep(delay);
+      }
+      byte[] response = getPayload(method, query, body);
+      exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=UTF-8");
+      exchange.sendResponseHeaders(200, response.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(response);
+      out.flush();
+      synchronized (this) {
+        requestCount++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  //// Internal Rep
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final byte[] payload;
+  private final int latencyMillis;
+  private HttpServer server;
+  private ExecutorService executor;
+  private long requestCount = 0;
+}
@@ -11,26 +11,53 @@ package com.cyc.webservice.client;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpRequest;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.HttpsURLConnection;
@@ -38,6 +65,7 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.Document;
@@ -46,6 +74,19 @@ import org.xml.sax.SAXException;
 
 //// External Imports
 
+import com.cyc.core.json.JsonHandler;
+import com.cyc.core.json.JsonParseException;
+import com.cyc.core.json.JsonTokenizer;
+import com.cyc.core.json.JsonTree;
+import com.cyc.core.xml.XmlProjection;
+import com.cyc.webservice.client.cache.CompactXml;
+import com.cyc.webservice.client.cache.DiskResponseCache;
+import com.cyc.webservice.client.cache.WSCacheEntry;
+import com.cyc.webservice.client.metrics.WSCacheEvent;
+import com.cyc.webservice.client.metrics.WSCallType;
+import com.cyc.webservice.client.metrics.WSClientMetrics;
+import com.cyc.webservice.client.metrics.WSPriority;
+
 /**
  * <p/>GenericRestfulWSClient is designed to make communicating with
  * a variety of restful web services as convenient as possible.
@@ -74,7 +115,11 @@ import org.xml.sax.SAXException;
  *   **** add following parameters to client:
  *        -Djavax.net.ssl.trustStore=cacerts.new -Djavax.net.ssl.trustStorePassword=changeit
  * </pre>
- * <p/>@todo need to add support PUT and DELETE http requests
+ * <p/>
+ * PUT, DELETE and PATCH requests are never cached. When one succeeds, the
+ * results cached for its URL, and those its invalidation rules match (see
+ * {@link #addInvalidationRule(WSInvalidationRule)}), are removed, so that
+ * resources that are written as well as read can be cached safely.
  * <p/>Copyright (c) 2009-10 Cycorp, Inc.  All rights reserved.
  * <br/>This software is the proprietary information of Cycorp, Inc.
  * <br/>Use is subject to license terms.
@@ -153,26 +198,8 @@ public class GenericRestfulWSClient {
     }
     setLoggerLevel(Level.WARNING);
     this.cache = cache;
-    StringBuilder buf = new StringBuilder();
-    buf.append(protocol).append("://");
-    if ((host == null) || ("".equals(host))) {
-      throw new IllegalArgumentException("Got invalid host: " + host);
-    } else {
-      buf.append(host);
-    }
-    if (port > 0) {
-      buf.append(":").append(port);
-    }
-    urlToPort = buf.toString();
-    if ((servicePath == null) || ("".equals(servicePath))) {
-      buf.append("/");
-    } else {
-      if (!servicePath.startsWith(("/"))) {
-        buf.append("/");
-      }
-      buf.append(servicePath);
-    }
-    urlStarter = buf.toString();
+    urlToPort = buildUrlToPort(protocol, host, port);
+    urlStarter = buildUrlStarter(urlToPort, servicePath);
     if (requestProps == null) {
       this.requestProps = new HashMap<String, String>(0);
     } else {
@@ -354,7 +381,7 @@ public class GenericRestfulWSClient {
     }
     double divisor = 1.0;
     double nsecs, usecs, msecs, secs, mins, hours, days;
-    StringBuilder buf = new StringBuilder(1024);
+    StringBuilder buf = new StringBuilder(64);
     if ((days = Math.floor(nanoDuration / NANO_DAYS)) >= 1.0) {
       buf.append((long)days).append((days == 1.0) ? " day, " : " days, ");
       hours = Math.floor(nanoDuration / NANO_HOURS) % 24;
@@ -401,15 +428,18 @@ public class GenericRestfulWSClient {
    */
   public String get(Object... paramNameThenValue)
       throws MalformedURLException, IOException {
-    WSRequestParams params = new WSRequestParams("String", "GET", paramNameThenValue);
-    String result = (String) getCached(params);
-    if (result != null) {
+    WSRequestTrace trace = startTrace("GET", WSCallType.STRING, paramNameThenValue);
+    long startTime = System.nanoTime();
+    try {
+      String result = getString(RequestType.GET, trace, null, paramNameThenValue);
+      trace.fire(WSRequestPhase.REQUEST_END);
       return result;
+    } catch (IOException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    } finally {
+      metrics.recordCall(WSCallType.STRING, "GET", System.nanoTime() - startTime);
     }
-    result = getStringInternal(false, paramNameThenValue);
-    putCached(params, result);
-    long endTime = System.nanoTime();
-    return result;
   }
 
   /**
@@ -421,7 +451,8 @@ public class GenericRestfulWSClient {
    */
   public InputStream getAsStream(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getStreamInternal(false, paramNameThenValue);
+    return getStreamInternal(RequestType.GET, WSCallType.STREAM,
+        startTrace("GET", WSCallType.STREAM, paramNameThenValue), null, paramNameThenValue);
   }
 
   /**
@@ -433,7 +464,8 @@ public class GenericRestfulWSClient {
    */
   public Reader getAsReader(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getReaderInternal(false, paramNameThenValue);
+    return getReaderInternal(RequestType.GET, WSCallType.READER,
+        startTrace("GET", WSCallType.READER, paramNameThenValue), paramNameThenValue);
   }
 
   /**
@@ -448,15 +480,7 @@ public class GenericRestfulWSClient {
    */
   public Document getAsXml(Object ... paramNameThenValue)
       throws MalformedURLException, IOException, ParserConfigurationException, SAXException {
-    WSRequestParams params = new WSRequestParams("Document", "GET", paramNameThenValue);
-    Document result = (Document)getCached(params);
-    if (result != null) {
-      return result;
-    }
-    String response = get(paramNameThenValue); // @todo use stream processing
-    result = convertStringToXml(response);
-    putCached(params, result);
-    return result;
+    return getXml(RequestType.GET, paramNameThenValue);
   }
 
   /**
@@ -468,12 +492,41 @@ public class GenericRestfulWSClient {
    */
   public Source getAsSource(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getSourceInternal(false, paramNameThenValue);
+    return getSourceInternal(RequestType.GET, WSCallType.SOURCE,
+        startTrace("GET", WSCallType.SOURCE, paramNameThenValue), paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP GET request, returning just the values <code>spec</code>
+   * projects out of the XML result. No DOM is built: the response is read
+   * only until every value has been found, and the connection then released.
+   * Only the projected values are cached, if an appropriate cache was passed to
+   * the constructor, so this is much cheaper to cache than {@link #getAsXml(Object...)}
+   * too. Example:
+   * <code><pre>
+   *    static final XmlProjection STATUS = XmlProjection.compile("/response/@status | //result/name");
+   *    ...
+   *    Map&lt;String, String&gt; values = client.getProjected(STATUS, "id", id);
+   * </pre></code>
+   * @param spec the projection
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the value of each path, keyed by path; see {@link XmlProjection#evaluate(Reader)}
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   * @throws XMLStreamException if the result is not well-formed XML
+   */
+  public Map<String, String> getProjected(XmlProjection spec, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException, XMLStreamException {
+    if (spec == null) {
+      throw new IllegalArgumentException("Got null projection.");
+    }
+    return getProjection(RequestType.GET, spec, paramNameThenValue);
   }
 
   /**
    * Perform a HTTP POST request, returning the entire result as a <code>String</code>.
-   * This function is possibly cached if an appropriate cache was passed to the constructor.
+   * This function is possibly cached if an appropriate cache was passed to the
+   * constructor, unless POST requests are treated as writes (see {@link #setInvalidateOnPost(boolean)}).
    * @param paramNameThenValue a sequence of parameter name followed by parameter value
    * @return the entire result as a <code>String</code>
    * @throws MalformedURLException if unable to generate a URL from the given parameters
@@ -481,14 +534,18 @@ public class GenericRestfulWSClient {
    */
   public String post(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    WSRequestParams params = new WSRequestParams("String", "POST", paramNameThenValue);
-    String result = (String)getCached(params);
-    if (result != null) {
+    WSRequestTrace trace = startTrace("POST", WSCallType.STRING, paramNameThenValue);
+    long startTime = System.nanoTime();
+    try {
+      String result = getString(RequestType.POST, trace, null, paramNameThenValue);
+      trace.fire(WSRequestPhase.REQUEST_END);
       return result;
+    } catch (IOException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    } finally {
+      metrics.recordCall(WSCallType.STRING, "POST", System.nanoTime() - startTime);
     }
-    result = getStringInternal(true, paramNameThenValue);
-    putCached(params, result);
-    return result;
   }
 
   /**
@@ -500,7 +557,8 @@ public class GenericRestfulWSClient {
    */
   public InputStream postAsStream(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getStreamInternal(true, paramNameThenValue);
+    return getStreamInternal(RequestType.POST, WSCallType.STREAM,
+        startTrace("POST", WSCallType.STREAM, paramNameThenValue), null, paramNameThenValue);
   }
 
   /**
@@ -512,7 +570,8 @@ public class GenericRestfulWSClient {
    */
   public Reader postAsReader(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getReaderInternal(true, paramNameThenValue);
+    return getReaderInternal(RequestType.POST, WSCallType.READER,
+        startTrace("POST", WSCallType.READER, paramNameThenValue), paramNameThenValue);
   }
 
   /**
@@ -527,15 +586,7 @@ public class GenericRestfulWSClient {
    */
   public Document postAsXml(Object ... paramNameThenValue)
       throws MalformedURLException, IOException, ParserConfigurationException, SAXException {
-    WSRequestParams params = new WSRequestParams("Document", "POST", paramNameThenValue);
-    Document result = (Document)getCached(params);
-    if (result != null) {
-      return result;
-    }
-    String response = post(paramNameThenValue); // @todo use stream processing
-    result = convertStringToXml(response);
-    putCached(params, result);
-    return result;
+    return getXml(RequestType.POST, paramNameThenValue);
   }
 
   /**
@@ -547,15 +598,338 @@ public class GenericRestfulWSClient {
    */
   public Source postAsSource(Object ... paramNameThenValue)
       throws MalformedURLException, IOException {
-    return getSourceInternal(true, paramNameThenValue);
+    return getSourceInternal(RequestType.POST, WSCallType.SOURCE,
+        startTrace("POST", WSCallType.SOURCE, paramNameThenValue), paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP GET request, returning the result parsed as JSON (see
+   * {@link JsonTree}): a <code>Map</code> for an object, a <code>List</code>
+   * for an array, and so on. This function is possibly cached if an
+   * appropriate cache was passed to the constructor; without a cache the
+   * result is parsed straight from the response stream. Servers that check
+   * the <code>accept</code> header may need {@link #DEFAULT_JSON_REQUEST_PROPS}.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the result as a JSON tree
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   * @throws JsonParseException if the result is not well-formed JSON
+   */
+  public Object getAsJson(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return getJson(RequestType.GET, null, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP GET request, passing each token of the result, parsed as
+   * JSON, to <code>handler</code>, which allocates nothing it doesn't ask for.
+   * Cached like {@link #getAsJson(Object...)}. If the handler stops early,
+   * the rest of the response is still read when it is to be cached, and
+   * otherwise skipped by closing the connection.
+   * @param handler the handler of the tokens
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   * @throws JsonParseException if the result is not well-formed JSON
+   */
+  public void getAsJson(JsonHandler handler, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    if (handler == null) {
+      throw new IllegalArgumentException("Got null JSON handler.");
+    }
+    getJson(RequestType.GET, handler, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP POST request, returning the result parsed as JSON; see
+   * {@link #getAsJson(Object...)}.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the result as a JSON tree
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   * @throws JsonParseException if the result is not well-formed JSON
+   */
+  public Object postAsJson(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return getJson(RequestType.POST, null, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP POST request, passing each token of the result, parsed as
+   * JSON, to <code>handler</code>; see {@link #getAsJson(JsonHandler, Object...)}.
+   * @param handler the handler of the tokens
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   * @throws JsonParseException if the result is not well-formed JSON
+   */
+  public void postAsJson(JsonHandler handler, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    if (handler == null) {
+      throw new IllegalArgumentException("Got null JSON handler.");
+    }
+    getJson(RequestType.POST, handler, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP PUT request, returning the entire result as a <code>String</code>.
+   * The result is never cached, but on success the cached results it makes stale are removed,
+   * and with write-through (see {@link #setWriteThrough(boolean)}) the result is cached in their place.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value;
+   * those in {@link #getPostableParams()}, or all if it is null, are sent in the body
+   * @return the entire result as a <code>String</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public String put(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return write(RequestType.PUT, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP PUT request, returning the result as an <code>InputStream</code>.
+   * On success the cached results it makes stale are removed once the response headers arrive.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the result as an <code>InputStream</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public InputStream putAsStream(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return getStreamInternal(RequestType.PUT, WSCallType.STREAM,
+        startTrace("PUT", WSCallType.STREAM, paramNameThenValue), null, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP PATCH request, returning the entire result as a <code>String</code>.
+   * <code>HttpURLConnection</code> can't send PATCH, so without an HTTP/2
+   * transport (see {@link #setHttp2Transport(WSHttp2Transport)}) it is sent as
+   * a POST with an <code>X-HTTP-Method-Override: PATCH</code> header, which the
+   * server must understand. The result is never cached, but on success the
+   * cached results it makes stale are removed.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value;
+   * those in {@link #getPostableParams()}, or all if it is null, are sent in the body
+   * @return the entire result as a <code>String</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public String patch(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return write(RequestType.PATCH, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP PATCH request, returning the result as an <code>InputStream</code>;
+   * see {@link #patch(Object...)}.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the result as an <code>InputStream</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public InputStream patchAsStream(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return getStreamInternal(RequestType.PATCH, WSCallType.STREAM,
+        startTrace("PATCH", WSCallType.STREAM, paramNameThenValue), null, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP DELETE request, returning the entire result as a <code>String</code>.
+   * The result is never cached, but on success the cached results it makes stale are removed.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value,
+   * all sent in the URL
+   * @return the entire result as a <code>String</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public String delete(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return write(RequestType.DELETE, paramNameThenValue);
+  }
+
+  /**
+   * Perform a HTTP DELETE request, returning the result as an <code>InputStream</code>.
+   * On success the cached results it makes stale are removed once the response headers arrive.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the result as an <code>InputStream</code>
+   * @throws MalformedURLException if unable to generate a URL from the given parameters
+   * @throws IOException if an error occurs with trying to communicate with the server
+   */
+  public InputStream deleteAsStream(Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    return getStreamInternal(RequestType.DELETE, WSCallType.STREAM,
+        startTrace("DELETE", WSCallType.STREAM, paramNameThenValue), null, paramNameThenValue);
+  }
+
+  /**
+   * Iterates lazily over all the items of a paged HTTP GET result, fetching
+   * pages on a background executor up to <code>lookahead</code> pages ahead
+   * of the consumer. Each page is an ordinary (possibly cached) {@link #get(Object...)}.
+   * Example:
+   * <code><pre>
+   *    try (WSPageIterator&lt;String&gt; concepts = client.paginate(
+   *        new WSOffsetPageStrategy("startingFrom", "maxResults", 100),
+   *        conceptExtractor, 2, "str", "dog", "searchType", "ANY")) {
+   *      while (concepts.hasNext()) { ... }
+   *    }
+   * </pre></code>
+   * @param strategy the page parameters and last page test
+   * @param extractor extracts the items from each page
+   * @param lookahead how many pages to fetch ahead of the one being consumed,
+   * 0 to fetch each page only when it is needed
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value,
+   * to which the strategy adds the page parameters
+   * @return the items, in page order
+   */
+  public <T> WSPageIterator<T> paginate(WSPageStrategy strategy, WSPageExtractor<T> extractor,
+      int lookahead, Object... paramNameThenValue) {
+    return new WSPageIterator<T>(this, strategy, extractor, lookahead, getPrefetchExecutor(),
+        paramNameThenValue);
+  }
+
+  /**
+   * Creates a <code>Flow.Processor</code> that makes a GET call (see
+   * {@link #get(Object...)}) for each parameter tuple it receives and emits
+   * the results, keeping at most <code>maxInFlight</code> calls in flight and
+   * honouring downstream demand; see {@link WSRequestProcessor}.
+   * @param maxInFlight the most requests in flight or awaiting delivery at once
+   * @param ordered whether to emit results in request order rather than completion order
+   * @return the processor, ready to be subscribed to a publisher of
+   * <code>paramNameThenValue</code> arrays
+   */
+  public WSRequestProcessor newRequestProcessor(int maxInFlight, boolean ordered) {
+    return new WSRequestProcessor(this, false, maxInFlight, ordered);
+  }
+
+  /**
+   * Returns a new micro-batcher merging concurrent GET requests to this client.
+   * @see WSMicroBatcher
+   * @param merger merges requests
+   * @param splitter splits responses
+   * @param maxBatchSize the most requests in one merged call
+   * @param lingerMillis how long a batch waits for more requests
+   * @return the batcher, to be closed when no longer needed
+   */
+  public <T> WSMicroBatcher<T> newMicroBatcher(WSBatchMerger merger, WSBatchSplitter<T> splitter,
+      int maxBatchSize, long lingerMillis) {
+    return new WSMicroBatcher<T>(this, false, merger, splitter, maxBatchSize, lingerMillis);
+  }
+
+  /**
+   * Warms the client up in the background, so that the first real requests
+   * don't pay for class loading, DNS resolution, TCP/TLS handshakes and XML
+   * parser discovery:
+   * <ol>
+   * <li>initializes the XML parser, and opens <code>connectionsPerServer</code>
+   *     connections at once to each server with HEAD requests to the service
+   *     path, leaving them in the keep-alive pool or, with an HTTP/2
+   *     transport, as its multiplexed connections. No more are opened than
+   *     can be kept: the keep-alive pool holds up to
+   *     <code>http.maxConnections</code> (by default 5) per server, the
+   *     transport its <code>connectionsPerHost</code>. A server's connections
+   *     are held until all of them are open, so that none is reused by another
+   *     warm-up request, and only connections then left open count as opened
+   *     in the result;</li>
+   * <li>then replays <code>requests</code> in parallel with
+   *     {@link #get(Object...)}, filling the cache.</li>
+   * </ol>
+   * Example, for a readiness check:
+   * <code><pre>
+   *    CompletableFuture&lt;WSWarmUpResult&gt; warm = client.warmUp(4, commonRequests);
+   *    ...
+   *    boolean ready = warm.isDone() &amp;&amp; warm.join().isSuccessful();
+   * </pre></code>
+   * @param connectionsPerServer connections to open to each server, or 0 for none
+   * @param requests <code>paramNameThenValue</code> arrays to replay, or null for none
+   * @return a future completed, never exceptionally, once everything has been tried
+   */
+  public CompletableFuture<WSWarmUpResult> warmUp(int connectionsPerServer, List<Object[]> requests) {
+    if (connectionsPerServer < 0) {
+      throw new IllegalArgumentException("Got invalid connections per server: " + connectionsPerServer);
+    }
+    final long startTime = System.nanoTime();
+    final WSWarmUpResult result = new WSWarmUpResult();
+    final List<Object[]> toReplay = (requests == null)
+        ? Collections.<Object[]>emptyList() : new ArrayList<Object[]>(requests);
+    List<String> servers = new ArrayList<String>();
+    for (WSEndpoint endpoint : getWarmUpEndpoints()) {
+      servers.add(endpoint.getUrlStarter());
+    }
+    if (servers.isEmpty()) {
+      servers.add(urlStarter);
+    }
+    WSHttp2Transport transport = http2Transport;
+    connectionsPerServer = Math.min(Math.min(connectionsPerServer, (transport != null)
+        ? transport.getConnectionsPerHost() : getKeepAliveConnectionsPerServer()),
+        MAX_WARM_UP_THREADS); // a server's connections are opened at once, one thread each
+    int threads = Math.max(1, Math.min(MAX_WARM_UP_THREADS,
+        Math.max(connectionsPerServer * servers.size(), toReplay.size())));
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newDaemonThreadFactory("GenericRestfulWSClient-warmUp"));
+    List<CompletableFuture<Void>> connections = new ArrayList<CompletableFuture<Void>>();
+    connections.add(CompletableFuture.runAsync(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          parseXml(new StringReader("<warmUp/>"));
+        } catch (Exception e) {
+          logger.log(Level.WARNING, "XML parser warm-up failed", e);
+        }
+      }
+    }, pool));
+    for (final String server : servers) {
+      final CountDownLatch allOpen = new CountDownLatch(connectionsPerServer);
+      for (int i = 0; i < connectionsPerServer; i++) {
+        connections.add(CompletableFuture.runAsync(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (openWarmUpConnection(server, allOpen)) {
+                result.connectionOpened();
+              } else {
+                result.connectionNotKept();
+              }
+            } catch (IOException | RuntimeException e) {
+              result.connectionFailed(e);
+            }
+          }
+        }, pool));
+      }
+    }
+    return CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[connections.size()]))
+        .thenCompose(new Function<Void, CompletableFuture<Void>>() {
+          @Override
+          public CompletableFuture<Void> apply(Void ignored) {
+            List<CompletableFuture<Void>> replays = new ArrayList<CompletableFuture<Void>>(toReplay.size());
+            for (final Object[] request : toReplay) {
+              replays.add(CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    get(request);
+                    result.requestReplayed();
+                  } catch (IOException | RuntimeException e) {
+                    result.requestFailed(e);
+                  }
+                }
+              }, pool));
+            }
+            return CompletableFuture.allOf(replays.toArray(new CompletableFuture<?>[replays.size()]));
+          }
+        })
+        .handle(new BiFunction<Void, Throwable, WSWarmUpResult>() {
+          @Override
+          public WSWarmUpResult apply(Void ignored, Throwable t) {
+            pool.shutdown();
+            result.setElapsedNanos(System.nanoTime() - startTime);
+            logger.log(Level.INFO, result.toString());
+            return result;
+          }
+        });
   }
 
   public void setLoggerLevel(Level level) {
     logger.setLevel(level);
   }
-  
-  // @todo add methods for PUT
-  // @todo add methods for DELETE
 
   /**
    * <p>Encode the specified credentials into a String as required by
@@ -583,7 +957,13 @@ public class GenericRestfulWSClient {
   /** Clears this web service's cache or does nothing if no cache has been set */
   public void clearCache() {
     if (cache != null) {
+      int size = cache.size();
       cache.clear();
+      metrics.recordCacheEvictions(size);
+    }
+    WSXmlNearCache nearCache = xmlNearCache;
+    if (nearCache != null) {
+      nearCache.clear();
     }
   }
 
@@ -596,7 +976,10 @@ public class GenericRestfulWSClient {
   }
 
   /**
-   * Specify the cache to use for web-service calls.
+   * Specify the cache to use for web-service calls. The client stores each
+   * result in it wrapped in a {@link WSCacheEntry}, which holds its lifetime
+   * and validators; values the application puts in directly are still
+   * served, as never expiring.
    * @param cache 
    */
   public void setCache(Map<WSRequestParams, Object> cache) {
@@ -604,258 +987,1836 @@ public class GenericRestfulWSClient {
   }
 
   /**
-   * The cache currently being used by this webservice client.
+   * The cache currently being used by this webservice client. Its values are
+   * {@link WSCacheEntry} objects, not the bare results; use
+   * {@link WSCacheEntry#getValue()} to get at them.
    * @return the cache being used by this webservice client.
    */
   public Map<WSRequestParams, Object> getCache() {
       return this.cache;
   }
-  
-  //// Protected Area
-  
-  protected void logDuration(long startTimeNano, long endTimeNano) {
-    if (logger.getLevel().intValue() >= Level.INFO.intValue()) {
-      logger.log(Level.INFO, "Web service call took: "
-          + getDurationString(endTimeNano - startTimeNano));
+
+  /**
+   * Sets how long cached results stay fresh when the response carries no
+   * <code>Cache-Control: max-age</code> or <code>Expires</code> header. Once
+   * stale, results with an <code>ETag</code> or <code>Last-Modified</code>
+   * header are revalidated with a conditional request, and a
+   * <code>304 Not Modified</code> reuses the cached result without
+   * downloading it again.
+   * @param cacheTtlMillis the lifetime in milliseconds, or 0 (the default)
+   * to keep such results until evicted
+   */
+  public void setCacheTtlMillis(long cacheTtlMillis) {
+    if (cacheTtlMillis < 0) {
+      throw new IllegalArgumentException("Got invalid cache TTL: " + cacheTtlMillis);
     }
+    this.cacheTtlMillis = cacheTtlMillis;
   }
 
   /**
-   * Returns the cached value for <code>key</code>, or <code>null</code> if
-   * the key is not present or this web service is not generally performing
-   * caching
-   * @param key the key to look up
-   * @return the cached value for <code>key</code>, or <code>null</code> if
-   * the key is not present or this web service is not generally performing
-   * caching
+   * Returns how long cached results without server freshness information stay fresh.
+   * @return the lifetime in milliseconds, or 0 for until evicted
    */
-  protected Object getCached(WSRequestParams key) {
-    if (cache == null) {
-      return null;
-    }
-    return cache.get(key);
+  public long getCacheTtlMillis() {
+    return cacheTtlMillis;
   }
 
   /**
-   * Removes the indicated cached value.
-   * @param key the key for the entry that should be removed
-   * @return the old value, or <code>null</code> if there was no previous value
-   * or this web service is not performing caching.
+   * Enables refresh-ahead: a cache hit on a result that has used up
+   * <code>fraction</code> of its lifetime schedules a background refresh, so
+   * hot results are renewed before they expire and callers never wait on them.
+   * @param fraction the elapsed fraction of the lifetime that triggers a
+   * refresh, e.g. 0.8, or 0 (the default) to disable refresh-ahead
    */
-  protected Object removeCached(WSRequestParams key) {
-    if (cache == null) {
-      return null;
+  public void setRefreshAhead(double fraction) {
+    if ((fraction < 0) || (fraction >= 1)) {
+      throw new IllegalArgumentException("Got invalid refresh-ahead fraction: " + fraction);
     }
-    return cache.remove(key);
+    this.refreshAheadFraction = fraction;
   }
-  
+
+  public double getRefreshAhead() {
+    return refreshAheadFraction;
+  }
+
   /**
-   * Inserts the indicated key/value pair.
-   * @param key the key that should be added
-   * @param val the value that should be added
-   * @return the previous value associated with <code>key</code>, or
-   * <code>null</code> if there was no previous value
-   * or this web service is not performing caching.
+   * Sets how long after expiry a cached result may still be served while it is
+   * refreshed in the background, when the response has no
+   * <code>Cache-Control: stale-while-revalidate</code> directive.
+   * @param staleWhileRevalidateMillis the window in milliseconds, 0 (the default) for none
    */
-  protected Object putCached(WSRequestParams key, Object val) {
-    if (cache == null) {
-      return null;
+  public void setStaleWhileRevalidateMillis(long staleWhileRevalidateMillis) {
+    if (staleWhileRevalidateMillis < 0) {
+      throw new IllegalArgumentException("Got invalid stale-while-revalidate: " + staleWhileRevalidateMillis);
     }
-    return cache.put(key, val);
+    this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
   }
 
-  //// Private Area
+  public long getStaleWhileRevalidateMillis() {
+    return staleWhileRevalidateMillis;
+  }
 
-  /** This method should be the only one used to get connections to the web service.  */
-  private HttpURLConnection getConnection(boolean allowPost, Object... paramNameThenValue)
-      throws MalformedURLException, IOException, ProtocolException {
-    String url = getURLStringForRequest(allowPost, paramNameThenValue);
-    logger.log(Level.INFO, "About to make web service request: {0}", url);
-    URL realUrl = new URL(url);
-    HttpURLConnection con =  (HttpURLConnection)realUrl.openConnection();
-    con.setReadTimeout(timeoutMsecs);
-    for (Map.Entry<String, String> entry : requestProps.entrySet()) {
-      con.addRequestProperty(entry.getKey(), entry.getValue());
-    }
-    if (allowPost) {
-      configurePost(con, paramNameThenValue);
+  /**
+   * Sets how long after expiry a cached result may still be served when
+   * fetching a new one fails with an I/O error or a 5xx status, when the
+   * response has no <code>Cache-Control: stale-if-error</code> directive.
+   * @param staleIfErrorMillis the window in milliseconds, 0 (the default) for none
+   */
+  public void setStaleIfErrorMillis(long staleIfErrorMillis) {
+    if (staleIfErrorMillis < 0) {
+      throw new IllegalArgumentException("Got invalid stale-if-error: " + staleIfErrorMillis);
     }
-    return con;
+    this.staleIfErrorMillis = staleIfErrorMillis;
   }
 
-  /** set post data and HTTP headers */
-  private void configurePost(HttpURLConnection con, Object... paramNameThenValue)
-  throws ProtocolException, IOException {
-    con.setDoOutput(true);
-    con.setRequestMethod("POST");
-    con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-    con.setUseCaches(false);
-    String postableStr = getPostableData(paramNameThenValue);
-    byte[] postableData = postableStr.getBytes(getCharset());
-    con.setRequestProperty("Content-Length", "" + postableData.length);
-    OutputStream outStream = con.getOutputStream();
-    try {
-      if (streamBufSize > 0) {
-        outStream = new BufferedOutputStream(outStream, streamBufSize);
-      }
-      outStream.write(postableData);
-      outStream.flush();
-    } finally {
-      try {
-        outStream.close();
-      } catch (Exception e) {
-      }
-    }
+  public long getStaleIfErrorMillis() {
+    return staleIfErrorMillis;
   }
 
-  /** Make a connection and return a stream (possibly buffered). */
-  private InputStream getStreamInternal(boolean allowPost, Object ... paramNameThenValue)
-      throws MalformedURLException, IOException {
-    HttpURLConnection con = getConnection(allowPost, paramNameThenValue);
-    InputStream is = null;
-    try {
-       is = con.getInputStream();
-    } catch (IOException e) {
-      if (parseErrorStream()) {
-        is = con.getErrorStream();
-      }
-      if (is == null) {
-        throw e;
-      }
-    }
-    if (streamBufSize > 0) {
-      is = new BufferedInputStream(is, streamBufSize);
-    }
-    return is;
+  /**
+   * Sets the executor background cache refreshes run on. By default each
+   * client lazily starts a pool of 2 daemon threads with room for 100
+   * queued refreshes; refreshes beyond that are dropped and counted as
+   * rejected, never run on the caller's thread.
+   * @param refreshExecutor the executor, or null for the default
+   */
+  public synchronized void setRefreshExecutor(Executor refreshExecutor) {
+    this.refreshExecutor = refreshExecutor;
   }
 
-  /** Make a connection and return a reader (possibly buffered). */
-  private Reader getReaderInternal(boolean allowPost, Object ... paramNameThenValue)
-      throws MalformedURLException, IOException {
-    InputStream is = getStreamInternal(allowPost, paramNameThenValue);
-    return new InputStreamReader(is, charSet);
+  /**
+   * Sets the executor on which {@link #paginate(WSPageStrategy, WSPageExtractor, int, Object...)}
+   * fetches pages. By default each client lazily starts a pool of up to 4
+   * daemon threads.
+   * @param prefetchExecutor the executor, or null for the default
+   */
+  public synchronized void setPrefetchExecutor(Executor prefetchExecutor) {
+    this.prefetchExecutor = prefetchExecutor;
   }
 
-  /** Make a connection and return a source. */
-  private Source getSourceInternal(boolean allowPost, Object ... paramNameThenValue)
-      throws MalformedURLException, IOException {
-    Reader reader = getReaderInternal(allowPost, paramNameThenValue);
-    return new StreamSource(reader);
+  /** Returns the number of background cache refreshes queued or running. */
+  public int getPendingRefreshCount() {
+    return refreshing.size();
   }
 
-  /** Make a connection and return a String. */
-  private String getStringInternal(boolean allowPost, Object ... paramNameThenValue)
-      throws MalformedURLException, IOException {
-    Reader reader = getReaderInternal(allowPost, paramNameThenValue);
-    StringBuilder buf = urlResponseBuffer.get();
-    long startTime = System.nanoTime();
+  /**
+   * Sets how XML results are held in the cache. They are always cached as
+   * their text (see {@link CompactXml}), never as a shared DOM, and every
+   * call returns its own <code>Document</code> that the caller may modify.
+   * @param compress whether to deflate cached XML text of 512 bytes or more
+   * @param offHeap whether to keep cached XML text in direct buffers outside the Java heap
+   */
+  public void setXmlCacheEncoding(boolean compress, boolean offHeap) {
+    this.xmlCacheCompression = compress;
+    this.xmlCacheOffHeap = offHeap;
+  }
+
+  /**
+   * Sets how many of the hottest cached XML results also keep a parsed DOM,
+   * from which each hit gets a clone instead of parsing the text again. A
+   * result qualifies once it has been hit twice. Defaults to 16.
+   * @param size the number of DOMs to keep, or 0 to parse every hit
+   */
+  public void setXmlNearCacheSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Got invalid near-cache size: " + size);
+    }
+    this.xmlNearCache = (size == 0) ? null : new WSXmlNearCache(size);
+  }
+
+  /**
+   * Sets a persistent second cache tier, consulted for String results after
+   * the in-memory cache misses, so that a restarted client starts warm. Hits
+   * are promoted into the in-memory cache. Disk errors are logged and treated
+   * as misses; they never fail a call. The caller owns (and closes) the cache.
+   * @param diskCache the disk cache, or null for none
+   */
+  public void setDiskCache(DiskResponseCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * The disk cache currently being used by this webservice client.
+   * @return the disk cache, or null if none
+   */
+  public DiskResponseCache getDiskCache() {
+    return diskCache;
+  }
+
+  /**
+   * Adds a rule for which cached results a successful write (a PUT, DELETE
+   * or PATCH, or a POST if {@link #setInvalidateOnPost(boolean)}) makes
+   * stale, beyond those cached for its own URL, which are always removed.
+   * With any rules, every write checks every entry in the cache, and every
+   * entry in the disk cache (see {@link DiskResponseCache#removeIf}), against them.
+   * @param rule the rule, e.g. a {@link WSParamInvalidationRule}
+   * @throws IllegalArgumentException if <code>rule</code> is null
+   */
+  public void addInvalidationRule(WSInvalidationRule rule) {
+    if (rule == null) {
+      throw new IllegalArgumentException("Got null invalidation rule.");
+    }
+    invalidationRules.add(rule);
+  }
+
+  /**
+   * Removes a rule added with {@link #addInvalidationRule(WSInvalidationRule)}.
+   * @param rule the rule to remove
+   * @return whether the rule had been added
+   */
+  public boolean removeInvalidationRule(WSInvalidationRule rule) {
+    return invalidationRules.remove(rule);
+  }
+
+  public List<WSInvalidationRule> getInvalidationRules() {
+    return Collections.unmodifiableList(invalidationRules);
+  }
+
+  /**
+   * Sets whether POST requests are treated as writes, like PUT: never cached,
+   * and invalidating cached results on success. By default they are cached
+   * like GET requests, since they are often used to send queries too long
+   * for a URL.
+   * @param invalidateOnPost whether POST requests are writes
+   */
+  public void setInvalidateOnPost(boolean invalidateOnPost) {
+    this.invalidateOnPost = invalidateOnPost;
+  }
+
+  public boolean isInvalidateOnPost() {
+    return invalidateOnPost;
+  }
+
+  /**
+   * Sets whether the response to a successful PUT (status 200, with a body)
+   * replaces the String result cached for a GET of its URL, i.e. with the
+   * parameters that were not sent in the body, instead of just removing it.
+   * Only enable this for services whose PUT responds with the resource as a
+   * GET would return it. The response's caching headers are honoured.
+   * @param writeThrough whether to cache PUT responses
+   */
+  public void setWriteThrough(boolean writeThrough) {
+    this.writeThrough = writeThrough;
+  }
+
+  public boolean isWriteThrough() {
+    return writeThrough;
+  }
+
+  /**
+   * Sends requests over HTTP/2, multiplexing concurrent calls to a server
+   * over a few connections, instead of one <code>HttpURLConnection</code> per
+   * call. The stream, reader, source and XML methods work as before.
+   * @param transport the transport, possibly shared with other clients, or null
+   * to go back to <code>HttpURLConnection</code>
+   */
+  public void setHttp2Transport(WSHttp2Transport transport) {
+    this.http2Transport = transport;
+  }
+
+  public WSHttp2Transport getHttp2Transport() {
+    return http2Transport;
+  }
+
+  /**
+   * Limits the requests in flight and orders waiting ones by priority; see
+   * {@link WSRequestScheduler}. Requests take the priority of the
+   * {@link WSPriorityScope} they are made in.
+   * @param scheduler the scheduler, possibly shared with other clients, or null for no limit
+   */
+  public void setRequestScheduler(WSRequestScheduler scheduler) {
+    this.requestScheduler = scheduler;
+  }
+
+  public WSRequestScheduler getRequestScheduler() {
+    return requestScheduler;
+  }
+
+  /**
+   * Returns the metrics recorded for this web service client: call latency per
+   * call type and HTTP method, time to first byte, bytes in and out, errors by
+   * HTTP status, and cache hits, misses and evictions.
+   * @return the metrics recorded for this web service client
+   */
+  public WSClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets the metrics instance this client records into. Passing the same
+   * instance to several clients aggregates their metrics.
+   * @param metrics the metrics to record into
+   * @throws IllegalArgumentException if <code>metrics</code> is null
+   */
+  public void setMetrics(WSClientMetrics metrics) {
+    if (metrics == null) {
+      throw new IllegalArgumentException("Got null metrics.");
+    }
+    this.metrics = metrics;
+  }
+
+  /**
+   * Registers a listener to receive timestamped phase events for every
+   * subsequent call. With no listeners registered, calls are not traced at all.
+   * @param listener the listener to add
+   * @throws IllegalArgumentException if <code>listener</code> is null
+   */
+  public synchronized void addRequestListener(WSRequestListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Got null listener.");
+    }
+    WSRequestListener[] newListeners = new WSRequestListener[listeners.length + 1];
+    System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+    newListeners[listeners.length] = listener;
+    listeners = newListeners;
+  }
+
+  /**
+   * Unregisters a listener previously added with
+   * {@link #addRequestListener(WSRequestListener)}. Calls already in progress
+   * may still report to it.
+   * @param listener the listener to remove
+   * @return whether the listener was registered
+   */
+  public synchronized boolean removeRequestListener(WSRequestListener listener) {
+    for (int i = 0; i < listeners.length; i++) {
+      if (listeners[i] == listener) {
+        WSRequestListener[] newListeners = new WSRequestListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, newListeners, 0, i);
+        System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+        listeners = newListeners;
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  //// Protected Area
+  
+  protected void logDuration(long startTimeNano, long endTimeNano) {
+    if (logger.isLoggable(Level.INFO)) {
+      logger.log(Level.INFO, "Web service call took: "
+          + getDurationString(endTimeNano - startTimeNano));
+    }
+  }
+
+  /**
+   * Returns the cached value for <code>key</code>, or <code>null</code> if
+   * the key is not present, has expired, or this web service is not generally
+   * performing caching
+   * @param key the key to look up
+   * @return the cached value for <code>key</code>, or <code>null</code> if
+   * the key is not present, has expired, or this web service is not generally
+   * performing caching
+   * @deprecated the built-in calls no longer go through this method, since
+   * they need the entry's lifetime and validators; override
+   * {@link #getCacheEntry(WSRequestParams)} or {@link #peekCacheEntry(WSRequestParams)} instead
+   */
+  @Deprecated
+  protected Object getCached(WSRequestParams key) {
+    WSCacheEntry entry = getCacheEntry(key);
+    return ((entry != null) && entry.isFresh(System.currentTimeMillis())) ? entry.getValue() : null;
+  }
+
+  /**
+   * Removes the indicated cached value.
+   * @param key the key for the entry that should be removed
+   * @return the old value, or <code>null</code> if there was no previous value
+   * or this web service is not performing caching.
+   */
+  protected Object removeCached(WSRequestParams key) {
+    if (cache == null) {
+      return null;
+    }
+    Object result = cache.remove(key);
+    if (result != null) {
+      metrics.recordCacheEvictions(1);
+    }
+    return (result instanceof WSCacheEntry) ? ((WSCacheEntry) result).getValue() : result;
+  }
+  
+  /**
+   * Inserts the indicated key/value pair, to expire after the default cache TTL.
+   * @param key the key that should be added
+   * @param val the value that should be added
+   * @return the previous value associated with <code>key</code>, or
+   * <code>null</code> if there was no previous value
+   * or this web service is not performing caching.
+   * @deprecated the built-in calls no longer go through this method, since
+   * they store the entry's lifetime and validators; override
+   * {@link #putCacheEntry(WSRequestParams, WSCacheEntry)} instead
+   */
+  @Deprecated
+  protected Object putCached(WSRequestParams key, Object val) {
+    Object result = putCacheEntry(key, newDefaultEntry(val));
+    return (result instanceof WSCacheEntry) ? ((WSCacheEntry) result).getValue() : result;
+  }
+
+  /**
+   * Returns the cache entry for <code>key</code>, fresh or not, recording a
+   * cache hit if it is fresh and a miss otherwise.
+   * @param key the key to look up
+   * @return the entry, or <code>null</code> if the key is not present or this
+   * web service is not performing caching
+   */
+  protected WSCacheEntry getCacheEntry(WSRequestParams key) {
+    if (cache == null) {
+      return null;
+    }
+    WSCacheEntry result = peekCacheEntry(key);
+    if ((result != null) && result.isFresh(System.currentTimeMillis())) {
+      metrics.recordCacheHit();
+    } else {
+      metrics.recordCacheMiss();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cache entry for <code>key</code>, fresh or not, without
+   * recording a cache hit or miss.
+   * @param key the key to look up
+   * @return the entry, or <code>null</code> if the key is not present or this
+   * web service is not performing caching
+   */
+  protected WSCacheEntry peekCacheEntry(WSRequestParams key) {
+    if (cache == null) {
+      return null;
+    }
+    Object value = cache.get(key);
+    if ((value == null) || (value instanceof WSCacheEntry)) {
+      return (WSCacheEntry) value;
+    }
+    // put straight into the map by the application; treat as never expiring
+    return new WSCacheEntry(value, null, 0, WSCacheEntry.NEVER, null, null);
+  }
+
+  /**
+   * Inserts the indicated cache entry.
+   * @param key the key that should be added
+   * @param entry the entry that should be added
+   * @return the previous map value for <code>key</code>, or <code>null</code>
+   */
+  protected Object putCacheEntry(WSRequestParams key, WSCacheEntry entry) {
+    if (cache == null) {
+      return null;
+    }
+    return cache.put(key, entry);
+  }
+
+  /**
+   * Reads <code>reader</code> to its end and returns everything read, using
+   * per-thread buffers to avoid allocating on each call. Does not close the reader.
+   * @param reader the reader to drain
+   * @return everything read
+   * @throws IOException if reading fails
+   */
+  protected static String readFully(Reader reader) throws IOException {
+    StringBuilder buf = urlResponseBuffer.get();
+    buf.delete(0, buf.length());
+    char[] streamBuf = streamBuffer.get();
+    int charsRead = -1;
+    while ((charsRead = reader.read(streamBuf, 0, streamBuf.length)) >= 0) {
+      buf.append(streamBuf, 0, charsRead);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Returns the form-encoded POST body for the given parameters, honoring
+   * {@link #getPostableParams()}.
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the form-encoded POST body
+   */
+  protected String getPostableData(Object... paramNameThenValue) {
+    // @todo break out shared code with getURLStringForRequest
+    StringBuilder buf = urlStringBuilder.get();
+    try {
+      buf.delete(0, buf.length());
+      if (paramNameThenValue.length > 1) {
+        if ((paramNameThenValue.length % 2) == 1) {
+          throw new IllegalArgumentException("Got illegal web service argument list.\n "
+              + "There should be an even number of paramaters because each argument\n "
+              + "should be named first then the value should be given.");
+        }
+        boolean isFirst = true;
+        for (int i = 0, size = paramNameThenValue.length; i < size;) {
+          String paramName = "" + paramNameThenValue[i++];
+          if ((postableParams != null) && (!postableParams.contains(paramName))) {
+            i++; // skip the value too
+            continue;
+          }
+          if (!isFirst) {
+            buf.append("&");
+          }
+          isFirst = false;
+          buf.append(paramName).append("=").
+              append(URLEncoder.encode("" + paramNameThenValue[i++], "UTF-8"));
+        }
+      }
+    } catch (UnsupportedEncodingException e) {
+    } //ignore
+    return buf.toString();
+  }
+
+  /**
+   * Returns the URL to connect to for the given parameters. Parameters that are
+   * sent in the request body when <code>allowPost</code> is true are left out.
+   * @param allowPost whether the request has a body, i.e. is a POST, PUT or PATCH
+   * @param paramNameThenValue a sequence of parameter name followed by parameter value
+   * @return the URL to connect to
+   */
+  protected String getURLStringForRequest(boolean allowPost, Object ... paramNameThenValue) {
+    return getURLStringForRequest(urlStarter, allowPost, paramNameThenValue);
+  }
+
+  /**
+   * Returns the server to send the next request to, or null for this
+   * client's own <code>host</code> and <code>port</code>. Subclasses that
+   * spread requests over several equivalent servers override this, and are
+   * told how each request went through {@link #releaseEndpoint}.
+   * @return the endpoint, or null
+   * @throws IOException if no server can take the request
+   */
+  protected WSEndpoint acquireEndpoint() throws IOException {
+    return null;
+  }
+
+  /**
+   * Called once for every {@link #acquireEndpoint()}, when the response
+   * headers have arrived or the request has failed.
+   * @param endpoint the endpoint the request was sent to, or null if there is
+   * none or <code>acquireEndpoint</code> threw
+   * @param latencyNanos the time to first byte, or to failure
+   * @param failed whether the server failed the request: no response or a 5xx status
+   */
+  protected void releaseEndpoint(WSEndpoint endpoint, long latencyNanos, boolean failed) {
+  }
+
+  /**
+   * Returns the servers {@link #warmUp(int, List)} opens connections to, or
+   * an empty list for just this client's own <code>host</code> and <code>port</code>.
+   */
+  protected List<WSEndpoint> getWarmUpEndpoints() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns "protocol://host[:port]", i.e. what {@link #getUrlToPort()} returns.
+   * @throws IllegalArgumentException if <code>host</code> is missing
+   */
+  static String buildUrlToPort(String protocol, String host, int port) {
+    StringBuilder buf = new StringBuilder();
+    buf.append(protocol).append("://");
+    if ((host == null) || ("".equals(host))) {
+      throw new IllegalArgumentException("Got invalid host: " + host);
+    } else {
+      buf.append(host);
+    }
+    if (port > 0) {
+      buf.append(":").append(port);
+    }
+    return buf.toString();
+  }
+
+  /** Returns <code>urlToPort</code> followed by the service path, i.e. what {@link #getUrlStarter()} returns. */
+  static String buildUrlStarter(String urlToPort, String servicePath) {
+    StringBuilder buf = new StringBuilder(urlToPort);
+    if ((servicePath == null) || ("".equals(servicePath))) {
+      buf.append("/");
+    } else {
+      if (!servicePath.startsWith(("/"))) {
+        buf.append("/");
+      }
+      buf.append(servicePath);
+    }
+    return buf.toString();
+  }
+
+  /** Returns the URL for the given parameters, starting with <code>starter</code>. */
+  private String getURLStringForRequest(String starter, boolean allowPost, Object ... paramNameThenValue) {
+    // @todo break out shared code with getPostableData
+    StringBuilder buf = urlStringBuilder.get();
+    try {
+      buf.delete(0, buf.length());
+      buf.append(starter);
+      if ((postableParams != null) || (!allowPost)) {
+        if (paramNameThenValue.length > 1) {
+          if ((paramNameThenValue.length % 2) == 1) {
+            throw new IllegalArgumentException("Got illegal web service argument list.\n "
+                + "There should be an even number of paramaters because each argument\n "
+                + "should be named first then the value should be given.");
+          }
+          boolean isFirst = !starter.contains("?");
+          for (int i = 0, size = paramNameThenValue.length; i < size;) {
+            String paramName = "" + paramNameThenValue[i++];
+            if (allowPost && ((postableParams == null) || postableParams.contains(paramName))) {
+              i++; // skip the value too
+              continue;
+            }
+            if (isFirst) {
+              buf.append("?");
+            } else {
+              buf.append("&");
+            }
+            isFirst = false;
+            buf.append(paramName).append("=").
+                append(URLEncoder.encode("" + paramNameThenValue[i++], "UTF-8"));
+          }
+        }
+      }
+    } catch (UnsupportedEncodingException e) {
+      e.printStackTrace();
+    } catch (Throwable t) {
+        t.printStackTrace();
+    }//ignore
+    return buf.toString();
+  }
+
+  /**
+   * Default method for converting a string to XML; subclasses may override it
+   * to parse differently.
+   * @param str the XML text, with or without a prolog
+   * @return the parsed document
+   */
+  protected Document convertStringToXml(String str) throws IOException, ParserConfigurationException, SAXException {
+    // @todo make the streamed
+    str = str.trim();
+    // @hack for poorly behaved services that don't emit an xml prolog
+    if (!str.startsWith("<?xml")) {
+      str = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" + str;
+    }
+    return parseXml(new StringReader(str));
+  }
+
+  /**
+   * Parses XML into a new, namespace aware <code>Document</code>. Cached XML
+   * is re-parsed through here on every cache hit that misses the DOM near-cache,
+   * so subclasses that override {@link #convertStringToXml(String)} to parse
+   * differently should override this too.
+   * @param reader the XML text
+   * @return the parsed document
+   */
+  protected Document parseXml(Reader reader) throws IOException, ParserConfigurationException, SAXException {
+    DocumentBuilder docBuilder = documentBuilder.get();
+    if (docBuilder == null) {
+      DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+      docBuilderFactory.setNamespaceAware(true);
+      docBuilder = docBuilderFactory.newDocumentBuilder();
+      documentBuilder.set(docBuilder);
+    } else {
+      docBuilder.reset();
+    }
+    return docBuilder.parse(new InputSource(reader));
+  }
+
+  //// Private Area
+
+  /**
+   * Starts tracing a call, returning the shared no-op trace if nobody is listening.
+   */
+  private WSRequestTrace startTrace(String method, WSCallType callType,
+      Object... paramNameThenValue) {
+    WSRequestListener[] currentListeners = listeners;
+    if (currentListeners.length == 0) {
+      return WSRequestTrace.NONE;
+    }
+    WSRequestTrace trace = new WSRequestTrace(currentListeners, method, callType, urlStarter);
+    trace.fire(WSRequestPhase.REQUEST_START, paramNameThenValue);
+    return trace;
+  }
+
+  /**
+   * Returns the (possibly cached) result as a String. If it has to be
+   * fetched, <code>parser</code>, if given, parses it as it is read.
+   */
+  private String getString(RequestType requestType, WSRequestTrace trace, BodyParser parser,
+      Object... paramNameThenValue) throws MalformedURLException, IOException {
+    if (isWrite(requestType)) {
+      return getWrittenString(requestType, trace, paramNameThenValue);
+    }
+    WSRequestParams params = new WSRequestParams("String", requestType.name(), paramNameThenValue);
+    WSCacheEntry entry = getCacheEntry(params);
+    long now = System.currentTimeMillis();
+    if ((entry != null) && entry.isFresh(now)) {
+      if ((refreshAheadFraction > 0) && entry.isNearExpiry(now, refreshAheadFraction)) {
+        scheduleRefresh(requestType, params, paramNameThenValue);
+      }
+      trace.fire(WSRequestPhase.CACHE_HIT);
+      return (String) entry.getValue();
+    }
+    if ((entry != null) && entry.isStaleWhileRevalidate(now)) {
+      scheduleRefresh(requestType, params, paramNameThenValue);
+      metrics.recordCacheEvent(WSCacheEvent.STALE_WHILE_REVALIDATE);
+      trace.fire(WSRequestPhase.CACHE_STALE);
+      return (String) entry.getValue();
+    }
+    DiskResponseCache currentDiskCache = diskCache;
+    if ((entry == null) && (currentDiskCache != null)) {
+      WSCacheEntry stored = getDiskCached(currentDiskCache, getDiskCacheKey(params, paramNameThenValue));
+      if (stored != null) {
+        trace.fire(WSRequestPhase.CACHE_HIT, currentDiskCache);
+        String result = (String) stored.getValue();
+        putCacheEntry(params, newDiskEntry(stored, result));
+        return result;
+      }
+    }
+    try {
+      return fetchString(requestType, params, entry, trace, parser, paramNameThenValue);
+    } catch (IOException e) {
+      if ((entry != null) && entry.isStaleIfError(System.currentTimeMillis())) {
+        metrics.recordCacheEvent(WSCacheEvent.STALE_IF_ERROR);
+        trace.fire(WSRequestPhase.CACHE_STALE, e);
+        return (String) entry.getValue();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Fetches, or revalidates <code>stale</code> if given, and caches a String
+   * result; or, for a "Document" key, the result as {@link CompactXml} only.
+   * A 5xx response while <code>stale</code> may still be served on
+   * error is thrown as an <code>IOException</code> instead of replacing it.
+   * A result that a write may have made stale while it was being fetched is
+   * returned but not cached.
+   */
+  private String fetchString(RequestType requestType, WSRequestParams params, WSCacheEntry stale,
+      WSRequestTrace trace, BodyParser parser, Object... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    long writesBefore = writeCount;
+    WSCacheExchange exchange = new WSCacheExchange(requestType.name(), stale);
+    String result = getStringInternal(requestType, WSCallType.STRING, trace, exchange, parser,
+        paramNameThenValue);
+    long now = System.currentTimeMillis();
+    if (exchange.isServerError() && (stale != null) && stale.isStaleIfError(now)) {
+      throw new IOException("Server returned HTTP status " + exchange.getStatus()
+          + " for URL: " + getURLStringForRequest(requestType.hasBody(), paramNameThenValue));
+    }
+    if (exchange.isNoStore()) {
+      removeCached(params);
+      return result;
+    }
+    if ((writeCount != writesBefore) && isInvalidatedSince(writesBefore, paramNameThenValue)) {
+      metrics.recordCacheEvent(WSCacheEvent.INVALIDATED_IN_FLIGHT);
+      return result;
+    }
+    boolean xml = "Document".equals(params.getExtraData());
+    Object value = result;
+    if (xml && !exchange.isNotModified()) {
+      value = ((stale != null) && (stale.getValue() instanceof CompactXml)
+          && ((CompactXml) stale.getValue()).matches(result))
+          ? stale.getValue() // unchanged; keep its hit count
+          : CompactXml.encode(result, xmlCacheCompression, xmlCacheOffHeap);
+    }
+    WSCacheEntry entry = exchange.toEntry(value, now, cacheTtlMillis,
+        staleWhileRevalidateMillis, staleIfErrorMillis);
+    if (exchange.isNotModified()) {
+      metrics.recordCacheRevalidation();
+      trace.fire(WSRequestPhase.CACHE_REVALIDATED);
+      result = getCachedText(entry.getValue());
+    }
+    putStringCached(params, entry, isSuccess(exchange) ? result : null, now, paramNameThenValue);
+    return result;
+  }
+
+  /**
+   * Caches a String or XML result, and its text in the disk cache too if there
+   * is one and <code>text</code> is given. Error pages are not written to
+   * disk, where they would outlive the process.
+   */
+  private void putStringCached(WSRequestParams params, WSCacheEntry entry, String text, long now,
+      Object... paramNameThenValue) {
+    putCacheEntry(params, entry);
+    DiskResponseCache currentDiskCache = diskCache;
+    if ((currentDiskCache != null) && (text != null)) {
+      putDiskCached(currentDiskCache, getDiskCacheKey(params, paramNameThenValue), text, entry, now);
+    }
+  }
+
+  /** Returns whether <code>exchange</code> got a 2xx response, or a 304 to its conditional request. */
+  private static boolean isSuccess(WSCacheExchange exchange) {
+    return exchange.isNotModified() || ((exchange.getStatus() >= HttpURLConnection.HTTP_OK)
+        && (exchange.getStatus() < HttpURLConnection.HTTP_MULT_CHOICE));
+  }
+
+  /** Returns an entry for <code>value</code> that expires after the default cache TTL and has no validators. */
+  private WSCacheEntry newDefaultEntry(Object value) {
+    long now = System.currentTimeMillis();
+    long ttl = cacheTtlMillis;
+    return new WSCacheEntry(value, null, now, (ttl > 0) ? now + ttl : WSCacheEntry.NEVER, null, null,
+        staleWhileRevalidateMillis, staleIfErrorMillis);
+  }
+
+  /**
+   * Returns an in-memory entry for <code>value</code>, read from the disk
+   * cache as <code>stored</code>, with the lifetime and validators it was
+   * stored with.
+   */
+  private WSCacheEntry newDiskEntry(WSCacheEntry stored, Object value) {
+    return new WSCacheEntry(value, null, stored.getStoredAt(), stored.getExpiresAt(), stored.getETag(),
+        stored.getLastModified(), staleWhileRevalidateMillis, staleIfErrorMillis);
+  }
+
+  /** Returns the text of a cached String or {@link CompactXml} value. */
+  private static String getCachedText(Object value) throws IOException {
+    if (value instanceof CompactXml) {
+      Reader reader = ((CompactXml) value).openReader();
+      try {
+        return readFully(reader);
+      } finally {
+        reader.close();
+      }
+    }
+    return (String) value;
+  }
+
+  /**
+   * Sends a write and returns its result as a String, never cached. The
+   * cached results it made stale are removed by getStreamInternal; with
+   * write-through, a PUT's result then replaces the one cached for its URL.
+   */
+  private String getWrittenString(RequestType requestType, WSRequestTrace trace,
+      Object... paramNameThenValue) throws MalformedURLException, IOException {
+    WSCacheExchange exchange = (writeThrough && (requestType == RequestType.PUT) && (cache != null))
+        ? new WSCacheExchange(requestType.name(), null) : null;
+    String result = getStringInternal(requestType, WSCallType.STRING, trace, exchange, null,
+        paramNameThenValue);
+    if ((exchange != null) && (exchange.getStatus() == HttpURLConnection.HTTP_OK)
+        && (result.length() > 0) && !exchange.isNoStore()) {
+      Object[] getParams = getUrlParams(paramNameThenValue);
+      long now = System.currentTimeMillis();
+      putStringCached(new WSRequestParams("String", RequestType.GET.name(), getParams),
+          exchange.toEntry(result, now, cacheTtlMillis, staleWhileRevalidateMillis, staleIfErrorMillis),
+          result, now, getParams);
+      metrics.recordCacheEvent(WSCacheEvent.WRITE_THROUGH);
+    }
+    return result;
+  }
+
+  /** Returns whether requests of <code>requestType</code> are writes, which are never cached. */
+  private boolean isWrite(RequestType requestType) {
+    return requestType.isWrite() || ((requestType == RequestType.POST) && invalidateOnPost);
+  }
+
+  /** Returns the parameters a request sends in its URL rather than its body. */
+  private Object[] getUrlParams(Object... paramNameThenValue) {
+    List<Object> result = new ArrayList<Object>();
+    if (postableParams != null) {
+      for (int i = 0; i + 1 < paramNameThenValue.length; i += 2) {
+        if (!postableParams.contains("" + paramNameThenValue[i])) {
+          result.add(paramNameThenValue[i]);
+          result.add(paramNameThenValue[i + 1]);
+        }
+      }
+    }
+    return result.toArray();
+  }
+
+  /**
+   * Removes the cached results a successful write made stale: those cached
+   * for its URL and those matched by the invalidation rules. The write is
+   * remembered for a while, so that results already being fetched aren't
+   * cached after it.
+   */
+  private void invalidateCached(final RequestType requestType, Object... paramNameThenValue) {
+    Object[] urlParams = getUrlParams(paramNameThenValue);
+    final Write write = new Write(requestType,
+        getURLStringForRequest(false, requestType.hasBody() ? urlParams : paramNameThenValue),
+        getURLStringForRequest(false, paramNameThenValue));
+    synchronized (recentWrites) {
+      if (recentWrites.size() == MAX_RECENT_WRITES) {
+        recentWrites.removeFirst();
+      }
+      recentWrites.addLast(write);
+      write.count = ++writeCount;
+    }
+    Map<WSRequestParams, Object> currentCache = cache;
+    DiskResponseCache currentDiskCache = diskCache;
+    if (invalidationRules.isEmpty()) {
+      // only the results cached for the URL itself; no need to look at every entry
+      Object[] targetParams = requestType.hasBody() ? urlParams : paramNameThenValue;
+      for (String method : new String[] {RequestType.GET.name(), RequestType.POST.name()}) {
+        for (String type : new String[] {"String", "Document"}) {
+          if (removeCached(new WSRequestParams(type, method, targetParams)) != null) {
+            metrics.recordCacheEvent(WSCacheEvent.INVALIDATED);
+          }
+        }
+        for (String type : projectionCacheTypes) {
+          if (removeCached(new WSRequestParams(type, method, targetParams)) != null) {
+            metrics.recordCacheEvent(WSCacheEvent.INVALIDATED);
+          }
+        }
+        if (currentDiskCache != null) {
+          removeDiskCached(currentDiskCache, method + " " + write.targetUrl);
+        }
+      }
+      return;
+    }
+    if (currentCache != null) {
+      List<WSRequestParams> keys;
+      synchronized (currentCache) {
+        keys = new ArrayList<WSRequestParams>(currentCache.keySet());
+      }
+      for (WSRequestParams key : keys) {
+        if (write.invalidates(invalidationRules, getURLStringForRequest(false, key.getParams()))
+            && (removeCached(key) != null)) {
+          metrics.recordCacheEvent(WSCacheEvent.INVALIDATED);
+        }
+      }
+    }
+    if (currentDiskCache != null) {
+      try {
+        currentDiskCache.removeIf(new Predicate<String>() {
+          @Override
+          public boolean test(String key) {
+            int space = key.indexOf(' ');
+            return (space > 0) && write.invalidates(invalidationRules, key.substring(space + 1));
+          }
+        });
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Disk cache invalidation failed for " + write.url, e);
+      }
+    }
+  }
+
+  /**
+   * Returns whether a write since the <code>writesBefore</code>th may have
+   * made the result for the given parameters stale, assuming so if it has
+   * been forgotten.
+   */
+  private boolean isInvalidatedSince(long writesBefore, Object... paramNameThenValue) {
+    String url = getURLStringForRequest(false, paramNameThenValue);
+    synchronized (recentWrites) {
+      if (recentWrites.isEmpty() || (recentWrites.getFirst().count > writesBefore + 1)) {
+        return true;
+      }
+      for (Write write : recentWrites) {
+        if ((write.count > writesBefore) && write.invalidates(invalidationRules, url)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Refreshes the String or XML result for <code>params</code> in the background,
+   * unless a refresh for it is already pending or the refresh queue is full.
+   */
+  private void scheduleRefresh(final RequestType requestType, final WSRequestParams params,
+      final Object... paramNameThenValue) {
+    if (refreshing.putIfAbsent(params, Boolean.TRUE) != null) {
+      return;
+    }
+    try {
+      getRefreshExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            fetchString(requestType, params, peekCacheEntry(params), WSRequestTrace.NONE, null,
+                paramNameThenValue);
+            metrics.recordCacheEvent(WSCacheEvent.REFRESH_COMPLETED);
+          } catch (IOException | RuntimeException e) {
+            metrics.recordCacheEvent(WSCacheEvent.REFRESH_FAILED);
+            logger.log(Level.FINE, "Background cache refresh failed", e);
+          } finally {
+            refreshing.remove(params);
+          }
+        }
+      });
+      metrics.recordCacheEvent(WSCacheEvent.REFRESH_SCHEDULED);
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(params);
+      metrics.recordCacheEvent(WSCacheEvent.REFRESH_REJECTED);
+    }
+  }
+
+  private Executor getRefreshExecutor() {
+    Executor result = refreshExecutor;
+    if (result == null) {
+      synchronized (this) {
+        result = refreshExecutor;
+        if (result == null) {
+          ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_REFRESH_THREADS, DEFAULT_REFRESH_THREADS,
+              30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_REFRESH_QUEUE_SIZE),
+              newDaemonThreadFactory("GenericRestfulWSClient-refresh"));
+          pool.allowCoreThreadTimeOut(true);
+          refreshExecutor = result = pool;
+        }
+      }
+    }
+    return result;
+  }
+
+  private Executor getPrefetchExecutor() {
+    Executor result = prefetchExecutor;
+    if (result == null) {
+      synchronized (this) {
+        result = prefetchExecutor;
+        if (result == null) {
+          ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_PREFETCH_THREADS, DEFAULT_PREFETCH_THREADS,
+              30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+              newDaemonThreadFactory("GenericRestfulWSClient-prefetch"));
+          pool.allowCoreThreadTimeOut(true);
+          prefetchExecutor = result = pool;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private String getDiskCacheKey(WSRequestParams params, Object... paramNameThenValue) {
+    return params.getRequestType() + " " + getURLStringForRequest(false, paramNameThenValue);
+  }
+
+  /** Disk cache hits and misses are counted by the disk cache itself, not by the client metrics. */
+  private WSCacheEntry getDiskCached(DiskResponseCache currentDiskCache, String key) {
+    try {
+      return currentDiskCache.getEntry(key);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Disk cache read failed for " + key, e);
+      return null;
+    }
+  }
+
+  /** Stores <code>value</code> on disk with the lifetime and validators of <code>entry</code>. */
+  private void putDiskCached(DiskResponseCache currentDiskCache, String key, String value,
+      WSCacheEntry entry, long now) {
+    long ttlMillis = entry.getExpiresAt() - now;
+    if (ttlMillis <= 0) {
+      return; // must be revalidated before reuse, and expired disk entries are never read
+    }
+    if (ttlMillis >= WSCacheEntry.NEVER / 2) {
+      ttlMillis = currentDiskCache.getDefaultTtlMillis();
+    }
+    try {
+      currentDiskCache.put(key, value, ttlMillis, entry.getETag(), entry.getLastModified());
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Disk cache write failed for " + key, e);
+    }
+  }
+
+  private void removeDiskCached(DiskResponseCache currentDiskCache, String key) {
+    try {
+      currentDiskCache.remove(key);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Disk cache invalidation failed for " + key, e);
+    }
+  }
+
+  /**
+   * Returns the (possibly cached) result as a XML <code>Document</code>. The
+   * result is cached only as {@link CompactXml}, with its own lifetime and
+   * validators, not as text under its String key as well.
+   */
+  private Document getXml(RequestType requestType, Object... paramNameThenValue)
+      throws MalformedURLException, IOException, ParserConfigurationException, SAXException {
+    String method = requestType.name();
+    WSRequestTrace trace = startTrace(method, WSCallType.XML, paramNameThenValue);
+    try {
+      Document result;
+      long startTime = System.nanoTime();
+      try {
+        result = isWrite(requestType)
+            ? parseXmlResponse(getString(requestType, trace, null, paramNameThenValue), trace)
+            : getCachedXml(requestType, trace, paramNameThenValue);
+      } finally {
+        metrics.recordCall(WSCallType.XML, method, System.nanoTime() - startTime);
+      }
+      trace.fire(WSRequestPhase.REQUEST_END);
+      return result;
+    } catch (IOException | ParserConfigurationException | SAXException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    }
+  }
+
+  /** The cache lookups and fetch of getXml; the counterpart of getString for "Document" keys. */
+  private Document getCachedXml(RequestType requestType, WSRequestTrace trace,
+      Object... paramNameThenValue)
+      throws MalformedURLException, IOException, ParserConfigurationException, SAXException {
+    WSRequestParams params = new WSRequestParams("Document", requestType.name(), paramNameThenValue);
+    WSCacheEntry entry = getCacheEntry(params);
+    long now = System.currentTimeMillis();
+    if ((entry != null) && entry.isFresh(now)) {
+      if ((refreshAheadFraction > 0) && entry.isNearExpiry(now, refreshAheadFraction)) {
+        scheduleRefresh(requestType, params, paramNameThenValue);
+      }
+      trace.fire(WSRequestPhase.CACHE_HIT);
+      return getCachedDocument(params, entry.getValue(), trace);
+    }
+    if ((entry != null) && entry.isStaleWhileRevalidate(now)) {
+      scheduleRefresh(requestType, params, paramNameThenValue);
+      metrics.recordCacheEvent(WSCacheEvent.STALE_WHILE_REVALIDATE);
+      trace.fire(WSRequestPhase.CACHE_STALE);
+      return getCachedDocument(params, entry.getValue(), trace);
+    }
+    DiskResponseCache currentDiskCache = diskCache;
+    if ((entry == null) && (currentDiskCache != null)) {
+      WSCacheEntry stored = getDiskCached(currentDiskCache, getDiskCacheKey(params, paramNameThenValue));
+      if (stored != null) {
+        trace.fire(WSRequestPhase.CACHE_HIT, currentDiskCache);
+        String text = (String) stored.getValue();
+        putCacheEntry(params, newDiskEntry(stored, CompactXml.encode(text, xmlCacheCompression, xmlCacheOffHeap)));
+        return parseXmlResponse(text, trace);
+      }
+    }
+    String response;
+    try {
+      response = fetchString(requestType, params, entry, trace, null, paramNameThenValue);
+    } catch (IOException e) {
+      if ((entry != null) && entry.isStaleIfError(System.currentTimeMillis())) {
+        metrics.recordCacheEvent(WSCacheEvent.STALE_IF_ERROR);
+        trace.fire(WSRequestPhase.CACHE_STALE, e);
+        return getCachedDocument(params, entry.getValue(), trace);
+      }
+      throw e;
+    }
+    return parseXmlResponse(response, trace);
+  }
+
+  private Document parseXmlResponse(String response, WSRequestTrace trace)
+      throws IOException, ParserConfigurationException, SAXException {
+    trace.fire(WSRequestPhase.PARSE_START);
+    Document result = convertStringToXml(response.trim());
+    trace.fire(WSRequestPhase.PARSE_END);
+    return result;
+  }
+
+  /**
+   * Returns an independent <code>Document</code> for a cached XML value: a
+   * clone from the DOM near-cache for hot keys, otherwise freshly parsed.
+   */
+  private Document getCachedDocument(WSRequestParams params, Object value, WSRequestTrace trace)
+      throws IOException, ParserConfigurationException, SAXException {
+    if (!(value instanceof CompactXml)) {
+      return (Document) value; // put there by the application
+    }
+    CompactXml compact = (CompactXml) value;
+    WSXmlNearCache nearCache = xmlNearCache;
+    int hits = compact.recordHit();
+    if (nearCache != null) {
+      Document result = nearCache.get(params, compact);
+      if (result != null) {
+        return result;
+      }
+    }
+    trace.fire(WSRequestPhase.PARSE_START);
+    Document result = parseXml(compact.openReader());
+    trace.fire(WSRequestPhase.PARSE_END);
+    if ((nearCache != null) && (hits >= XML_NEAR_CACHE_MIN_HITS)) {
+      result = nearCache.put(params, compact, result);
+    }
+    return result;
+  }
+
+  /** This method should be the only one used to get connections to the web service.  */
+  private HttpURLConnection getConnection(RequestType requestType, WSRequestTrace trace,
+      WSCacheExchange exchange, WSEndpoint endpoint, Object... paramNameThenValue)
+      throws MalformedURLException, IOException, ProtocolException {
+    String url = getURLStringForRequest((endpoint == null) ? urlStarter : endpoint.getUrlStarter(),
+        requestType.hasBody(), paramNameThenValue);
+    trace.setUrl(url);
+    URL realUrl = new URL(url);
+    if (trace.isEnabled()) {
+      // resolving here primes the JVM's address cache, so connect() below doesn't resolve again
+      trace.fire(WSRequestPhase.DNS_START);
+      InetAddress address = InetAddress.getByName(realUrl.getHost());
+      trace.fire(WSRequestPhase.DNS_END, address);
+    }
+    HttpURLConnection con =  (HttpURLConnection)realUrl.openConnection();
+    WSCallCanceller canceller = WSCallCanceller.current();
+    if (canceller != null) {
+      canceller.setConnection(con);
+    }
+    con.setReadTimeout(timeoutMsecs);
+    for (Map.Entry<String, String> entry : requestProps.entrySet()) {
+      con.addRequestProperty(entry.getKey(), entry.getValue());
+    }
+    if (exchange != null) {
+      exchange.applyTo(con);
+    }
+    if (requestType.hasBody()) {
+      configurePost(con, requestType, trace, paramNameThenValue);
+    } else {
+      if (requestType != RequestType.GET) {
+        con.setRequestMethod(requestType.name());
+      }
+      connect(con, trace);
+    }
+    return con;
+  }
+
+  /**
+   * Sends the request over HTTP/2 and waits for the response headers.
+   * Connections are managed by <code>transport</code>, so no DNS or connect
+   * phases are reported to <code>trace</code>.
+   */
+  private WSHttp2Transport.Response sendHttp2(WSHttp2Transport transport, RequestType requestType,
+      WSRequestTrace trace, WSCacheExchange exchange, WSEndpoint endpoint, Object... paramNameThenValue)
+      throws IOException {
+    String url = getURLStringForRequest((endpoint == null) ? urlStarter : endpoint.getUrlStarter(),
+        requestType.hasBody(), paramNameThenValue);
+    trace.setUrl(url);
+    HttpRequest.Builder builder;
+    try {
+      builder = HttpRequest.newBuilder(new URI(url));
+    } catch (URISyntaxException e) {
+      throw new MalformedURLException(e.getMessage());
+    }
+    if (timeoutMsecs > 0) {
+      builder.timeout(Duration.ofMillis(timeoutMsecs));
+    }
+    for (Map.Entry<String, String> entry : requestProps.entrySet()) {
+      if (!HTTP2_RESTRICTED_HEADERS.contains(entry.getKey().toLowerCase())) {
+        builder.header(entry.getKey(), entry.getValue());
+      }
+    }
+    if (exchange != null) {
+      exchange.applyTo(builder);
+    }
+    if (requestType.hasBody()) {
+      String postableStr = getPostableData(paramNameThenValue);
+      byte[] postableData = postableStr.getBytes(getCharset());
+      metrics.recordBytesOut(postableData.length);
+      builder.header("Content-Type", "application/x-www-form-urlencoded");
+      builder.method(requestType.name(), HttpRequest.BodyPublishers.ofByteArray(postableData));
+      trace.fire(WSRequestPhase.REQUEST_BODY_START, postableStr);
+      WSHttp2Transport.Response result = transport.send(builder.build(), timeoutMsecs);
+      trace.fire(WSRequestPhase.REQUEST_BODY_END, postableData.length);
+      recordHttp2Exchange(result);
+      return result;
+    }
+    WSHttp2Transport.Response result = transport.send(
+        builder.method(requestType.name(), HttpRequest.BodyPublishers.noBody()).build(), timeoutMsecs);
+    recordHttp2Exchange(result);
+    return result;
+  }
+
+  private void recordHttp2Exchange(WSHttp2Transport.Response response) {
+    if (!response.http2) {
+      metrics.recordHttp1Exchange();
+      return;
+    }
+    metrics.recordHttp2Stream();
+    if (response.newConnection) {
+      metrics.recordHttp2Connection();
+    }
+  }
+
+  /**
+   * Opens a connection to <code>server</code> with a HEAD request and leaves
+   * it open for reuse. Any status will do; only the connection matters. The
+   * connection is held, and <code>allOpen</code> counted down, until every
+   * warm-up request to the server has its own: over HTTP/2 until they all
+   * have their response, keeping each stream busy so the next request goes
+   * to another connection; otherwise until they are all connected, since a
+   * HEAD response hands its socket back to the keep-alive pool as soon as it
+   * is read.
+   * @return whether a new connection was left open, once all of them were:
+   * over HTTP/2, whether the request opened one rather than joining an
+   * existing one; otherwise whether the server didn't close it
+   */
+  private boolean openWarmUpConnection(String server, CountDownLatch allOpen) throws IOException {
+    boolean counted = false;
+    try {
+      WSHttp2Transport transport = http2Transport;
+      if (transport != null) {
+        HttpRequest.Builder builder;
+        try {
+          builder = HttpRequest.newBuilder(new URI(server));
+        } catch (URISyntaxException e) {
+          throw new MalformedURLException(e.getMessage());
+        }
+        if (timeoutMsecs > 0) {
+          builder.timeout(Duration.ofMillis(timeoutMsecs));
+        }
+        WSHttp2Transport.Response response = transport.send(
+            builder.method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), timeoutMsecs);
+        recordHttp2Exchange(response);
+        boolean together;
+        try {
+          allOpen.countDown();
+          counted = true;
+          together = awaitWarmUp(allOpen);
+          while (response.body.read() >= 0) { // ends at once; closing first would reset the stream
+          }
+        } finally {
+          response.body.close();
+        }
+        return together && (response.http2 ? response.newConnection
+            : !"close".equalsIgnoreCase(response.response.headers().firstValue("Connection").orElse(null)));
+      }
+      HttpURLConnection con = (HttpURLConnection) new URL(server).openConnection();
+      con.setReadTimeout(timeoutMsecs);
+      con.setRequestMethod("HEAD");
+      for (Map.Entry<String, String> entry : requestProps.entrySet()) {
+        con.addRequestProperty(entry.getKey(), entry.getValue());
+      }
+      con.connect(); // takes a pooled socket or opens one, and holds it until the response is read
+      allOpen.countDown();
+      counted = true;
+      boolean together = awaitWarmUp(allOpen);
+      InputStream is = (con.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST)
+          ? con.getInputStream() : con.getErrorStream();
+      if (is != null) {
+        is.close(); // returns the connection to the keep-alive pool
+      }
+      return together && !"close".equalsIgnoreCase(con.getHeaderField("Connection"));
+    } finally {
+      if (!counted) {
+        allOpen.countDown();
+      }
+    }
+  }
+
+  /**
+   * Waits for the other warm-up requests to a server to open their
+   * connections, for at most the read timeout.
+   * @return whether they all did
+   */
+  private boolean awaitWarmUp(CountDownLatch allOpen) throws IOException {
+    try {
+      if (timeoutMsecs > 0) {
+        return allOpen.await(timeoutMsecs, TimeUnit.MILLISECONDS);
+      }
+      allOpen.await();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for warm-up connections.");
+    }
+  }
+
+  /** Returns how many idle connections per server the JDK keep-alive pool holds. */
+  private static int getKeepAliveConnectionsPerServer() {
+    int result = Integer.getInteger("http.maxConnections", DEFAULT_KEEP_ALIVE_CONNECTIONS);
+    return (result > 0) ? result : DEFAULT_KEEP_ALIVE_CONNECTIONS;
+  }
+
+  /** Opens the connection, reporting the connect phase to <code>trace</code>. */
+  private void connect(HttpURLConnection con, WSRequestTrace trace) throws IOException {
+    trace.fire(WSRequestPhase.CONNECT_START);
+    con.connect();
+    if (trace.isEnabled()) {
+      trace.fire(WSRequestPhase.CONNECT_END,
+          (con instanceof HttpsURLConnection) ? ((HttpsURLConnection) con).getCipherSuite() : null);
+    }
+  }
+
+  /**
+   * set post data and HTTP headers. <code>HttpURLConnection</code> refuses
+   * PATCH, so that is sent as a POST with a method override header.
+   */
+  private void configurePost(HttpURLConnection con, RequestType requestType, WSRequestTrace trace,
+      Object... paramNameThenValue)
+  throws ProtocolException, IOException {
+    con.setDoOutput(true);
+    if (requestType == RequestType.PATCH) {
+      con.setRequestMethod(RequestType.POST.name());
+      con.setRequestProperty("X-HTTP-Method-Override", RequestType.PATCH.name());
+    } else {
+      con.setRequestMethod(requestType.name());
+    }
+    con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    con.setUseCaches(false);
+    String postableStr = getPostableData(paramNameThenValue);
+    byte[] postableData = postableStr.getBytes(getCharset());
+    con.setRequestProperty("Content-Length", "" + postableData.length);
+    metrics.recordBytesOut(postableData.length);
+    connect(con, trace);
+    trace.fire(WSRequestPhase.REQUEST_BODY_START, postableStr);
+    OutputStream outStream = con.getOutputStream();
     try {
-      int nchars = 0;
-      buf.delete(0, buf.length());
-      char[] streamBuf = streamBuffer.get();
-      int bytesRead = -1;
-      while ((bytesRead = reader.read(streamBuf, 0, streamBuf.length)) >= 0) {
-        buf.append(streamBuf, 0, bytesRead);
+      if (streamBufSize > 0) {
+        outStream = new BufferedOutputStream(outStream, streamBufSize);
       }
+      outStream.write(postableData);
+      outStream.flush();
     } finally {
-      try { reader.close(); } catch (Exception e) {}
-      logDuration(startTime, System.nanoTime());
+      try {
+        outStream.close();
+      } catch (Exception e) {
+      }
     }
-    return buf.toString();
+    trace.fire(WSRequestPhase.REQUEST_BODY_END, postableData.length);
   }
 
-  /** return a string representation of the post parameters */
-  private String getPostableData(Object... paramNameThenValue) {
-    // @todo break out shared code with getURLStringForRequest
-    StringBuilder buf = urlStringBuilder.get();
+  /**
+   * Make a connection and return a stream (possibly buffered). For a call
+   * type that hands the body to the caller (STREAM, READER or SOURCE), the
+   * call is recorded in the metrics once the returned stream reaches its end
+   * or is closed, which also ends the trace; other callers record their own.
+   * If <code>exchange</code> is given, its conditional headers are sent and
+   * the response's status and caching headers captured.
+   * With a request scheduler, the call first waits for a slot, which it holds
+   * until the stream reaches its end or is closed; the wait is not part of the
+   * recorded latency. A write that succeeds removes the cached results it
+   * made stale as soon as the response headers arrive.
+   */
+  private InputStream getStreamInternal(RequestType requestType, final WSCallType callType,
+      final WSRequestTrace trace, WSCacheExchange exchange, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    final String method = requestType.name();
+    final WSRequestScheduler scheduler = requestScheduler;
+    final WSPriority priority = WSPriorityScope.current();
+    if (scheduler != null) {
+      metrics.recordQueueWait(priority, scheduler.acquire(priority));
+    }
+    final long startTime = System.nanoTime();
+    InputStream is = null;
+    HttpURLConnection con = null;
+    WSHttp2Transport.Response response = null;
+    WSHttp2Transport transport = http2Transport;
+    WSEndpoint endpoint = null;
+    boolean failed = false;
     try {
-      buf.delete(0, buf.length());
-      if (paramNameThenValue.length > 1) {
-        if ((paramNameThenValue.length % 2) == 1) {
-          throw new IllegalArgumentException("Got illegal web service argument list.\n "
-              + "There should be an even number of paramaters because each argument\n "
-              + "should be named first then the value should be given.");
+      endpoint = acquireEndpoint();
+      if (transport != null) {
+        response = sendHttp2(transport, requestType, trace, exchange, endpoint, paramNameThenValue);
+        if (response.response.statusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+          throw new IOException("Server returned HTTP response code: " + response.response.statusCode()
+              + " for URL: " + response.response.uri());
         }
-        boolean isFirst = true;
-        for (int i = 0, size = paramNameThenValue.length; i < size;) {
-          String paramName = "" + paramNameThenValue[i++];
-          if ((postableParams != null) && (!postableParams.contains(paramName))) {
-            continue;
-          }
-          if (!isFirst) {
-            buf.append("&");
+        is = response.body;
+      } else {
+        con = getConnection(requestType, trace, exchange, endpoint, paramNameThenValue);
+        is = con.getInputStream();
+      }
+    } catch (IOException e) {
+      int status = (response != null) ? response.response.statusCode() : getResponseCode(con);
+      metrics.recordError(status);
+      failed = (status == WSClientMetrics.NO_STATUS) || (status >= 500);
+      if (response != null) {
+        if (parseErrorStream()) {
+          is = response.body;
+        } else {
+          response.body.close();
+        }
+      } else if ((con != null) && parseErrorStream()) {
+        is = con.getErrorStream();
+      }
+      if (is == null) {
+        long elapsed = System.nanoTime() - startTime;
+        releaseScheduled(scheduler, priority);
+        releaseEndpoint(endpoint, elapsed, failed);
+        if (isStreamed(callType)) {
+          metrics.recordCall(callType, method, elapsed);
+        }
+        trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+        throw e;
+      }
+    } catch (RuntimeException e) {
+      long elapsed = System.nanoTime() - startTime;
+      releaseScheduled(scheduler, priority);
+      releaseEndpoint(endpoint, elapsed, false);
+      if (isStreamed(callType)) {
+        metrics.recordCall(callType, method, elapsed);
+      }
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    }
+    long timeToFirstByte = System.nanoTime() - startTime;
+    releaseEndpoint(endpoint, timeToFirstByte, failed);
+    try {
+      metrics.recordTimeToFirstByte(method, timeToFirstByte);
+      int status = (response != null) ? response.response.statusCode() : getResponseCode(con);
+      if (exchange != null) {
+        if (response != null) {
+          exchange.readFrom(response.response);
+        } else {
+          exchange.readFrom(con, status);
+        }
+      }
+      if (trace.isEnabled()) {
+        trace.fire(WSRequestPhase.RESPONSE_HEADERS, status);
+      }
+      if ((status >= HttpURLConnection.HTTP_OK) && (status < HttpURLConnection.HTTP_BAD_REQUEST)
+          && isWrite(requestType)) {
+        invalidateCached(requestType, paramNameThenValue);
+      }
+      is = new MeteredInputStream(is) {
+        @Override
+        protected void completed(long bytesRead) {
+          long endTime = System.nanoTime();
+          releaseScheduled(scheduler, priority);
+          metrics.recordBytesIn(bytesRead);
+          logDuration(startTime, endTime);
+          trace.fire(WSRequestPhase.RESPONSE_BODY_END, bytesRead);
+          if (isStreamed(callType)) {
+            metrics.recordCall(callType, method, endTime - startTime);
+            trace.fire(WSRequestPhase.REQUEST_END);
           }
-          isFirst = false;
-          buf.append(paramName).append("=").
-              append(URLEncoder.encode("" + paramNameThenValue[i++], "UTF-8"));
+        }
+      };
+    } catch (RuntimeException | Error e) {
+      // e.g. from a listener or an invalidation rule; don't leak the slot or the connection
+      releaseScheduled(scheduler, priority);
+      try { is.close(); } catch (Exception closeException) {}
+      throw e;
+    }
+    if (streamBufSize > 0) {
+      is = new BufferedInputStream(is, streamBufSize);
+    }
+    return is;
+  }
+
+  /**
+   * Returns whether calls of <code>callType</code> hand the body itself to
+   * the caller, so that getStreamInternal records the call and ends its
+   * trace once the body is consumed. Other calls record their own type once
+   * per public call, cache hits included.
+   */
+  private static boolean isStreamed(WSCallType callType) {
+    return (callType == WSCallType.STREAM) || (callType == WSCallType.READER)
+        || (callType == WSCallType.SOURCE);
+  }
+
+  private static void releaseScheduled(WSRequestScheduler scheduler, WSPriority priority) {
+    if (scheduler != null) {
+      scheduler.release(priority);
+    }
+  }
+
+  /** Returns the HTTP status of <code>con</code>, or NO_STATUS if there is none. */
+  private static int getResponseCode(HttpURLConnection con) {
+    if (con == null) {
+      return WSClientMetrics.NO_STATUS;
+    }
+    try {
+      return con.getResponseCode();
+    } catch (IOException e) {
+      return WSClientMetrics.NO_STATUS;
+    }
+  }
+
+  /** Make a connection and return a reader (possibly buffered). */
+  private Reader getReaderInternal(RequestType requestType, WSCallType callType,
+      WSRequestTrace trace, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    InputStream is = getStreamInternal(requestType, callType, trace, null, paramNameThenValue);
+    return new InputStreamReader(is, charSet);
+  }
+
+  /** Make a connection and return a source. */
+  private Source getSourceInternal(RequestType requestType, WSCallType callType,
+      WSRequestTrace trace, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    Reader reader = getReaderInternal(requestType, callType, trace, paramNameThenValue);
+    return new StreamSource(reader);
+  }
+
+  /**
+   * Make a connection and return a String. A successful body is also passed
+   * to <code>parser</code>, if given, as it is read.
+   */
+  private String getStringInternal(RequestType requestType, WSCallType callType,
+      WSRequestTrace trace, WSCacheExchange exchange, BodyParser parser, Object ... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    Reader reader = new InputStreamReader(
+        getStreamInternal(requestType, callType, trace, exchange, paramNameThenValue), charSet);
+    try {
+      if ((parser == null) || (exchange == null)
+          || (exchange.getStatus() >= HttpURLConnection.HTTP_MULT_CHOICE)) {
+        return readFully(reader);
+      }
+      CapturingReader capture = new CapturingReader(reader);
+      parser.parse(capture);
+      return capture.finish();
+    } finally {
+      try { reader.close(); } catch (Exception e) {}
+    }
+  }
+
+  /**
+   * Returns the result parsed as JSON: a tree (see {@link JsonTree}), or, if
+   * <code>handler</code> is given, null after passing it the tokens. It is
+   * cached as text like XML results, and parsed again on each cache hit;
+   * without a cache it is parsed straight from the response stream.
+   */
+  private Object getJson(RequestType requestType, JsonHandler handler, Object... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    String method = requestType.name();
+    WSRequestTrace trace = startTrace(method, WSCallType.JSON, paramNameThenValue);
+    long startTime = System.nanoTime();
+    try {
+      Object result;
+      if ((cache == null) && (diskCache == null)) {
+        JsonTokenizer tokenizer = new JsonTokenizer(new InputStreamReader(
+            getStreamInternal(requestType, WSCallType.JSON, trace, null, paramNameThenValue), charSet));
+        try {
+          trace.fire(WSRequestPhase.PARSE_START);
+          result = readJson(tokenizer, handler);
+          trace.fire(WSRequestPhase.PARSE_END);
+        } finally {
+          try { tokenizer.close(); } catch (Exception e) {}
+        }
+      } else {
+        JsonParser parser = new JsonParser(handler);
+        String response = getString(requestType, trace, parser, paramNameThenValue);
+        if (parser.parsed) {
+          result = parser.result;
+        } else {
+          trace.fire(WSRequestPhase.PARSE_START);
+          result = readJson(new JsonTokenizer(new StringReader(response)), handler);
+          trace.fire(WSRequestPhase.PARSE_END);
         }
       }
-    } catch (UnsupportedEncodingException e) {
-    } //ignore
-    String result = buf.toString();
-    logger.info("Post data: \n" + result);
+      trace.fire(WSRequestPhase.REQUEST_END);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    } finally {
+      metrics.recordCall(WSCallType.JSON, method, System.nanoTime() - startTime);
+    }
+  }
+
+  /**
+   * Reads a whole JSON document into a tree, or passes its tokens to
+   * <code>handler</code> and returns null.
+   */
+  private static Object readJson(JsonTokenizer tokenizer, JsonHandler handler) throws IOException {
+    if (handler != null) {
+      tokenizer.parse(handler);
+      return null;
+    }
+    Object result = JsonTree.read(tokenizer);
+    tokenizer.next(); // nothing may follow
     return result;
   }
 
-  /** returns a string representation of the URL to use for making the connection */
-  private String getURLStringForRequest(boolean allowPost, Object ... paramNameThenValue) {
-    // @todo break out shared code with getPostableData
-    StringBuilder buf = urlStringBuilder.get();
+  /**
+   * Returns the values <code>spec</code> projects out of the XML result,
+   * cached on their own under the spec. Unlike text results, they never go to
+   * the disk cache, are not refreshed in the background, and a stale entry is
+   * revalidated rather than served while revalidating. Only successful
+   * responses are cached; a 5xx, or an error body that is not XML, while the
+   * stale entry may still be served on error serves it instead.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, String> getProjection(RequestType requestType, XmlProjection spec,
+      Object... paramNameThenValue) throws MalformedURLException, IOException, XMLStreamException {
+    String method = requestType.name();
+    WSRequestTrace trace = startTrace(method, WSCallType.PROJECTION, paramNameThenValue);
+    long startTime = System.nanoTime();
     try {
-      buf.delete(0, buf.length());
-      buf.append(urlStarter);
-      if ((postableParams != null) || (!allowPost)) {
-        if (paramNameThenValue.length > 1) {
-          if ((paramNameThenValue.length % 2) == 1) {
-            throw new IllegalArgumentException("Got illegal web service argument list.\n "
-                + "There should be an even number of paramaters because each argument\n "
-                + "should be named first then the value should be given.");
+      String cacheType = PROJECTION_CACHE_TYPE + spec.getSpec();
+      WSRequestParams params = new WSRequestParams(cacheType, method, paramNameThenValue);
+      WSCacheEntry entry = getCacheEntry(params);
+      long now = System.currentTimeMillis();
+      if ((entry != null) && entry.isFresh(now)) {
+        trace.fire(WSRequestPhase.CACHE_HIT);
+        trace.fire(WSRequestPhase.REQUEST_END);
+        return (Map<String, String>) entry.getValue();
+      }
+      Map<String, String> result;
+      long writesBefore = writeCount;
+      WSCacheExchange exchange = new WSCacheExchange(method, entry);
+      try {
+        Reader reader = new InputStreamReader(
+            getStreamInternal(requestType, WSCallType.PROJECTION, trace, exchange, paramNameThenValue), charSet);
+        try {
+          if (exchange.isServerError() && (entry != null)
+              && entry.isStaleIfError(System.currentTimeMillis())) {
+            throw new IOException("Server returned HTTP status " + exchange.getStatus()
+                + " for URL: " + getURLStringForRequest(requestType.hasBody(), paramNameThenValue));
           }
-          boolean isFirst = !urlStarter.contains("?");
-          for (int i = 0, size = paramNameThenValue.length; i < size;) {
-            String paramName = "" + paramNameThenValue[i++];
-            if (allowPost && ((postableParams == null) || postableParams.contains(paramName))) {
-              continue;
-            }
-            if (isFirst) {
-              buf.append("?");
-            } else {
-              buf.append("&");
-            }
-            isFirst = false;
-            buf.append(paramName).append("=").
-                append(URLEncoder.encode("" + paramNameThenValue[i++], "UTF-8"));
+          if (exchange.isNotModified()) {
+            result = null;
+          } else {
+            trace.fire(WSRequestPhase.PARSE_START);
+            result = spec.evaluate(reader); // stops reading once it has every value
+            trace.fire(WSRequestPhase.PARSE_END);
           }
+        } finally {
+          try { reader.close(); } catch (Exception e) {}
+        }
+      } catch (IOException | XMLStreamException e) {
+        if ((entry != null) && entry.isStaleIfError(System.currentTimeMillis())
+            && ((e instanceof IOException) || !isSuccess(exchange))) {
+          metrics.recordCacheEvent(WSCacheEvent.STALE_IF_ERROR);
+          trace.fire(WSRequestPhase.CACHE_STALE, e);
+          trace.fire(WSRequestPhase.REQUEST_END);
+          return (Map<String, String>) entry.getValue();
         }
+        throw e;
       }
-    } catch (UnsupportedEncodingException e) {
-      e.printStackTrace();
-    } catch (Throwable t) {
-        t.printStackTrace();
-    }//ignore
-    return buf.toString();
+      now = System.currentTimeMillis();
+      boolean cacheable = isSuccess(exchange); // an error page projects to nulls, not worth keeping
+      if (cacheable && (cache != null) && !exchange.isNoStore()
+          && ((writeCount == writesBefore) || !isInvalidatedSince(writesBefore, paramNameThenValue))) {
+        WSCacheEntry fetched = exchange.toEntry(result, now, cacheTtlMillis,
+            staleWhileRevalidateMillis, staleIfErrorMillis);
+        if (exchange.isNotModified()) {
+          metrics.recordCacheRevalidation();
+          trace.fire(WSRequestPhase.CACHE_REVALIDATED);
+          result = (Map<String, String>) fetched.getValue();
+        }
+        projectionCacheTypes.add(cacheType);
+        putCacheEntry(params, fetched);
+      } else if (exchange.isNotModified()) {
+        result = (Map<String, String>) entry.getValue(); // the write can't have been seen yet
+      } else if (cacheable && (cache != null)) {
+        removeCached(params);
+      }
+      trace.fire(WSRequestPhase.REQUEST_END);
+      return result;
+    } catch (IOException | XMLStreamException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    } finally {
+      metrics.recordCall(WSCallType.PROJECTION, method, System.nanoTime() - startTime);
+    }
   }
 
-  /** default method for converting a string to XML */
-  private Document convertStringToXml(String str) throws IOException, ParserConfigurationException, SAXException {
-    // @todo make the streamed and protected so that subclasses can override
-    str = str.trim();
-    // @hack for poorly behaved services that don't emit an xml prolog
-    if (!str.startsWith("<?xml")) {
-      str = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" + str;
+  /** Parses a response body as it is read, for results that are cached as text too. */
+  private static interface BodyParser {
+    void parse(Reader reader) throws IOException;
+  }
+
+  /** Parses a JSON body as it is read; see getJson. */
+  private static final class JsonParser implements BodyParser {
+
+    JsonParser(JsonHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void parse(Reader reader) throws IOException {
+      result = readJson(new JsonTokenizer(reader), handler);
+      parsed = true;
+    }
+
+    final JsonHandler handler;
+    Object result = null;
+    boolean parsed = false;
+  }
+
+  /** Keeps a copy of everything read through it. */
+  private static final class CapturingReader extends FilterReader {
+
+    CapturingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result >= 0) {
+        captured.append((char) result);
+      }
+      return result;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int result = super.read(cbuf, off, len);
+      if (result > 0) {
+        captured.append(cbuf, off, result);
+      }
+      return result;
+    }
+
+    /** Reads the rest of the input and returns all of it. */
+    String finish() throws IOException {
+      char[] buf = streamBuffer.get();
+      while (read(buf, 0, buf.length) >= 0) {
+      }
+      return captured.toString();
+    }
+
+    private final StringBuilder captured = new StringBuilder();
+  }
+
+  /** Sends a PUT, PATCH or DELETE, returning the result as a String. */
+  private String write(RequestType requestType, Object... paramNameThenValue)
+      throws MalformedURLException, IOException {
+    WSRequestTrace trace = startTrace(requestType.name(), WSCallType.STRING, paramNameThenValue);
+    long startTime = System.nanoTime();
+    try {
+      String result = getString(requestType, trace, null, paramNameThenValue);
+      trace.fire(WSRequestPhase.REQUEST_END);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      trace.fire(WSRequestPhase.REQUEST_FAILED, e);
+      throw e;
+    } finally {
+      metrics.recordCall(WSCallType.STRING, requestType.name(), System.nanoTime() - startTime);
+    }
+  }
+
+  /** A successful write, remembered to keep results fetched meanwhile from being cached. */
+  private static final class Write {
+
+    Write(RequestType requestType, String targetUrl, String url) {
+      this.requestType = requestType;
+      this.targetUrl = targetUrl;
+      this.url = url;
+    }
+
+    /** Returns whether this write made the result cached for <code>cachedUrl</code> stale. */
+    boolean invalidates(List<WSInvalidationRule> rules, String cachedUrl) {
+      if (cachedUrl.equals(targetUrl)) {
+        return true;
+      }
+      for (WSInvalidationRule rule : rules) {
+        if (rule.invalidates(requestType, url, cachedUrl)) {
+          return true;
+        }
+      }
+      return false;
     }
-    DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-    docBuilderFactory.setNamespaceAware(true);
-    InputSource source = new InputSource(new ByteArrayInputStream(str.getBytes()));
-    DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-    Document doc = docBuilder.parse(source);
-    return doc;
+
+    final RequestType requestType;
+    /** the URL the write was sent to, without the parameters sent in its body. */
+    final String targetUrl;
+    /** the URL with all the write's parameters. */
+    final String url;
+    /** the number of writes up to and including this one. */
+    long count;
   }
 
   //// Internal Rep
 
-  /** for future use: occurrences of "allowPost" should be replaced by this */
-  private static enum RequestType { GET, POST, PUT, DELETE };
+  /** The HTTP methods this client sends. */
+  public static enum RequestType {
+    GET(false, false), POST(true, false), PUT(true, true), DELETE(false, true), PATCH(true, true);
+
+    private RequestType(boolean hasBody, boolean write) {
+      this.hasBody = hasBody;
+      this.write = write;
+    }
+
+    /** Returns whether the parameters are sent in the body (see {@link GenericRestfulWSClient#setPostableParams(Set)}). */
+    public boolean hasBody() {
+      return hasBody;
+    }
+
+    /**
+     * Returns whether the method changes resources, so its results are never
+     * cached and it invalidates cached results. POST doesn't unless asked to
+     * (see {@link GenericRestfulWSClient#setInvalidateOnPost(boolean)}).
+     */
+    public boolean isWrite() {
+      return write;
+    }
+
+    private final boolean hasBody;
+    private final boolean write;
+  };
 
   /** Time to wait on HTTP requests in milliseconds before timing out. 0 means to wait forever. */
   private static final int DEFAULT_TIMEOUT_MSECS = 0;
@@ -867,10 +2828,31 @@ public class GenericRestfulWSClient {
   public static final Map<String, String> DEFAULT_HTML_REQUEST_PROPS = new HashMap<String, String>();
   
   public static final Map<String, String> DEFAULT_TEXT_REQUEST_PROPS = new HashMap<String, String>();
+  
+  public static final Map<String, String> DEFAULT_JSON_REQUEST_PROPS = new HashMap<String, String>();
 
   /** default size for stream buffering */
   private static final int DEFAULT_STRING_BUF_SIZE = 1024 * 32;
 
+  /** size of the default background cache refresh pool and its queue. */
+  private static final int DEFAULT_REFRESH_THREADS = 2;
+  private static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+
+  /** how many of the latest writes are remembered for results being fetched meanwhile. */
+  private static final int MAX_RECENT_WRITES = 64;
+
+  /** most threads a warm-up uses. */
+  private static final int MAX_WARM_UP_THREADS = 16;
+  /** the JDK's default for <code>http.maxConnections</code>. */
+  private static final int DEFAULT_KEEP_ALIVE_CONNECTIONS = 5;
+
+  /** size of the default page prefetch pool. */
+  private static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  /** default number of DOMs in the XML near-cache, and the hits a result needs to get in. */
+  private static final int DEFAULT_XML_NEAR_CACHE_SIZE = 16;
+  private static final int XML_NEAR_CACHE_MIN_HITS = 2;
+
   /** Time to wait on HTTP requests in milliseconds before timing out. 0 means to wait forever. */
   private int timeoutMsecs = DEFAULT_STRING_BUF_SIZE;
 
@@ -904,6 +2886,74 @@ public class GenericRestfulWSClient {
    */
   private Map<WSRequestParams, Object> cache = null;
 
+  /** how long cached results without server freshness information stay fresh,
+   * or 0 for until evicted.
+   */
+  private volatile long cacheTtlMillis = 0;
+
+  /** elapsed fraction of a cached result's lifetime at which a hit refreshes it
+   * in the background, or 0 for never.
+   */
+  private volatile double refreshAheadFraction = 0;
+
+  /** default stale-while-revalidate and stale-if-error windows. */
+  private volatile long staleWhileRevalidateMillis = 0;
+  private volatile long staleIfErrorMillis = 0;
+
+  /** runs background cache refreshes; created on first use if not set. */
+  private volatile Executor refreshExecutor = null;
+
+  /** runs page prefetches for paginate(); created on first use if not set. */
+  private volatile Executor prefetchExecutor = null;
+
+  /** String cache keys with a background refresh queued or running. */
+  private final ConcurrentMap<WSRequestParams, Boolean> refreshing =
+      new ConcurrentHashMap<WSRequestParams, Boolean>();
+
+  /** whether cached XML text is deflated and/or kept off-heap. */
+  private volatile boolean xmlCacheCompression = false;
+  private volatile boolean xmlCacheOffHeap = false;
+
+  /** parsed DOMs of the hottest cached XML results, or null for none. */
+  private volatile WSXmlNearCache xmlNearCache = new WSXmlNearCache(DEFAULT_XML_NEAR_CACHE_SIZE);
+
+  /** persistent second cache tier for String results, or null for none. */
+  private volatile DiskResponseCache diskCache = null;
+
+  /** rules for which cached results a write makes stale, besides those for its URL. */
+  private final List<WSInvalidationRule> invalidationRules = new CopyOnWriteArrayList<WSInvalidationRule>();
+
+  /** whether POST requests are writes, and whether PUT results replace cached GET results. */
+  private volatile boolean invalidateOnPost = false;
+  private volatile boolean writeThrough = false;
+
+  /** the cache key types projected results have been cached under, one per projection. */
+  private final Set<String> projectionCacheTypes =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** the latest writes, oldest first, and the number of writes so far; guarded by recentWrites. */
+  private final ArrayDeque<Write> recentWrites = new ArrayDeque<Write>();
+  private volatile long writeCount = 0;
+
+  /** limits and orders requests in flight by priority, or null for no limit. */
+  private volatile WSRequestScheduler requestScheduler = null;
+
+  /** HTTP/2 transport to send requests with, or null for <code>HttpURLConnection</code>. */
+  private volatile WSHttp2Transport http2Transport = null;
+
+  /** prefix of the cache key type of projected results, followed by the projection spec. */
+  private static final String PROJECTION_CACHE_TYPE = "Projection ";
+
+  /** headers the JDK HTTP client sets itself and refuses to be given. */
+  private static final Set<String> HTTP2_RESTRICTED_HEADERS = new HashSet<String>(
+      Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+  /** Call, transfer, error and cache statistics for this client. */
+  private volatile WSClientMetrics metrics = new WSClientMetrics();
+
+  /** Listeners for request phase events, replaced (never mutated) on change. */
+  private volatile WSRequestListener[] listeners = new WSRequestListener[0];
+
   private volatile Logger logger = Logger.getLogger(getClass().getName());
   
   static {
@@ -917,6 +2967,10 @@ public class GenericRestfulWSClient {
   static {
     DEFAULT_TEXT_REQUEST_PROPS.put("accept", "text/plain");
   };
+  
+  static {
+    DEFAULT_JSON_REQUEST_PROPS.put("accept", "application/json");
+  };
 
   /** Characters to use for base-64 encoding. */
   private static final String BASE64_CHARS =
@@ -933,6 +2987,8 @@ public class GenericRestfulWSClient {
   };
 
   /** hack to avoid unnecessary memory allocations */
+  private static ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>();
+
   private static ThreadLocal<StringBuilder> urlStringBuilder = new ThreadLocal<StringBuilder>() {
     @Override
     protected synchronized StringBuilder initialValue() {
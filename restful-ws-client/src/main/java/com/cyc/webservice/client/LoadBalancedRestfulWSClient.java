@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.X509TrustManager;
+
+//// External Imports
+
+/**
+ * <p/>A <code>GenericRestfulWSClient</code> for a web service run on several
+ * equivalent servers. Each request is sent to the server chosen by its
+ * {@link WSEndpointSelector} (by default
+ * {@link WSEndpointSelector#POWER_OF_TWO_CHOICES power of two choices} on
+ * latency and load), so slow servers get less traffic. The cache, request
+ * properties, metrics and the rest of the configuration are shared; cache
+ * keys don't depend on the server that answered.
+ * <p/>
+ * Servers that misbehave are ejected for a while, longer each time:
+ * <ul>
+ * <li>after <code>consecutiveFailures</code> failures in a row (no response or
+ *     a 5xx status);</li>
+ * <li>when their average latency exceeds <code>latencyFactor</code> times the
+ *     average of the other servers.</li>
+ * </ul>
+ * At most half the servers are ejected at once. Optional active health
+ * checks (see {@link #setHealthCheck(String, long)}) take servers out of
+ * rotation while they fail and put them back once they pass. If no server is
+ * available, requests are spread over all of them.
+ * <p/>
+ * Example:
+ * <code><pre>
+ *    LoadBalancedRestfulWSClient client = new LoadBalancedRestfulWSClient("http",
+ *      Arrays.asList("cyc1:8080", "cyc2:8080", "cyc3:8080"), "/webservices/concept/find");
+ *    client.setHealthCheck("/health", 5000);
+ *    String result = client.get("str", "dog");
+ *    ...
+ *    client.close();
+ * </pre></code>
+ */
+public class LoadBalancedRestfulWSClient extends GenericRestfulWSClient implements Closeable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>LoadBalancedRestfulWSClient</code>.
+   * @param protocol one of "http" or "https"
+   * @param hostsAndPorts the servers, each "host" or "host:port"
+   * @param servicePath the web service path
+   * @throws IllegalArgumentException if protocol != "http" or "https", or there are no valid servers
+   */
+  public LoadBalancedRestfulWSClient(String protocol, List<String> hostsAndPorts, String servicePath) {
+    this(protocol, hostsAndPorts, servicePath, null, null, DEFAULT_REQUEST_PROPS);
+  }
+
+  /**
+   * Creates a new instance of <code>LoadBalancedRestfulWSClient</code>.
+   * @param protocol one of "http" or "https"
+   * @param hostsAndPorts the servers, each "host" or "host:port"
+   * @param servicePath the web service path
+   * @param trustManager the X509 trust manager to use, or null if don't care
+   * or not communicating over HTTPS
+   * @param cache a map used to cache this web services HTTP requests
+   * @param requestProps default properties to append to any HTTP request
+   * @throws IllegalArgumentException if protocol != "http" or "https", or there are no valid servers
+   */
+  public LoadBalancedRestfulWSClient(String protocol, List<String> hostsAndPorts, String servicePath,
+      X509TrustManager trustManager, Map<WSRequestParams, Object> cache, Map<String, String> requestProps) {
+    super(protocol, getHost(firstOf(hostsAndPorts)), getPort(firstOf(hostsAndPorts)), servicePath,
+        trustManager, cache, requestProps);
+    List<WSEndpoint> result = new ArrayList<WSEndpoint>(hostsAndPorts.size());
+    for (String hostAndPort : hostsAndPorts) {
+      result.add(new WSEndpoint(protocol, getHost(hostAndPort), getPort(hostAndPort), servicePath));
+    }
+    endpoints = Collections.unmodifiableList(result);
+  }
+
+  //// Public Area
+
+  @Override
+  public String toString() {
+    return "REST Web Service at " + endpoints;
+  }
+
+  /** Returns the servers, with their current statistics. */
+  public List<WSEndpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  public WSEndpointSelector getEndpointSelector() {
+    return selector;
+  }
+
+  /**
+   * Sets how servers are chosen.
+   * @param selector e.g. {@link WSEndpointSelector#POWER_OF_TWO_CHOICES} or
+   * {@link WSEndpointSelector#LEAST_LOADED}
+   */
+  public void setEndpointSelector(WSEndpointSelector selector) {
+    if (selector == null) {
+      throw new IllegalArgumentException("Got invalid endpoint selector.");
+    }
+    this.selector = selector;
+  }
+
+  /**
+   * Configures passive outlier ejection.
+   * @param consecutiveFailures failures in a row that eject a server, or 0 for never
+   * @param latencyFactor how many times slower than the others a server must be
+   * to be ejected, or 0 for never
+   * @param baseEjectionMillis how long the first ejection of a server lasts;
+   * each further one lasts that much longer, up to {@value #MAX_EJECTION_MILLIS} ms
+   */
+  public void setOutlierEjection(int consecutiveFailures, double latencyFactor, long baseEjectionMillis) {
+    if ((consecutiveFailures < 0) || (latencyFactor < 0) || ((latencyFactor > 0) && (latencyFactor <= 1))
+        || (baseEjectionMillis <= 0)) {
+      throw new IllegalArgumentException("Got invalid outlier ejection settings.");
+    }
+    this.ejectionFailures = consecutiveFailures;
+    this.ejectionLatencyFactor = latencyFactor;
+    this.baseEjectionMillis = baseEjectionMillis;
+  }
+
+  /**
+   * Starts (or restarts, or with a null path stops) active health checks: a
+   * GET of <code>path</code> on every server every <code>intervalMillis</code>.
+   * A server is out of rotation from a failed check, i.e. no response or a
+   * status of 400 or more, until the next passing one.
+   * @param path the health check path, e.g. "/health", or null for none
+   * @param intervalMillis the time between checks of a server
+   */
+  public synchronized void setHealthCheck(final String path, long intervalMillis) {
+    if ((path != null) && (intervalMillis <= 0)) {
+      throw new IllegalArgumentException("Got invalid health check interval: " + intervalMillis);
+    }
+    if (healthCheck != null) {
+      healthCheck.cancel(false);
+      healthCheck = null;
+    }
+    if (path == null) {
+      for (WSEndpoint endpoint : endpoints) {
+        endpoint.setHealthy(true);
+      }
+      return;
+    }
+    if (healthChecker == null) {
+      healthChecker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "LoadBalancedRestfulWSClient-health");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      healthChecker.setRemoveOnCancelPolicy(true);
+    }
+    final int timeout = (int) Math.min(intervalMillis, Integer.MAX_VALUE);
+    healthCheck = healthChecker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (WSEndpoint endpoint : endpoints) {
+          endpoint.setHealthy(probe(endpoint, path, timeout));
+        }
+      }
+    }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the health checks. The client can still be used. */
+  @Override
+  public synchronized void close() {
+    if (healthChecker != null) {
+      healthChecker.shutdownNow();
+      healthChecker = null;
+      healthCheck = null;
+    }
+  }
+
+  //// Protected Area
+
+  @Override
+  protected WSEndpoint acquireEndpoint() throws IOException {
+    long now = System.currentTimeMillis();
+    List<WSEndpoint> candidates = new ArrayList<WSEndpoint>(endpoints.size());
+    double totalLatency = 0;
+    int sampled = 0;
+    for (WSEndpoint endpoint : endpoints) {
+      if (endpoint.isAvailable(now)) {
+        candidates.add(endpoint);
+        if (endpoint.getEwmaLatencyNanos() > 0) {
+          totalLatency += endpoint.getEwmaLatencyNanos();
+          sampled++;
+        }
+      }
+    }
+    if ((sampled > 0) && (sampled < candidates.size())) {
+      double seed = totalLatency / sampled;
+      for (WSEndpoint endpoint : candidates) {
+        if (endpoint.getEwmaLatencyNanos() <= 0) {
+          endpoint.setLatencySeed(seed);
+        }
+      }
+    }
+    WSEndpoint result = selector.select(candidates.isEmpty() ? endpoints : candidates);
+    result.started();
+    return result;
+  }
+
+  @Override
+  protected List<WSEndpoint> getWarmUpEndpoints() {
+    return endpoints;
+  }
+
+  @Override
+  protected void releaseEndpoint(WSEndpoint endpoint, long latencyNanos, boolean failed) {
+    if (endpoint == null) { // acquireEndpoint threw
+      return;
+    }
+    int failures = endpoint.finished(latencyNanos, failed);
+    if (failed) {
+      if ((ejectionFailures > 0) && (failures >= ejectionFailures)) {
+        eject(endpoint, "after " + failures + " consecutive failures");
+      }
+    } else if ((ejectionLatencyFactor > 0) && (endpoint.getSampleCount() >= MIN_LATENCY_SAMPLES)) {
+      double others = getOthersEwmaLatencyNanos(endpoint);
+      if ((others > 0) && (endpoint.getEwmaLatencyNanos() > ejectionLatencyFactor * others)) {
+        eject(endpoint, "for latency " + getDurationString((long) endpoint.getEwmaLatencyNanos())
+            + " against " + getDurationString((long) others));
+      }
+    }
+  }
+
+  //// Private Area
+
+  /** Ejects <code>endpoint</code> unless that would eject too many servers. */
+  private void eject(WSEndpoint endpoint, String reason) {
+    synchronized (endpoints) {
+      long now = System.currentTimeMillis();
+      if (endpoint.isEjected(now)) {
+        return;
+      }
+      int ejected = 0;
+      for (WSEndpoint other : endpoints) {
+        if (other.isEjected(now)) {
+          ejected++;
+        }
+      }
+      if ((ejected + 1) > endpoints.size() * MAX_EJECTED_FRACTION) {
+        return;
+      }
+      endpoint.eject(now, baseEjectionMillis, MAX_EJECTION_MILLIS);
+    }
+    LOGGER.log(Level.WARNING, "Ejected " + endpoint + " " + reason);
+  }
+
+  /** Returns the mean latency of the other available servers with samples, or 0 if there are none. */
+  private double getOthersEwmaLatencyNanos(WSEndpoint endpoint) {
+    long now = System.currentTimeMillis();
+    double total = 0;
+    int count = 0;
+    for (WSEndpoint other : endpoints) {
+      if ((other != endpoint) && other.isAvailable(now) && (other.getEwmaLatencyNanos() > 0)) {
+        total += other.getEwmaLatencyNanos();
+        count++;
+      }
+    }
+    return (count == 0) ? 0 : total / count;
+  }
+
+  /** Returns whether <code>endpoint</code> answers a GET of <code>path</code>. */
+  private boolean probe(WSEndpoint endpoint, String path, int timeoutMsecs) {
+    HttpURLConnection con = null;
+    try {
+      con = (HttpURLConnection) new URL(endpoint.getUrlToPort() + path).openConnection();
+      con.setConnectTimeout(timeoutMsecs);
+      con.setReadTimeout(timeoutMsecs);
+      con.setUseCaches(false);
+      int status = con.getResponseCode();
+      InputStream is = (status < 400) ? con.getInputStream() : con.getErrorStream();
+      if (is != null) {
+        is.close(); // lets the connection be reused
+      }
+      return status < 400;
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Health check failed for " + endpoint, e);
+      return false;
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Health check failed for " + endpoint, e);
+      return false;
+    }
+  }
+
+  private static String firstOf(List<String> hostsAndPorts) {
+    if ((hostsAndPorts == null) || hostsAndPorts.isEmpty()) {
+      throw new IllegalArgumentException("Got no endpoints.");
+    }
+    return hostsAndPorts.get(0);
+  }
+
+  private static String getHost(String hostAndPort) {
+    int colon = getPortColon(hostAndPort);
+    return (colon < 0) ? hostAndPort : hostAndPort.substring(0, colon);
+  }
+
+  private static int getPort(String hostAndPort) {
+    int colon = getPortColon(hostAndPort);
+    if (colon < 0) {
+      return DEFAULT_HTTP_PORT;
+    }
+    try {
+      return Integer.parseInt(hostAndPort.substring(colon + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Got invalid endpoint: " + hostAndPort);
+    }
+  }
+
+  /** Returns the index of the colon before the port, or -1; IPv6 addresses must be bracketed. */
+  private static int getPortColon(String hostAndPort) {
+    if (hostAndPort == null) {
+      throw new IllegalArgumentException("Got invalid endpoint: " + hostAndPort);
+    }
+    int colon = hostAndPort.lastIndexOf(':');
+    return (colon > hostAndPort.lastIndexOf(']')) ? colon : -1;
+  }
+
+  //// Internal Rep
+
+  /** the longest a server is ejected for. */
+  public static final long MAX_EJECTION_MILLIS = 5 * 60 * 1000;
+
+  private static final int DEFAULT_EJECTION_FAILURES = 5;
+  private static final double DEFAULT_EJECTION_LATENCY_FACTOR = 3.0;
+  private static final long DEFAULT_BASE_EJECTION_MILLIS = 30 * 1000;
+
+  /** latency samples a server needs before it can be ejected for latency. */
+  private static final int MIN_LATENCY_SAMPLES = 20;
+
+  /** the largest fraction of the servers ejected at once. */
+  private static final double MAX_EJECTED_FRACTION = 0.5;
+
+  private static final Logger LOGGER = Logger.getLogger(LoadBalancedRestfulWSClient.class.getName());
+
+  private final List<WSEndpoint> endpoints;
+  private volatile WSEndpointSelector selector = WSEndpointSelector.POWER_OF_TWO_CHOICES;
+  private volatile int ejectionFailures = DEFAULT_EJECTION_FAILURES;
+  private volatile double ejectionLatencyFactor = DEFAULT_EJECTION_LATENCY_FACTOR;
+  private volatile long baseEjectionMillis = DEFAULT_BASE_EJECTION_MILLIS;
+  private ScheduledThreadPoolExecutor healthChecker = null;
+  private ScheduledFuture<?> healthCheck = null;
+}
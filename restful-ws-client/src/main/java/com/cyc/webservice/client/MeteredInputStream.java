@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+//// External Imports
+
+/**
+ * An <code>InputStream</code> that counts the bytes read through it and reports
+ * exactly once, on end of stream or on close, whichever comes first. Like the
+ * streams it wraps it is not meant to be shared between threads.
+ */
+abstract class MeteredInputStream extends FilterInputStream {
+
+  //// Constructors
+
+  MeteredInputStream(InputStream in) {
+    super(in);
+  }
+
+  //// Public Area
+
+  @Override
+  public int read() throws IOException {
+    int result = super.read();
+    if (result >= 0) {
+      bytesRead++;
+    } else {
+      complete();
+    }
+    return result;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int result = super.read(b, off, len);
+    if (result > 0) {
+      bytesRead += result;
+    } else if (result < 0) {
+      complete();
+    }
+    return result;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long result = super.skip(n);
+    bytesRead += result;
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      complete();
+    }
+  }
+
+  //// Protected Area
+
+  /**
+   * Called once when the stream reaches its end or is closed.
+   * @param bytesRead the total number of bytes read through this stream
+   */
+  protected abstract void completed(long bytesRead);
+
+  //// Private Area
+
+  private void complete() {
+    if (!isComplete) {
+      isComplete = true;
+      completed(bytesRead);
+    }
+  }
+
+  //// Internal Rep
+
+  private long bytesRead = 0;
+  private boolean isComplete = false;
+}
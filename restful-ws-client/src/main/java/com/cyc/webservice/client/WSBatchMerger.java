@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Merges single-item requests into one multi-item request for a
+ * {@link WSMicroBatcher}. Implementations must be thread-safe.
+ */
+public interface WSBatchMerger {
+
+  /**
+   * Returns the key of the batch a request may join. Only requests with equal
+   * keys are merged, e.g. requests that differ only in the batched parameter.
+   * @param paramNameThenValue the request
+   * @return the batch key, which must implement <code>equals</code> and <code>hashCode</code>
+   */
+  Object getBatchKey(Object[] paramNameThenValue);
+
+  /**
+   * Returns the single request answering all of <code>requests</code>.
+   * @param requests the requests, all with the same batch key, in arrival order
+   * @return the merged parameter names and values
+   */
+  Object[] merge(List<Object[]> requests);
+}
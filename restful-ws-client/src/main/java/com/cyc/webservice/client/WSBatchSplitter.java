@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Splits the response to a merged request back into one result per
+ * original request for a {@link WSMicroBatcher}. Implementations must be
+ * thread-safe.
+ * @param <T> the result type
+ */
+public interface WSBatchSplitter<T> {
+
+  /**
+   * Returns the result for each request.
+   * @param response the entire response to the merged request
+   * @param requests the requests that were merged, in the order given to
+   * {@link WSBatchMerger#merge(List)}
+   * @return one result per request, in the same order
+   * @throws Exception if the response can't be split
+   */
+  List<T> split(String response, List<Object[]> requests) throws Exception;
+}
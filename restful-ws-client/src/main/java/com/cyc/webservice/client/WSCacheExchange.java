@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+//// External Imports
+
+import com.cyc.webservice.client.cache.CacheControl;
+import com.cyc.webservice.client.cache.WSCacheEntry;
+
+/**
+ * <p/>The cache side of one HTTP exchange: the validators of a stale entry to
+ * send as conditional request headers, and the caching headers of the
+ * response, from which the entry for the response is built.
+ */
+final class WSCacheExchange {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCacheExchange</code>. Only GET requests
+   * are made conditional: a POST is not idempotent, so preconditions on it
+   * could get a 412 or a 304 for a request that should have taken effect.
+   * @param method the HTTP method of the request
+   * @param stale the expired entry to revalidate, or null
+   */
+  WSCacheExchange(String method, WSCacheEntry stale) {
+    this.stale = ((stale != null) && stale.hasValidators() && "GET".equals(method)) ? stale : null;
+  }
+
+  //// Public Area
+
+  /** Returns the entry being revalidated, or null if the request is unconditional. */
+  WSCacheEntry getStale() {
+    return stale;
+  }
+
+  /** Adds the conditional request headers, if any, to <code>con</code>. */
+  void applyTo(HttpURLConnection con) {
+    if (stale == null) {
+      return;
+    }
+    if (stale.getETag() != null) {
+      con.setRequestProperty("If-None-Match", stale.getETag());
+    }
+    if (stale.getLastModified() != null) {
+      con.setRequestProperty("If-Modified-Since", stale.getLastModified());
+    }
+  }
+
+  /** Adds the conditional request headers, if any, to an HTTP/2 request. */
+  void applyTo(HttpRequest.Builder builder) {
+    if (stale == null) {
+      return;
+    }
+    if (stale.getETag() != null) {
+      builder.setHeader("If-None-Match", stale.getETag());
+    }
+    if (stale.getLastModified() != null) {
+      builder.setHeader("If-Modified-Since", stale.getLastModified());
+    }
+  }
+
+  /** Captures the status and caching headers of an HTTP/2 response. */
+  void readFrom(HttpResponse<?> response) {
+    HttpHeaders headers = response.headers();
+    this.status = response.statusCode();
+    etag = headers.firstValue("ETag").orElse(null);
+    lastModified = headers.firstValue("Last-Modified").orElse(null);
+    cacheControl = CacheControl.parse(headers.firstValue("Cache-Control").orElse(null));
+    expires = parseHttpDate(headers.firstValue("Expires").orElse(null));
+    date = parseHttpDate(headers.firstValue("Date").orElse(null));
+  }
+
+  /** Captures the status and caching headers of the response on <code>con</code>. */
+  void readFrom(HttpURLConnection con, int status) {
+    this.status = status;
+    etag = con.getHeaderField("ETag");
+    lastModified = con.getHeaderField("Last-Modified");
+    cacheControl = CacheControl.parse(con.getHeaderField("Cache-Control"));
+    expires = con.getExpiration();
+    date = con.getDate();
+  }
+
+  /** Returns whether the server answered the conditional request with 304 Not Modified. */
+  boolean isNotModified() {
+    return (stale != null) && (status == HttpURLConnection.HTTP_NOT_MODIFIED);
+  }
+
+  /** Returns whether the response forbids caching. */
+  boolean isNoStore() {
+    return cacheControl.isNoStore();
+  }
+
+  /**
+   * Returns when the response stops being fresh: after <code>max-age</code> if
+   * given, else at <code>Expires</code> (corrected for clock skew against
+   * <code>Date</code>), else after <code>defaultTtlMillis</code>. A
+   * <code>no-cache</code> response is stale immediately.
+   * @param now the time the response was received
+   * @param defaultTtlMillis the lifetime when the server gives none, or 0 for forever
+   */
+  long getExpiresAt(long now, long defaultTtlMillis) {
+    if (cacheControl.isNoCache()) {
+      return now;
+    }
+    if (cacheControl.getMaxAgeSecs() >= 0) {
+      return now + cacheControl.getMaxAgeSecs() * 1000;
+    }
+    if (expires > 0) {
+      return (date > 0) ? now + (expires - date) : expires;
+    }
+    return (defaultTtlMillis > 0) ? now + defaultTtlMillis : WSCacheEntry.NEVER;
+  }
+
+  /** Returns the HTTP status of the response, or -1 if none was received. */
+  int getStatus() {
+    return status;
+  }
+
+  /** Returns whether the server answered with a 5xx status. */
+  boolean isServerError() {
+    return status >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+  }
+
+  /**
+   * Returns the cache entry for <code>value</code> as received in this exchange;
+   * for a 304, the revalidated stale entry. The stale windows come from
+   * <code>Cache-Control</code> when given, else from the defaults.
+   */
+  WSCacheEntry toEntry(Object value, long now, long defaultTtlMillis,
+      long defaultStaleWhileRevalidateMillis, long defaultStaleIfErrorMillis) {
+    long expiresAt = getExpiresAt(now, defaultTtlMillis);
+    long staleWhileRevalidate = (cacheControl.getStaleWhileRevalidateSecs() >= 0)
+        ? cacheControl.getStaleWhileRevalidateSecs() * 1000 : defaultStaleWhileRevalidateMillis;
+    long staleIfError = (cacheControl.getStaleIfErrorSecs() >= 0)
+        ? cacheControl.getStaleIfErrorSecs() * 1000 : defaultStaleIfErrorMillis;
+    if (isNotModified()) {
+      return stale.refresh(now, expiresAt, etag, lastModified, staleWhileRevalidate, staleIfError);
+    }
+    return new WSCacheEntry(value, null, now, expiresAt, etag, lastModified,
+        staleWhileRevalidate, staleIfError);
+  }
+
+  //// Private Area
+
+  /** Returns an HTTP date in epoch millis, or 0 if missing or invalid, like <code>HttpURLConnection</code>. */
+  private static long parseHttpDate(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  //// Internal Rep
+
+  private final WSCacheEntry stale;
+  private int status = -1;
+  private String etag;
+  private String lastModified;
+  private CacheControl cacheControl = CacheControl.NONE;
+  private long expires;
+  private long date;
+}
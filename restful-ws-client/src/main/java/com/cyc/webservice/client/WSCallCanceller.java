@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+//// External Imports
+
+/**
+ * <p/>Lets another thread abort a blocking call: while installed on the
+ * calling thread with {@link #setCurrent(WSCallCanceller)}, every connection
+ * the client opens (or, over HTTP/2, the pending exchange or response body)
+ * is registered here, and {@link #cancel()} disconnects or closes it, failing
+ * the blocked read.
+ */
+final class WSCallCanceller {
+
+  //// Public Area
+
+  /** Returns the canceller installed on this thread, or null. */
+  static WSCallCanceller current() {
+    return CURRENT.get();
+  }
+
+  /** Installs <code>canceller</code> on this thread, or removes it if null. */
+  static void setCurrent(WSCallCanceller canceller) {
+    if (canceller == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(canceller);
+    }
+  }
+
+  /**
+   * Registers the connection of the call.
+   * @throws InterruptedIOException if the call has already been cancelled
+   */
+  void setConnection(HttpURLConnection con) throws InterruptedIOException {
+    this.con = con;
+    if (cancelled) {
+      con.disconnect();
+      throw new InterruptedIOException("Call cancelled.");
+    }
+  }
+
+  /**
+   * Registers what to close to abort the call when it has no connection of
+   * its own, replacing any earlier registration.
+   * @throws InterruptedIOException if the call has already been cancelled
+   */
+  void setCloseable(Closeable closeable) throws InterruptedIOException {
+    this.closeable = closeable;
+    if (cancelled) {
+      closeQuietly(closeable);
+      throw new InterruptedIOException("Call cancelled.");
+    }
+  }
+
+  /** Cancels the call, disconnecting or closing whatever it registered. */
+  void cancel() {
+    cancelled = true;
+    HttpURLConnection currentCon = con;
+    if (currentCon != null) {
+      currentCon.disconnect();
+    }
+    Closeable currentCloseable = closeable;
+    if (currentCloseable != null) {
+      closeQuietly(currentCloseable);
+    }
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  //// Private Area
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // aborting anyway
+    }
+  }
+
+  //// Internal Rep
+
+  private static final ThreadLocal<WSCallCanceller> CURRENT = new ThreadLocal<WSCallCanceller>();
+
+  private volatile HttpURLConnection con;
+  private volatile Closeable closeable;
+  private volatile boolean cancelled;
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//// External Imports
+
+/**
+ * <p/>One of several equivalent servers behind a
+ * {@link LoadBalancedRestfulWSClient}, with the load and health statistics
+ * used to choose between them: requests in flight, an exponentially weighted
+ * moving average (EWMA) of time to first byte, consecutive failures, and
+ * whether it is ejected or failing its health checks.
+ * <p/>
+ * This class is thread-safe.
+ */
+public class WSEndpoint {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSEndpoint</code>.
+   * @param protocol one of "http" or "https"
+   * @param host the hostname or ip address of the server
+   * @param port the port, or GenericRestfulWSClient.DEFAULT_HTTP_PORT
+   * @param servicePath the web service path
+   */
+  public WSEndpoint(String protocol, String host, int port, String servicePath) {
+    this.urlToPort = GenericRestfulWSClient.buildUrlToPort(protocol, host, port);
+    this.urlStarter = GenericRestfulWSClient.buildUrlStarter(urlToPort, servicePath);
+  }
+
+  //// Public Area
+
+  @Override
+  public String toString() {
+    return urlToPort;
+  }
+
+  /** Returns the URL for the web service on this server, up to and including the service name. */
+  public String getUrlStarter() {
+    return urlStarter;
+  }
+
+  /** Returns the URL of this server, up to but not including the service name. */
+  public String getUrlToPort() {
+    return urlToPort;
+  }
+
+  /** Returns the number of requests sent to this server and not yet answered. */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /** Returns the moving average time to first byte in nanoseconds, or 0 before the first sample. */
+  public double getEwmaLatencyNanos() {
+    return ewmaNanos;
+  }
+
+  /**
+   * Returns the expected cost of sending one more request here: the average
+   * latency scaled by the requests already queued on it. A server with no
+   * samples yet, new or back from ejection, is assumed as fast as the mean of
+   * the others, so that it gets tried without every request rushing to it;
+   * while no server has samples, the score is the queue length alone.
+   */
+  public double getLoadScore() {
+    double latency = ewmaNanos;
+    if (latency <= 0) {
+      latency = (latencySeedNanos > 0) ? latencySeedNanos : 1;
+    }
+    return latency * (inFlight.get() + 1);
+  }
+
+  /** Returns the number of requests sent to this server. */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /** Returns the number of requests this server failed. */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /** Returns the number of times this server has been ejected. */
+  public int getEjectionCount() {
+    return ejections;
+  }
+
+  /** Returns whether this server is currently ejected as an outlier. */
+  public synchronized boolean isEjected(long nowMillis) {
+    return nowMillis < ejectedUntilMillis;
+  }
+
+  /** Returns whether the last health check of this server, if any, succeeded. */
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  /** Returns whether requests may be sent to this server. */
+  public boolean isAvailable(long nowMillis) {
+    return healthy && !isEjected(nowMillis);
+  }
+
+  //// Protected Area
+
+  void started() {
+    inFlight.incrementAndGet();
+    requests.increment();
+  }
+
+  /**
+   * Records the outcome of a request.
+   * @return the number of consecutive failures, including this one
+   */
+  synchronized int finished(long latencyNanos, boolean failed) {
+    inFlight.decrementAndGet();
+    if (failed) {
+      failures.increment();
+      return ++consecutiveFailures;
+    }
+    consecutiveFailures = 0;
+    ewmaNanos = (samples == 0) ? latencyNanos : ewmaNanos + EWMA_WEIGHT * (latencyNanos - ewmaNanos);
+    samples++;
+    return 0;
+  }
+
+  synchronized int getSampleCount() {
+    return samples;
+  }
+
+  /**
+   * Ejects this server for <code>baseMillis</code> times the number of times
+   * it has been ejected, at most <code>maxMillis</code>. Its latency history
+   * is forgotten, so that it is judged afresh once back.
+   */
+  synchronized void eject(long nowMillis, long baseMillis, long maxMillis) {
+    ejections++;
+    ejectedUntilMillis = nowMillis + Math.min(maxMillis, baseMillis * ejections);
+    consecutiveFailures = 0;
+    samples = 0;
+    ewmaNanos = 0;
+  }
+
+  /** Sets the latency assumed by {@link #getLoadScore()} until this server has a sample of its own. */
+  void setLatencySeed(double nanos) {
+    latencySeedNanos = nanos;
+  }
+
+  void setHealthy(boolean healthy) {
+    this.healthy = healthy;
+  }
+
+  //// Internal Rep
+
+  /** weight of the newest sample in the latency average. */
+  private static final double EWMA_WEIGHT = 0.2;
+
+  private final String urlToPort;
+  private final String urlStarter;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private volatile double ewmaNanos = 0;
+  private volatile double latencySeedNanos = 0;
+  private int samples = 0;
+  private int consecutiveFailures = 0;
+  private int ejections = 0;
+  private long ejectedUntilMillis = 0;
+  private volatile boolean healthy = true;
+}
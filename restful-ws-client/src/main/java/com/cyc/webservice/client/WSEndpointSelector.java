@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+//// External Imports
+
+/**
+ * <p/>Chooses the server for each request of a
+ * {@link LoadBalancedRestfulWSClient}. Implementations must be thread-safe.
+ */
+public interface WSEndpointSelector {
+
+  /**
+   * Returns the endpoint to send the next request to.
+   * @param candidates the endpoints available, never empty
+   * @return one of <code>candidates</code>
+   */
+  WSEndpoint select(List<WSEndpoint> candidates);
+
+  /**
+   * Picks two candidates at random and takes the one with the lower
+   * {@link WSEndpoint#getLoadScore() load score}. Nearly as good as always
+   * taking the best, but cheap, and without herding every client onto the
+   * same server between updates.
+   */
+  WSEndpointSelector POWER_OF_TWO_CHOICES = new WSEndpointSelector() {
+    @Override
+    public WSEndpoint select(List<WSEndpoint> candidates) {
+      int size = candidates.size();
+      if (size == 1) {
+        return candidates.get(0);
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int first = random.nextInt(size);
+      int second = random.nextInt(size - 1);
+      if (second >= first) {
+        second++;
+      }
+      WSEndpoint a = candidates.get(first);
+      WSEndpoint b = candidates.get(second);
+      return (b.getLoadScore() < a.getLoadScore()) ? b : a;
+    }
+  };
+
+  /** Takes the candidate with the lowest {@link WSEndpoint#getLoadScore() load score}. */
+  WSEndpointSelector LEAST_LOADED = new WSEndpointSelector() {
+    @Override
+    public WSEndpoint select(List<WSEndpoint> candidates) {
+      WSEndpoint result = null;
+      double best = Double.MAX_VALUE;
+      for (WSEndpoint candidate : candidates) {
+        double score = candidate.getLoadScore();
+        if ((result == null) || (score < best)) {
+          result = candidate;
+          best = score;
+        }
+      }
+      return result;
+    }
+  };
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntBinaryOperator;
+import javax.net.ssl.SSLContext;
+
+//// External Imports
+
+/**
+ * <p/>An HTTP/2 transport for <code>GenericRestfulWSClient</code> (see
+ * {@link GenericRestfulWSClient#setHttp2Transport(WSHttp2Transport)}), built
+ * on <code>java.net.http.HttpClient</code>. Concurrent calls to the same
+ * server are multiplexed as streams over at most
+ * <code>connectionsPerHost</code> connections instead of taking a connection
+ * each; every new call goes to the connection with the fewest streams open.
+ * Plaintext servers are upgraded to HTTP/2 over cleartext (h2c); servers that
+ * only speak HTTP/1.1 still work, over the JDK client's own connection pool.
+ * <p/>
+ * The JDK client does not expose its sockets, so the connection count is the
+ * number of (connection slot, server) pairs that have carried an HTTP/2
+ * exchange, which is the number of HTTP/2 connections opened as long as the
+ * JDK client doesn't close idle ones.
+ * <p/>
+ * The request timeout of the JDK client only covers the wait for the
+ * response headers, so reads of the body are timed out here, like socket
+ * reads over HTTP/1.1. Cancelling a call closes its body, which resets the
+ * stream. On Java 11, cancelling a call still waiting for its headers
+ * returns at once, but the JDK client doesn't abort the exchange: it stays
+ * open, counted among the active streams, until the headers arrive and the
+ * stream is reset, or the request times out. Later JDKs abort it at once.
+ * <p/>
+ * One transport may be shared by several clients. This class is thread-safe.
+ */
+public class WSHttp2Transport {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSHttp2Transport</code> using the default
+   * <code>SSLContext</code> for https.
+   * @param connectionsPerHost the most HTTP/2 connections to open to each server
+   */
+  public WSHttp2Transport(int connectionsPerHost) {
+    this(connectionsPerHost, null);
+  }
+
+  /**
+   * Creates a new instance of <code>WSHttp2Transport</code>.
+   * @param connectionsPerHost the most HTTP/2 connections to open to each server
+   * @param sslContext the context for https connections, or null for the default
+   */
+  public WSHttp2Transport(int connectionsPerHost, SSLContext sslContext) {
+    if (connectionsPerHost < 1) {
+      throw new IllegalArgumentException("Got invalid connections per host: " + connectionsPerHost);
+    }
+    clients = new HttpClient[connectionsPerHost];
+    activeStreams = new AtomicInteger[connectionsPerHost];
+    for (int i = 0; i < connectionsPerHost; i++) {
+      HttpClient.Builder builder = HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_2)
+          .followRedirects(HttpClient.Redirect.NORMAL);
+      if (sslContext != null) {
+        builder.sslContext(sslContext);
+      }
+      clients[i] = builder.build();
+      activeStreams[i] = new AtomicInteger();
+    }
+  }
+
+  //// Public Area
+
+  public int getConnectionsPerHost() {
+    return clients.length;
+  }
+
+  /** Returns the number of HTTP/2 connections opened; see the class comment. */
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /** Returns the number of HTTP/2 streams, i.e. exchanges, made. */
+  public long getStreamCount() {
+    return streams.sum();
+  }
+
+  /** Returns the number of exchanges the server answered over HTTP/1.1 instead. */
+  public long getHttp1ExchangeCount() {
+    return http1Exchanges.sum();
+  }
+
+  /** Returns the number of exchanges whose response body is still open. */
+  public int getActiveStreamCount() {
+    int result = 0;
+    for (AtomicInteger count : activeStreams) {
+      result += count.get();
+    }
+    return result;
+  }
+
+  /** Returns the largest number of exchanges open at once. */
+  public int getPeakActiveStreamCount() {
+    return peakActiveStreams.get();
+  }
+
+  //// Protected Area
+
+  /**
+   * Sends <code>request</code> on the least busy connection and waits for the
+   * response headers. The returned body must be read to the end or closed,
+   * whatever the status, to free the stream. A {@link WSCallCanceller}
+   * installed on the calling thread can abort the exchange.
+   * @param request the request
+   * @param readTimeoutMillis the longest wait for the next bytes of the body,
+   * or 0 to wait forever
+   * @throws IOException if the exchange fails or is cancelled
+   */
+  Response send(HttpRequest request, int readTimeoutMillis) throws IOException {
+    int slot = 0;
+    for (int i = 1; i < clients.length; i++) {
+      if (activeStreams[i].get() < activeStreams[slot].get()) {
+        slot = i;
+      }
+    }
+    final AtomicInteger active = activeStreams[slot];
+    active.incrementAndGet();
+    peakActiveStreams.accumulateAndGet(getActiveStreamCount(), MAX);
+    final BodyStream bodyStream = new BodyStream(readTimeoutMillis);
+    boolean opened = false;
+    try {
+      final CompletableFuture<HttpResponse<InputStream>> future =
+          clients[slot].sendAsync(request, new HttpResponse.BodyHandler<InputStream>() {
+            @Override
+            public HttpResponse.BodySubscriber<InputStream> apply(HttpResponse.ResponseInfo info) {
+              return bodyStream;
+            }
+          });
+      WSCallCanceller canceller = WSCallCanceller.current();
+      if (canceller != null) {
+        canceller.setCloseable(new Closeable() {
+          @Override
+          public void close() {
+            future.cancel(true);
+            bodyStream.close(); // on Java 11, the only way to end the exchange
+          }
+        });
+      }
+      HttpResponse<InputStream> response = await(future);
+      boolean http2 = response.version() == HttpClient.Version.HTTP_2;
+      boolean newConnection = false;
+      if (http2) {
+        streams.increment();
+        newConnection = connections.add(slot + " " + request.uri().getAuthority());
+      } else {
+        http1Exchanges.increment();
+      }
+      InputStream body = new StreamCloser(response.body(), active);
+      if (canceller != null) {
+        canceller.setCloseable(body);
+      }
+      opened = true;
+      return new Response(response, body, http2, newConnection);
+    } finally {
+      if (!opened) {
+        active.decrementAndGet();
+        bodyStream.close();
+      }
+    }
+  }
+
+  /** A response whose body frees its stream when done. */
+  static final class Response {
+
+    Response(HttpResponse<?> response, InputStream body, boolean http2, boolean newConnection) {
+      this.response = response;
+      this.body = body;
+      this.http2 = http2;
+      this.newConnection = newConnection;
+    }
+
+    final HttpResponse<?> response;
+    final InputStream body;
+    /** whether the exchange was an HTTP/2 stream, rather than HTTP/1.1. */
+    final boolean http2;
+    /** whether the exchange was the first on its HTTP/2 connection. */
+    final boolean newConnection;
+  }
+
+  //// Private Area
+
+  private static HttpResponse<InputStream> await(CompletableFuture<HttpResponse<InputStream>> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for response.");
+    } catch (CancellationException e) {
+      throw new InterruptedIOException("Call cancelled.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * The response body, fed by the JDK client one list of buffers at a time.
+   * A read that waits longer than the read timeout for data fails, and
+   * closing the body, even before the response arrives, cancels the
+   * subscription, which resets the stream. Only one thread may read.
+   */
+  private static final class BodyStream extends InputStream
+      implements HttpResponse.BodySubscriber<InputStream> {
+
+    BodyStream(int readTimeoutMillis) {
+      this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+      return CompletableFuture.<InputStream>completedFuture(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (closed) {
+        subscription.cancel();
+      } else {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+      buffers.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      buffers.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+      buffers.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+      ByteBuffer buffer = nextBuffer();
+      return (buffer == null) ? -1 : (buffer.get() & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      Objects.checkFromIndexSize(off, len, b.length);
+      if (len == 0) {
+        return 0;
+      }
+      ByteBuffer buffer = nextBuffer();
+      if (buffer == null) {
+        return -1;
+      }
+      int result = Math.min(len, buffer.remaining());
+      buffer.get(b, off, result);
+      return result;
+    }
+
+    @Override
+    public int available() {
+      ByteBuffer buffer = current;
+      return (buffer == null) ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      Flow.Subscription currentSubscription = subscription;
+      if (currentSubscription != null) {
+        currentSubscription.cancel();
+      }
+      buffers.add(END); // wakes a blocked read
+    }
+
+    /** Returns a buffer with bytes left, waiting for one if needed, or null at the end of the body. */
+    private ByteBuffer nextBuffer() throws IOException {
+      while ((current == null) || !current.hasRemaining()) {
+        if ((list != null) && (index < list.size())) {
+          current = list.get(index++);
+          continue;
+        }
+        if (closed) {
+          throw new IOException("Stream closed.");
+        }
+        if (ended) {
+          return endOfBody();
+        }
+        List<ByteBuffer> next;
+        try {
+          next = (readTimeoutMillis > 0)
+              ? buffers.poll(readTimeoutMillis, TimeUnit.MILLISECONDS)
+              : buffers.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted reading response.");
+        }
+        if (next == null) {
+          close();
+          throw new SocketTimeoutException("Read timed out");
+        }
+        if (next == END) {
+          if (closed) {
+            throw new IOException("Stream closed.");
+          }
+          ended = true;
+          return endOfBody();
+        }
+        list = next;
+        index = 0;
+        subscription.request(1);
+      }
+      return current;
+    }
+
+    private ByteBuffer endOfBody() throws IOException {
+      Throwable cause = error;
+      if (cause == null) {
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+
+    private static final List<ByteBuffer> END = new ArrayList<ByteBuffer>(0);
+
+    private final int readTimeoutMillis;
+    private final BlockingQueue<List<ByteBuffer>> buffers = new LinkedBlockingQueue<List<ByteBuffer>>();
+    private volatile Flow.Subscription subscription;
+    private volatile Throwable error;
+    private volatile boolean closed;
+    private List<ByteBuffer> list;
+    private int index;
+    private ByteBuffer current;
+    private boolean ended;
+  }
+
+  /** Frees the stream's slot once the body is read to the end or closed. */
+  private static final class StreamCloser extends FilterInputStream {
+
+    StreamCloser(InputStream in, AtomicInteger active) {
+      super(in);
+      this.active = active;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result < 0) {
+        release();
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if (result < 0) {
+        release();
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      release();
+      super.close();
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        active.decrementAndGet();
+      }
+    }
+
+    private final AtomicInteger active;
+    private final AtomicBoolean released = new AtomicBoolean();
+  }
+
+  //// Internal Rep
+
+  private static final IntBinaryOperator MAX = new IntBinaryOperator() {
+    @Override
+    public int applyAsInt(int left, int right) {
+      return Math.max(left, right);
+    }
+  };
+
+  private final HttpClient[] clients;
+  private final AtomicInteger[] activeStreams;
+  private final AtomicInteger peakActiveStreams = new AtomicInteger();
+  private final LongAdder streams = new LongAdder();
+  private final LongAdder http1Exchanges = new LongAdder();
+  private final Set<String> connections = ConcurrentHashMap.newKeySet();
+}
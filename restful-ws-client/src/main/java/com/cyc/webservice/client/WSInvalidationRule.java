@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+//// External Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+
+/**
+ * <p/>Decides which cached results a successful PUT, DELETE or PATCH makes
+ * stale; see {@link GenericRestfulWSClient#addInvalidationRule(WSInvalidationRule)}.
+ * Results cached for the URL the write was sent to are always removed; other
+ * cached results are removed if any of the client's rules match them.
+ * <p/>
+ * Both the write and the cached result are described by their URL with all
+ * their parameters in the query string, in the order they were given, as
+ * <code>getURLStringForRequest(false, ...)</code> builds it, whichever of them
+ * were actually sent in the request body. Implementations must be thread-safe.
+ */
+public interface WSInvalidationRule {
+
+  /**
+   * Returns whether the write made the cached result stale.
+   * @param requestType the method of the write
+   * @param writeUrl the URL of the write
+   * @param cachedUrl the URL of the cached result
+   * @return whether to remove the cached result
+   */
+  boolean invalidates(RequestType requestType, String writeUrl, String cachedUrl);
+
+  /**
+   * Matches results cached for the write's URL followed by more parameters
+   * or path, e.g. a DELETE of <code>...?id=5</code> invalidates
+   * <code>...?id=5&amp;details=full</code> but not <code>...?id=50</code>.
+   */
+  WSInvalidationRule URL_PREFIX = new WSInvalidationRule() {
+    @Override
+    public boolean invalidates(RequestType requestType, String writeUrl, String cachedUrl) {
+      if (!cachedUrl.startsWith(writeUrl)) {
+        return false;
+      }
+      if (cachedUrl.length() == writeUrl.length()) {
+        return true;
+      }
+      char next = cachedUrl.charAt(writeUrl.length());
+      return (next == '&') || (next == '?') || (next == '/');
+    }
+  };
+}
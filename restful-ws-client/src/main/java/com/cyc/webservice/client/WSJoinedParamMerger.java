@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Merges requests that differ only in one parameter by joining that
+ * parameter's values with a separator, for endpoints that accept a list of
+ * values in one parameter, e.g. <code>str=dog,cat,bird</code>.
+ * <p/>A request without the parameter, or whose value contains the separator,
+ * can't be told apart from its neighbours once joined, so it is never merged:
+ * it gets a batch of its own and is sent unchanged.
+ */
+public class WSJoinedParamMerger implements WSBatchMerger {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSJoinedParamMerger</code>.
+   * @param paramName the parameter whose values are joined
+   * @param separator what to put between the values, e.g. ","; not empty
+   */
+  public WSJoinedParamMerger(String paramName, String separator) {
+    if ((paramName == null) || (separator == null) || separator.isEmpty()) {
+      throw new IllegalArgumentException("Got invalid merge parameters.");
+    }
+    this.paramName = paramName;
+    this.separator = separator;
+  }
+
+  //// Public Area
+
+  /**
+   * Returns the other parameter names and values, so only requests sharing
+   * them are merged, or a key equal to no other if the request can't be joined.
+   */
+  @Override
+  public Object getBatchKey(Object[] paramNameThenValue) {
+    if (!isJoinable(paramNameThenValue)) {
+      return new Object();
+    }
+    List<Object> result = new ArrayList<Object>(paramNameThenValue.length);
+    for (int i = 0; i + 1 < paramNameThenValue.length; i += 2) {
+      if (!paramName.equals("" + paramNameThenValue[i])) {
+        result.add("" + paramNameThenValue[i]);
+        result.add("" + paramNameThenValue[i + 1]);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Object[] merge(List<Object[]> requests) {
+    if (requests.size() == 1) {
+      return requests.get(0);
+    }
+    StringBuilder joined = new StringBuilder();
+    for (Object[] request : requests) {
+      if (!isJoinable(request)) {
+        throw new IllegalArgumentException("Got invalid request to join: " + Arrays.toString(request));
+      }
+      if (joined.length() > 0) {
+        joined.append(separator);
+      }
+      joined.append(getValue(request));
+    }
+    Object[] first = requests.get(0);
+    List<Object> result = new ArrayList<Object>(first.length + 2);
+    for (int i = 0; i + 1 < first.length; i += 2) {
+      if (!paramName.equals("" + first[i])) {
+        result.add(first[i]);
+        result.add(first[i + 1]);
+      }
+    }
+    result.add(paramName);
+    result.add(joined.toString());
+    return result.toArray();
+  }
+
+  /** Returns the value of the joined parameter in <code>request</code>, or null. */
+  public Object getValue(Object[] request) {
+    for (int i = 0; i + 1 < request.length; i += 2) {
+      if (paramName.equals("" + request[i])) {
+        return request[i + 1];
+      }
+    }
+    return null;
+  }
+
+  //// Private Area
+
+  /** Returns whether <code>request</code> has a value for the joined parameter without the separator in it. */
+  private boolean isJoinable(Object[] request) {
+    Object value = getValue(request);
+    return (value != null) && !("" + value).contains(separator);
+  }
+
+  //// Internal Rep
+
+  private final String paramName;
+  private final String separator;
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+//// External Imports
+
+/**
+ * <p/>Collects concurrent single-item requests and sends them upstream as one
+ * multi-item request, for endpoints that accept several values at once. A
+ * batch is sent when it reaches <code>maxBatchSize</code> requests or
+ * <code>lingerMillis</code> after its first request arrived, whichever comes
+ * first. The {@link WSBatchMerger} decides which requests may share a batch and
+ * builds the merged request; the {@link WSBatchSplitter} hands each caller its
+ * part of the response. If the merged call or the split fails, every request
+ * in the batch fails with the same exception.
+ * <p/>
+ * The merged call goes through the client as usual, so it is cached, traced
+ * and measured like any other call. Batching trades up to
+ * <code>lingerMillis</code> of added latency for fewer round trips, so it
+ * pays off at high request rates; at low rates most batches hold one request.
+ * <p/>
+ * This class is thread-safe. Close it to stop its threads; requests still
+ * lingering are sent first.
+ * @param <T> the per-request result type
+ */
+public class WSMicroBatcher<T> implements Closeable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSMicroBatcher</code> making its calls on
+   * a pool of {@value #DEFAULT_CALL_THREADS} daemon threads of its own.
+   * @param client the client to make the merged calls with
+   * @param post whether to make POST rather than GET calls
+   * @param merger merges requests
+   * @param splitter splits responses
+   * @param maxBatchSize the most requests in one batch
+   * @param lingerMillis how long a batch waits for more requests
+   */
+  public WSMicroBatcher(GenericRestfulWSClient client, boolean post, WSBatchMerger merger,
+      WSBatchSplitter<T> splitter, int maxBatchSize, long lingerMillis) {
+    this(client, post, merger, splitter, maxBatchSize, lingerMillis, null);
+  }
+
+  /**
+   * Creates a new instance of <code>WSMicroBatcher</code>.
+   * @param client the client to make the merged calls with
+   * @param post whether to make POST rather than GET calls
+   * @param merger merges requests
+   * @param splitter splits responses
+   * @param maxBatchSize the most requests in one batch
+   * @param lingerMillis how long a batch waits for more requests
+   * @param executor runs the (blocking) merged calls. If null, a private pool is used.
+   */
+  public WSMicroBatcher(GenericRestfulWSClient client, boolean post, WSBatchMerger merger,
+      WSBatchSplitter<T> splitter, int maxBatchSize, long lingerMillis, Executor executor) {
+    if ((client == null) || (merger == null) || (splitter == null) || (maxBatchSize < 1)
+        || (lingerMillis < 0)) {
+      throw new IllegalArgumentException("Got invalid batching arguments.");
+    }
+    this.client = client;
+    this.post = post;
+    this.merger = merger;
+    this.splitter = splitter;
+    this.maxBatchSize = maxBatchSize;
+    this.lingerMillis = lingerMillis;
+    ThreadFactory threads = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "WSMicroBatcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    this.timer = new ScheduledThreadPoolExecutor(1, threads);
+    this.timer.setRemoveOnCancelPolicy(true);
+    if (executor == null) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_CALL_THREADS, DEFAULT_CALL_THREADS,
+          30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threads);
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+      this.ownedExecutor = pool;
+    } else {
+      this.executor = executor;
+      this.ownedExecutor = null;
+    }
+  }
+
+  //// Public Area
+
+  /**
+   * Queues a single-item request for the next batch it may join.
+   * @param paramNameThenValue the request, as for {@link GenericRestfulWSClient#get(Object...)}
+   * @return the future result of the request
+   */
+  public CompletableFuture<T> submit(Object... paramNameThenValue) {
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    Object key = merger.getBatchKey(paramNameThenValue);
+    Batch full = null;
+    Batch scheduled = null;
+    synchronized (lock) {
+      if (closed) {
+        result.completeExceptionally(new IllegalStateException("WSMicroBatcher is closed."));
+        return result;
+      }
+      Batch batch = pending.get(key);
+      if (batch == null) {
+        batch = new Batch(key);
+        pending.put(key, batch);
+        scheduled = batch;
+      }
+      batch.requests.add(paramNameThenValue);
+      batch.futures.add(result);
+      if (batch.requests.size() >= maxBatchSize) {
+        pending.remove(key);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      if (full.timeout != null) {
+        full.timeout.cancel(false);
+      }
+      dispatch(full);
+    } else if (scheduled != null) {
+      scheduleFlush(scheduled);
+    }
+    return result;
+  }
+
+  /**
+   * Makes a single-item request through the batcher and waits for its result.
+   * @param paramNameThenValue the request, as for {@link GenericRestfulWSClient#get(Object...)}
+   * @return the result of the request
+   * @throws IOException if the merged call failed
+   */
+  public T call(Object... paramNameThenValue) throws IOException {
+    try {
+      return submit(paramNameThenValue).get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for batch.");
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Unable to complete batched request.", cause);
+    }
+  }
+
+  /** Returns the number of merged calls made. */
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  /** Returns the number of single-item requests sent in merged calls. */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /** Returns the mean number of requests per merged call, or 0 before the first call. */
+  public double getMeanBatchSize() {
+    long count = getBatchCount();
+    return (count == 0) ? 0.0 : ((double) getRequestCount()) / count;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public long getLingerMillis() {
+    return lingerMillis;
+  }
+
+  /** Sends any lingering batches, then stops accepting requests and stops the batcher's threads. */
+  @Override
+  public void close() {
+    List<Batch> remaining;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      remaining = new ArrayList<Batch>(pending.values());
+      pending.clear();
+    }
+    timer.shutdownNow();
+    for (Batch batch : remaining) {
+      dispatch(batch);
+    }
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+  }
+
+  //// Private Area
+
+  private void scheduleFlush(final Batch batch) {
+    try {
+      batch.timeout = timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush(batch);
+        }
+      }, lingerMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ree) {
+      // closed meanwhile; close() sends the batch
+    }
+  }
+
+  /** Sends <code>batch</code> if it is still the pending batch for its key. */
+  private void flush(Batch batch) {
+    synchronized (lock) {
+      if (pending.get(batch.key) != batch) {
+        return;
+      }
+      pending.remove(batch.key);
+    }
+    dispatch(batch);
+  }
+
+  private void dispatch(final Batch batch) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          send(batch);
+        }
+      });
+    } catch (RejectedExecutionException ree) {
+      fail(batch, ree);
+    }
+  }
+
+  /** Makes the merged call for <code>batch</code> and completes its futures. */
+  private void send(Batch batch) {
+    batches.increment();
+    requests.add(batch.requests.size());
+    List<T> results;
+    try {
+      Object[] merged = merger.merge(batch.requests);
+      String response = post ? client.post(merged) : client.get(merged);
+      results = splitter.split(response, batch.requests);
+    } catch (Exception e) {
+      fail(batch, e);
+      return;
+    }
+    if ((results == null) || (results.size() != batch.requests.size())) {
+      fail(batch, new IllegalStateException("Got " + ((results == null) ? 0 : results.size())
+          + " results for a batch of " + batch.requests.size() + " requests."));
+      return;
+    }
+    for (int i = 0; i < results.size(); i++) {
+      batch.futures.get(i).complete(results.get(i));
+    }
+  }
+
+  private void fail(Batch batch, Throwable error) {
+    for (CompletableFuture<T> future : batch.futures) {
+      future.completeExceptionally(error);
+    }
+  }
+
+  /** The requests collected for one merged call. */
+  private final class Batch {
+
+    Batch(Object key) {
+      this.key = key;
+    }
+
+    final Object key;
+    final List<Object[]> requests = new ArrayList<Object[]>();
+    final List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>();
+    volatile ScheduledFuture<?> timeout;
+  }
+
+  //// Internal Rep
+
+  /** Threads in the private call pool, i.e. the most merged calls in flight at once. */
+  public static final int DEFAULT_CALL_THREADS = 4;
+
+  private final GenericRestfulWSClient client;
+  private final boolean post;
+  private final WSBatchMerger merger;
+  private final WSBatchSplitter<T> splitter;
+  private final int maxBatchSize;
+  private final long lingerMillis;
+  private final ScheduledThreadPoolExecutor timer;
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+
+  private final Object lock = new Object();
+  private final Map<Object, Batch> pending = new HashMap<Object, Batch>();
+  private boolean closed = false;
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.ArrayList;
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Pages with an offset parameter and a page size parameter, e.g.
+ * <code>startingFrom</code> and <code>maxResults</code> for
+ * <code>/webservices/concept/find</code>. Any values the caller passed for
+ * these two parameters are replaced. A page with fewer items than the page
+ * size is the last one.
+ */
+public class WSOffsetPageStrategy implements WSPageStrategy {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSOffsetPageStrategy</code> starting at offset 0.
+   * @param offsetParam the name of the parameter giving the first item of a page
+   * @param pageSizeParam the name of the parameter giving the number of items per page
+   * @param pageSize the number of items per page
+   */
+  public WSOffsetPageStrategy(String offsetParam, String pageSizeParam, int pageSize) {
+    this(offsetParam, pageSizeParam, pageSize, 0);
+  }
+
+  /**
+   * Creates a new instance of <code>WSOffsetPageStrategy</code>.
+   * @param offsetParam the name of the parameter giving the first item of a page
+   * @param pageSizeParam the name of the parameter giving the number of items per page
+   * @param pageSize the number of items per page
+   * @param firstOffset the offset of the first item, e.g. 1 for services counting from 1
+   */
+  public WSOffsetPageStrategy(String offsetParam, String pageSizeParam, int pageSize, int firstOffset) {
+    if ((offsetParam == null) || (pageSizeParam == null) || (pageSize < 1)) {
+      throw new IllegalArgumentException("Got invalid page parameters.");
+    }
+    this.offsetParam = offsetParam;
+    this.pageSizeParam = pageSizeParam;
+    this.pageSize = pageSize;
+    this.firstOffset = firstOffset;
+  }
+
+  //// Public Area
+
+  @Override
+  public Object[] getPageParams(int pageIndex, Object[] paramNameThenValue) {
+    List<Object> result = new ArrayList<Object>(paramNameThenValue.length + 4);
+    for (int i = 0; i + 1 < paramNameThenValue.length; i += 2) {
+      String name = "" + paramNameThenValue[i];
+      if (!name.equals(offsetParam) && !name.equals(pageSizeParam)) {
+        result.add(paramNameThenValue[i]);
+        result.add(paramNameThenValue[i + 1]);
+      }
+    }
+    result.add(offsetParam);
+    result.add(firstOffset + ((long) pageIndex) * pageSize);
+    result.add(pageSizeParam);
+    result.add(pageSize);
+    return result.toArray();
+  }
+
+  @Override
+  public boolean isLastPage(int pageIndex, List<?> items) {
+    return items.size() < pageSize;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  @Override
+  public String toString() {
+    return "WSOffsetPageStrategy[" + offsetParam + ", " + pageSizeParam + "=" + pageSize + "]";
+  }
+
+  //// Internal Rep
+
+  private final String offsetParam;
+  private final String pageSizeParam;
+  private final int pageSize;
+  private final int firstOffset;
+}
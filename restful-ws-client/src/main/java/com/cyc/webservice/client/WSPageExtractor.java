@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Extracts the items from one page of a paged web service result; see
+ * {@link GenericRestfulWSClient#paginate(WSPageStrategy, WSPageExtractor, int, Object...)}.
+ * Pages are extracted on background threads, so implementations must be
+ * thread-safe.
+ * @param <T> the item type
+ */
+public interface WSPageExtractor<T> {
+
+  /**
+   * Returns the items on a page, in order.
+   * @param page the entire result for the page
+   * @return the items, empty if there are none
+   * @throws Exception if the page can't be understood
+   */
+  List<T> extract(String page) throws Exception;
+}
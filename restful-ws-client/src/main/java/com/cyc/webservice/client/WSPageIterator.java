@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//// External Imports
+
+/**
+ * <p/>A lazy iterator over the items of a paged web service result, created by
+ * {@link GenericRestfulWSClient#paginate(WSPageStrategy, WSPageExtractor, int, Object...)}.
+ * <p/>
+ * Pages are fetched on a background executor, up to <code>lookahead</code>
+ * pages ahead of the page being consumed, so the latency of later pages
+ * overlaps with consuming earlier ones. No page is requested until the
+ * consumer gets within <code>lookahead</code> pages of it, so a consumer that
+ * stops early costs at most that many extra requests; {@link #close()}
+ * discards those too.
+ * <p/>
+ * Failures are thrown from {@link #hasNext()} when the failed page is reached:
+ * I/O errors as <code>UncheckedIOException</code>, extraction errors as
+ * <code>IllegalStateException</code>. Not thread-safe.
+ * @param <T> the item type
+ */
+public class WSPageIterator<T> implements Iterator<T>, AutoCloseable {
+
+  //// Constructors
+
+  WSPageIterator(GenericRestfulWSClient client, WSPageStrategy strategy, WSPageExtractor<T> extractor,
+      int lookahead, Executor executor, Object[] paramNameThenValue) {
+    if ((strategy == null) || (extractor == null) || (lookahead < 0)) {
+      throw new IllegalArgumentException("Got invalid pagination arguments.");
+    }
+    this.client = client;
+    this.strategy = strategy;
+    this.extractor = extractor;
+    this.lookahead = lookahead;
+    this.executor = executor;
+    this.paramNameThenValue = paramNameThenValue;
+  }
+
+  //// Public Area
+
+  @Override
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (lastPageSeen || closed) {
+        return false;
+      }
+      requestPages();
+      int pageIndex = nextPageToConsume++;
+      List<T> items = await(pending.poll(), pageIndex);
+      if (strategy.isLastPage(pageIndex, items)) {
+        lastPageSeen = true;
+        cancelPending();
+      }
+      current = items.iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  /** Returns the number of pages consumed so far. */
+  public int getPagesConsumed() {
+    return nextPageToConsume;
+  }
+
+  /** Returns the number of pages requested so far, including prefetched ones. */
+  public int getPagesRequested() {
+    return nextPageToRequest;
+  }
+
+  /**
+   * Returns the remaining items as a sequential, ordered stream. Closing the
+   * stream closes this iterator.
+   */
+  public Stream<T> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+        Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+          @Override
+          public void run() {
+            close();
+          }
+        });
+  }
+
+  /** Stops iterating and discards any prefetched or in-flight pages. */
+  @Override
+  public void close() {
+    closed = true;
+    current = Collections.<T>emptyList().iterator();
+    cancelPending();
+  }
+
+  //// Private Area
+
+  /** Keeps the page being consumed plus <code>lookahead</code> more requested. */
+  private void requestPages() {
+    while (pending.size() <= lookahead) {
+      final Object[] pageParams = strategy.getPageParams(nextPageToRequest++, paramNameThenValue);
+      FutureTask<List<T>> page = new FutureTask<List<T>>(new Callable<List<T>>() {
+        @Override
+        public List<T> call() throws Exception {
+          return extractor.extract(client.get(pageParams));
+        }
+      });
+      pending.add(page);
+      executor.execute(page);
+    }
+  }
+
+  private List<T> await(FutureTask<List<T>> page, int pageIndex) {
+    try {
+      List<T> result = page.get();
+      return (result == null) ? Collections.<T>emptyList() : result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new IllegalStateException("Interrupted waiting for page " + pageIndex, e);
+    } catch (ExecutionException e) {
+      close();
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException("Failed to fetch page " + pageIndex, (IOException) e.getCause());
+      }
+      throw new IllegalStateException("Failed to fetch page " + pageIndex, e.getCause());
+    }
+  }
+
+  private void cancelPending() {
+    for (FutureTask<List<T>> page : pending) {
+      page.cancel(false);
+    }
+    pending.clear();
+  }
+
+  //// Internal Rep
+
+  private final GenericRestfulWSClient client;
+  private final WSPageStrategy strategy;
+  private final WSPageExtractor<T> extractor;
+  private final int lookahead;
+  private final Executor executor;
+  private final Object[] paramNameThenValue;
+  private final Deque<FutureTask<List<T>>> pending = new ArrayDeque<FutureTask<List<T>>>();
+  private Iterator<T> current = Collections.<T>emptyList().iterator();
+  private int nextPageToRequest = 0;
+  private int nextPageToConsume = 0;
+  private boolean lastPageSeen = false;
+  private boolean closed = false;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.List;
+
+//// External Imports
+
+/**
+ * <p/>Says how a paged web service call is turned into the call for each page,
+ * and when the last page has been reached; see
+ * {@link GenericRestfulWSClient#paginate(WSPageStrategy, WSPageExtractor, int, Object...)}.
+ * <p/>
+ * Page parameters depend only on the page index, not on earlier pages, so
+ * that later pages can be requested before earlier ones have arrived.
+ * Implementations must be thread-safe.
+ */
+public interface WSPageStrategy {
+
+  /**
+   * Returns the parameters for one page.
+   * @param pageIndex the page, counting from 0
+   * @param paramNameThenValue the parameters the caller passed to <code>paginate</code>
+   * @return the parameter names and values for the page
+   */
+  Object[] getPageParams(int pageIndex, Object[] paramNameThenValue);
+
+  /**
+   * Returns whether <code>pageIndex</code> is the last page, so that no later
+   * pages are requested, and any already requested are discarded.
+   * @param pageIndex the page, counting from 0
+   * @param items the items extracted from the page
+   * @return whether there are no more pages
+   */
+  boolean isLastPage(int pageIndex, List<?> items);
+}
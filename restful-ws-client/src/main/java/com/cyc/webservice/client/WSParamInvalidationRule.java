@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.Arrays;
+
+//// External Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+
+/**
+ * <p/>Invalidates the cached results that identify the same resource as a
+ * write, by the values of some of their parameters, whatever their other
+ * parameters. For instance with the identifying parameter "id", a PUT of
+ * <code>id=5&amp;name=Rex</code> invalidates the results cached for
+ * <code>id=5</code> and <code>id=5&amp;details=full</code>, but not
+ * <code>id=6</code>. Writes that lack one of the parameters don't trigger
+ * the rule.
+ */
+public class WSParamInvalidationRule implements WSInvalidationRule {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSParamInvalidationRule</code>.
+   * @param paramNames the parameters identifying a resource
+   */
+  public WSParamInvalidationRule(String... paramNames) {
+    if ((paramNames == null) || (paramNames.length == 0)) {
+      throw new IllegalArgumentException("Got invalid identifying parameters.");
+    }
+    this.paramNames = paramNames.clone();
+  }
+
+  //// Public Area
+
+  @Override
+  public boolean invalidates(RequestType requestType, String writeUrl, String cachedUrl) {
+    for (String paramName : paramNames) {
+      String value = getParamValue(writeUrl, paramName);
+      if ((value == null) || !value.equals(getParamValue(cachedUrl, paramName))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "WSParamInvalidationRule" + Arrays.toString(paramNames);
+  }
+
+  //// Protected Area
+
+  /**
+   * Returns the (still URL encoded) value of the first parameter
+   * <code>paramName</code> in the query string of <code>url</code>, or null
+   * if there is none.
+   */
+  static String getParamValue(String url, String paramName) {
+    int query = url.indexOf('?');
+    if (query < 0) {
+      return null;
+    }
+    int start = query + 1;
+    while (start < url.length()) {
+      int end = url.indexOf('&', start);
+      if (end < 0) {
+        end = url.length();
+      }
+      if (url.startsWith(paramName, start) && (start + paramName.length() < end)
+          && (url.charAt(start + paramName.length()) == '=')) {
+        return url.substring(start + paramName.length() + 1, end);
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  //// Internal Rep
+
+  private final String[] paramNames;
+}
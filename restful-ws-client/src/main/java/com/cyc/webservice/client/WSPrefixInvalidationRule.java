@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+//// External Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+
+/**
+ * <p/>Invalidates every cached result whose URL starts with a fixed prefix
+ * whenever a write whose URL starts with a (possibly different) trigger
+ * prefix succeeds, e.g. to drop all cached listings after any change to
+ * one of the listed items:
+ * <code><pre>
+ *    client.addInvalidationRule(new WSPrefixInvalidationRule(
+ *        client.getUrlStarter() + "?item=", client.getUrlStarter() + "?list="));
+ * </pre></code>
+ */
+public class WSPrefixInvalidationRule implements WSInvalidationRule {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSPrefixInvalidationRule</code> that any
+   * write triggers.
+   * @param cachedUrlPrefix the start of the URLs of the results to invalidate
+   */
+  public WSPrefixInvalidationRule(String cachedUrlPrefix) {
+    this("", cachedUrlPrefix);
+  }
+
+  /**
+   * Creates a new instance of <code>WSPrefixInvalidationRule</code>.
+   * @param writeUrlPrefix the start of the URLs of the writes that trigger the rule
+   * @param cachedUrlPrefix the start of the URLs of the results to invalidate
+   */
+  public WSPrefixInvalidationRule(String writeUrlPrefix, String cachedUrlPrefix) {
+    if ((writeUrlPrefix == null) || (cachedUrlPrefix == null)) {
+      throw new IllegalArgumentException("Got invalid invalidation prefix.");
+    }
+    this.writeUrlPrefix = writeUrlPrefix;
+    this.cachedUrlPrefix = cachedUrlPrefix;
+  }
+
+  //// Public Area
+
+  @Override
+  public boolean invalidates(RequestType requestType, String writeUrl, String cachedUrl) {
+    return writeUrl.startsWith(writeUrlPrefix) && cachedUrl.startsWith(cachedUrlPrefix);
+  }
+
+  @Override
+  public String toString() {
+    return "WSPrefixInvalidationRule[" + writeUrlPrefix + " -> " + cachedUrlPrefix + "]";
+  }
+
+  //// Internal Rep
+
+  private final String writeUrlPrefix;
+  private final String cachedUrlPrefix;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.metrics.WSPriority;
+
+//// External Imports
+
+/**
+ * <p/>Sets the priority of the requests a thread makes, for clients with a
+ * {@link WSRequestScheduler}. Scopes nest, and closing one restores the
+ * priority it replaced:
+ * <code><pre>
+ *    try (WSPriorityScope scope = WSPriorityScope.enter(WSPriority.BULK)) {
+ *      for (String term : terms) {
+ *        client.get("str", term);
+ *      }
+ *    }
+ * </pre></code>
+ * Requests made outside any scope are {@link WSPriority#NORMAL}. A scope
+ * covers only its own thread; calls that a client hands to its own threads,
+ * such as background cache refreshes and page prefetches, run at their
+ * thread's priority.
+ */
+public final class WSPriorityScope implements AutoCloseable {
+
+  //// Constructors
+
+  private WSPriorityScope(WSPriority previous) {
+    this.previous = previous;
+  }
+
+  //// Public Area
+
+  /**
+   * Makes <code>priority</code> the priority of this thread's requests until
+   * the returned scope is closed.
+   * @param priority the priority
+   * @return the scope, to be closed on the same thread
+   */
+  public static WSPriorityScope enter(WSPriority priority) {
+    if (priority == null) {
+      throw new IllegalArgumentException("Got invalid priority: " + priority);
+    }
+    WSPriorityScope result = new WSPriorityScope(CURRENT.get());
+    CURRENT.set(priority);
+    return result;
+  }
+
+  /** Returns the priority of this thread's requests. */
+  public static WSPriority current() {
+    WSPriority result = CURRENT.get();
+    return (result == null) ? WSPriority.NORMAL : result;
+  }
+
+  /** Restores the priority this scope replaced. */
+  @Override
+  public void close() {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  //// Internal Rep
+
+  private static final ThreadLocal<WSPriority> CURRENT = new ThreadLocal<WSPriority>();
+
+  private final WSPriority previous;
+}
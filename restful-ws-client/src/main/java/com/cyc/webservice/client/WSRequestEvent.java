@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.metrics.WSCallType;
+
+//// External Imports
+
+/**
+ * One phase of one web service call, as delivered to a {@link WSRequestListener}.
+ */
+public class WSRequestEvent {
+
+  //// Constructors
+
+  /** Creates a new instance of <code>WSRequestEvent</code>. */
+  public WSRequestEvent(long requestId, WSRequestPhase phase, long nanoTime,
+      String method, WSCallType callType, String url, Object detail) {
+    this.requestId = requestId;
+    this.phase = phase;
+    this.nanoTime = nanoTime;
+    this.method = method;
+    this.callType = callType;
+    this.url = url;
+    this.detail = detail;
+  }
+
+  //// Public Area
+
+  /** Returns the id shared by every event of the same call, unique within this JVM. */
+  public long getRequestId() {
+    return requestId;
+  }
+
+  public WSRequestPhase getPhase() {
+    return phase;
+  }
+
+  /** Returns the <code>System.nanoTime()</code> at which the phase was reached. */
+  public long getNanoTime() {
+    return nanoTime;
+  }
+
+  /** Returns the HTTP method, e.g. "GET". */
+  public String getMethod() {
+    return method;
+  }
+
+  public WSCallType getCallType() {
+    return callType;
+  }
+
+  /**
+   * Returns the request URL. Until the request has been built (e.g. for a
+   * cache hit) this is the service URL without parameters.
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /** Returns the phase specific detail, as documented on {@link WSRequestPhase}, or null. */
+  public Object getDetail() {
+    return detail;
+  }
+
+  @Override
+  public String toString() {
+    return "#" + requestId + " " + phase + " " + method + " " + url
+        + ((detail == null) ? "" : " (" + detail + ")");
+  }
+
+  //// Internal Rep
+
+  private final long requestId;
+  private final WSRequestPhase phase;
+  private final long nanoTime;
+  private final String method;
+  private final WSCallType callType;
+  private final String url;
+  private final Object detail;
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+/**
+ * <p/>Receives timestamped phase events for every call made through a
+ * <code>GenericRestfulWSClient</code> it has been added to with
+ * {@link GenericRestfulWSClient#addRequestListener(WSRequestListener)}.
+ * All events of one call share a request id, so a listener can stitch them
+ * into a trace span.
+ * <p/>
+ * Events are delivered synchronously on the thread doing the work, so
+ * implementations should be quick and thread-safe. Runtime exceptions thrown
+ * by a listener are logged and otherwise ignored.
+ */
+public interface WSRequestListener {
+
+  /**
+   * Called for each phase of each call.
+   * @param event the event
+   */
+  void onEvent(WSRequestEvent event);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//// External Imports
+
+/**
+ * <p/>A {@link WSRequestListener} that writes every event to a
+ * <code>java.util.logging.Logger</code>. Adding one of these to a client
+ * restores the request and POST data logging the client used to do on its
+ * own, with the request id and phase timestamps added.
+ */
+public class WSRequestLoggingListener implements WSRequestListener {
+
+  //// Constructors
+
+  /** Creates a new instance logging at INFO to this class's logger. */
+  public WSRequestLoggingListener() {
+    this(Logger.getLogger(WSRequestLoggingListener.class.getName()), Level.INFO);
+  }
+
+  /**
+   * Creates a new instance of <code>WSRequestLoggingListener</code>.
+   * @param logger the logger to write to
+   * @param level the level to write at
+   */
+  public WSRequestLoggingListener(Logger logger, Level level) {
+    this.logger = logger;
+    this.level = level;
+  }
+
+  //// Public Area
+
+  @Override
+  public void onEvent(WSRequestEvent event) {
+    if (logger.isLoggable(level)) {
+      logger.log(level, "{0} at {1}", new Object[]{event, event.getNanoTime()});
+    }
+  }
+
+  //// Internal Rep
+
+  private final Logger logger;
+  private final Level level;
+}
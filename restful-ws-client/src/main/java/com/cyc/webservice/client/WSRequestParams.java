@@ -82,6 +82,9 @@ public class WSRequestParams {
     if (!requestType.equals(req.requestType)) {
       return false;
     }
+    if (params.length != req.params.length) {
+      return false;
+    }
     int i = 0;
     for (Object param : params) {
       Object otherParam = req.params[i++];
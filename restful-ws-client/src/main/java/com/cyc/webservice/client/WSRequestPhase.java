@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+/**
+ * <p/>The phases of a single web service call, reported in this order to any
+ * {@link WSRequestListener}. Phases that do not apply to a call are skipped:
+ * a cache hit goes straight from {@link #REQUEST_START} to {@link #CACHE_HIT}
+ * and {@link #REQUEST_END}, GET requests have no request body, and only the XML
+ * calls are parsed.
+ * <p/>
+ * The detail object carried by each phase is documented on the constant.
+ */
+public enum WSRequestPhase {
+
+  /**
+   * The call was made. Detail is the <code>Object[]</code> of parameter names and
+   * values exactly as passed by the caller; listeners must not modify it.
+   */
+  REQUEST_START,
+  /**
+   * The result was served from the cache. Detail is null for the in-memory
+   * cache, or the <code>DiskResponseCache</code> it came from.
+   */
+  CACHE_HIT,
+  /**
+   * An expired cached result was served. Detail is null under
+   * stale-while-revalidate, where the result is refreshed in the background,
+   * or the <code>IOException</code> under stale-if-error, where fetching a
+   * new result failed.
+   */
+  CACHE_STALE,
+  /** Host name resolution is starting. No detail. */
+  DNS_START,
+  /** Host name resolution finished. Detail is the resolved <code>InetAddress</code>. */
+  DNS_END,
+  /** Opening the connection is starting. No detail. */
+  CONNECT_START,
+  /**
+   * The connection is open, including the TLS handshake for HTTPS. Detail is the
+   * negotiated cipher suite for HTTPS, or null for plain HTTP. A reused keep-alive
+   * connection finishes this phase almost immediately.
+   */
+  CONNECT_END,
+  /** Writing the POST body is starting. Detail is the form-encoded body <code>String</code>. */
+  REQUEST_BODY_START,
+  /** The POST body was written. Detail is the body length in bytes as an <code>Integer</code>. */
+  REQUEST_BODY_END,
+  /** The status line and headers were received. Detail is the HTTP status as an <code>Integer</code>. */
+  RESPONSE_HEADERS,
+  /**
+   * A stale cached result was revalidated: the server answered 304 Not Modified
+   * and the cached value is reused. No detail.
+   */
+  CACHE_REVALIDATED,
+  /** The response body was read to the end or closed. Detail is the bytes read as a <code>Long</code>. */
+  RESPONSE_BODY_END,
+  /** XML parsing is starting. No detail. */
+  PARSE_START,
+  /** XML parsing finished. No detail. */
+  PARSE_END,
+  /**
+   * The call finished successfully. For the stream, reader and source calls this
+   * happens once the caller has read the body to the end or closed it. No detail.
+   */
+  REQUEST_END,
+  /** The call failed. Detail is the <code>Throwable</code>. */
+  REQUEST_FAILED;
+}
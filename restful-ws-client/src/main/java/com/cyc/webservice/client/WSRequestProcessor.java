@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//// External Imports
+
+/**
+ * <p/>A <code>java.util.concurrent.Flow</code> processor that turns a stream
+ * of request parameter tuples (each a <code>paramNameThenValue</code> array
+ * as passed to {@link GenericRestfulWSClient#get(Object...)}) into a stream
+ * of {@link WSResult}s, with backpressure end to end:
+ * <ul>
+ * <li>at most <code>maxInFlight</code> requests are requested from upstream
+ *     and not yet delivered downstream, so calls in flight plus results
+ *     waiting for downstream demand never exceed that bound;</li>
+ * <li>results are only delivered as downstream requests them, and a slot
+ *     is only handed back upstream once its result has been delivered.</li>
+ * </ul>
+ * In ordered mode results are delivered in request order, holding back
+ * results that overtake an earlier, slower call; in unordered mode they are
+ * delivered as they complete. A failed call yields a failed
+ * <code>WSResult</code> and the stream carries on. Cancelling the downstream
+ * subscription cancels the upstream one and disconnects the connections of
+ * calls still in flight.
+ * <p/>
+ * Supports a single subscriber. Upstream completion or error is passed on
+ * once every call in flight has been delivered.
+ */
+public class WSRequestProcessor implements Flow.Processor<Object[], WSResult> {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSRequestProcessor</code> running its
+   * calls on a pool of up to <code>maxInFlight</code> daemon threads of its own,
+   * shut down when the stream ends.
+   * @param client the client to make the calls with
+   * @param post whether to make POST rather than GET calls
+   * @param maxInFlight the most requests in flight or awaiting delivery at once
+   * @param ordered whether to deliver results in request order
+   */
+  public WSRequestProcessor(GenericRestfulWSClient client, boolean post, int maxInFlight, boolean ordered) {
+    this(client, post, maxInFlight, ordered, null);
+  }
+
+  /**
+   * Creates a new instance of <code>WSRequestProcessor</code>.
+   * @param client the client to make the calls with
+   * @param post whether to make POST rather than GET calls
+   * @param maxInFlight the most requests in flight or awaiting delivery at once
+   * @param ordered whether to deliver results in request order
+   * @param executor runs the (blocking) calls; should be able to run
+   * <code>maxInFlight</code> at once. If null, a private pool is used.
+   */
+  public WSRequestProcessor(GenericRestfulWSClient client, boolean post, int maxInFlight, boolean ordered,
+      Executor executor) {
+    if ((client == null) || (maxInFlight < 1)) {
+      throw new IllegalArgumentException("Got invalid processor arguments.");
+    }
+    this.client = client;
+    this.post = post;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+    if (executor == null) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 30, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "WSRequestProcessor");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+      this.ownedExecutor = pool;
+    } else {
+      this.executor = executor;
+      this.ownedExecutor = null;
+    }
+    this.credits = maxInFlight;
+  }
+
+  //// Public Area
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super WSResult> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException();
+    }
+    boolean first;
+    synchronized (lock) {
+      first = (downstream == null);
+      if (first) {
+        downstream = subscriber;
+      }
+    }
+    if (first) {
+      subscriber.onSubscribe(new Downstream());
+      drain();
+      return;
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+    subscriber.onError(new IllegalStateException("WSRequestProcessor supports a single subscriber."));
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    synchronized (lock) {
+      if ((upstream != null) || cancelled) {
+        subscription.cancel();
+        return;
+      }
+      upstream = subscription;
+    }
+    drain();
+  }
+
+  @Override
+  public void onNext(Object[] paramNameThenValue) {
+    final long sequence;
+    final WSCallCanceller canceller = new WSCallCanceller();
+    synchronized (lock) {
+      if (cancelled || upstreamDone) {
+        return;
+      }
+      sequence = nextSequence++;
+      inFlight.put(sequence, canceller);
+    }
+    final Object[] params = paramNameThenValue;
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        call(sequence, params, canceller);
+      }
+    });
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    synchronized (lock) {
+      if (upstreamDone) {
+        return;
+      }
+      upstreamDone = true;
+      upstreamError = throwable;
+    }
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    synchronized (lock) {
+      upstreamDone = true;
+    }
+    drain();
+  }
+
+  /** Returns the number of calls currently in flight. */
+  public int getInFlightCount() {
+    synchronized (lock) {
+      return inFlight.size();
+    }
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  //// Private Area
+
+  /** Makes one call on an executor thread and queues its result for delivery. */
+  private void call(long sequence, Object[] params, WSCallCanceller canceller) {
+    WSResult result;
+    WSCallCanceller.setCurrent(canceller);
+    try {
+      String value = post ? client.post(params) : client.get(params);
+      result = new WSResult(sequence, params, value, null);
+    } catch (Exception e) {
+      result = new WSResult(sequence, params, null, e);
+    } finally {
+      WSCallCanceller.setCurrent(null);
+    }
+    synchronized (lock) {
+      inFlight.remove(sequence);
+      if (cancelled) {
+        return;
+      }
+      ready.put(sequence, result);
+    }
+    drain();
+  }
+
+  /** Removes and returns the next deliverable result, or null. Call holding the lock. */
+  private WSResult pollReady() {
+    if (ordered) {
+      WSResult result = ready.remove(nextToDeliver);
+      if (result != null) {
+        nextToDeliver++;
+      }
+      return result;
+    }
+    Map.Entry<Long, WSResult> first = ready.pollFirstEntry();
+    return (first == null) ? null : first.getValue();
+  }
+
+  /**
+   * Delivers whatever results downstream demand allows, requests replacements
+   * from upstream, and passes on termination. Only one thread drains at a
+   * time, and signals are sent outside the lock; a thread that finds another
+   * draining leaves it a note to go round again.
+   */
+  private void drain() {
+    synchronized (lock) {
+      if (draining) {
+        missed = true;
+        return;
+      }
+      draining = true;
+    }
+    while (true) {
+      Flow.Subscriber<? super WSResult> subscriber;
+      Flow.Subscription subscription;
+      List<WSResult> batch = null;
+      long toRequest = 0;
+      boolean terminate = false;
+      Throwable error = null;
+      synchronized (lock) {
+        subscriber = downstream;
+        subscription = upstream;
+        if (!cancelled && !terminated && (subscriber != null)) {
+          while (demand > 0) {
+            WSResult result = pollReady();
+            if (result == null) {
+              break;
+            }
+            if (batch == null) {
+              batch = new ArrayList<WSResult>();
+            }
+            batch.add(result);
+            demand--;
+            credits++;
+          }
+          if ((subscription != null) && !upstreamDone && (credits > 0)) {
+            toRequest = credits;
+            credits = 0;
+          }
+          if (upstreamDone && inFlight.isEmpty() && ready.isEmpty()) {
+            terminated = true;
+            terminate = true;
+            error = upstreamError;
+          }
+        }
+        if ((batch == null) && (toRequest == 0) && !terminate) {
+          if (!missed) {
+            draining = false;
+            return;
+          }
+          missed = false;
+          continue;
+        }
+        missed = false;
+      }
+      if (batch != null) {
+        for (WSResult result : batch) {
+          subscriber.onNext(result);
+        }
+      }
+      if (toRequest > 0) {
+        subscription.request(toRequest);
+      }
+      if (terminate) {
+        shutdown();
+        if (error == null) {
+          subscriber.onComplete();
+        } else {
+          subscriber.onError(error);
+        }
+      }
+    }
+  }
+
+  private void cancel() {
+    Flow.Subscription subscription;
+    List<WSCallCanceller> cancellers;
+    synchronized (lock) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      subscription = upstream;
+      cancellers = new ArrayList<WSCallCanceller>(inFlight.values());
+      inFlight.clear();
+      ready.clear();
+    }
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    for (WSCallCanceller canceller : cancellers) {
+      canceller.cancel();
+    }
+    shutdown();
+  }
+
+  private void shutdown() {
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+  }
+
+  /** The subscription handed to the downstream subscriber. */
+  private final class Downstream implements Flow.Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        Flow.Subscriber<? super WSResult> subscriber;
+        synchronized (lock) {
+          subscriber = downstream;
+        }
+        cancel();
+        subscriber.onError(new IllegalArgumentException("Got non-positive request: " + n));
+        return;
+      }
+      synchronized (lock) {
+        demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      WSRequestProcessor.this.cancel();
+    }
+  }
+
+  //// Internal Rep
+
+  private final GenericRestfulWSClient client;
+  private final boolean post;
+  private final int maxInFlight;
+  private final boolean ordered;
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+
+  private final Object lock = new Object();
+  private Flow.Subscription upstream;
+  private Flow.Subscriber<? super WSResult> downstream;
+  /** results the downstream subscriber has asked for and not yet received. */
+  private long demand = 0;
+  /** requests we may still ask upstream for without exceeding maxInFlight. */
+  private int credits;
+  private long nextSequence = 0;
+  private long nextToDeliver = 0;
+  private final Map<Long, WSCallCanceller> inFlight = new HashMap<Long, WSCallCanceller>();
+  private final TreeMap<Long, WSResult> ready = new TreeMap<Long, WSResult>();
+  private boolean upstreamDone = false;
+  private Throwable upstreamError = null;
+  private boolean cancelled = false;
+  private boolean terminated = false;
+  private boolean draining = false;
+  private boolean missed = false;
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//// External Imports
+
+import com.cyc.webservice.client.metrics.WSPriority;
+
+/**
+ * <p/>Limits the requests a client (see
+ * {@link GenericRestfulWSClient#setRequestScheduler(WSRequestScheduler)})
+ * has in flight, and decides which waiting request goes next by its
+ * {@link WSPriority}, so background traffic can't crowd out user-facing
+ * calls:
+ * <ul>
+ * <li>capacity is reserved for higher priorities: NORMAL requests can't take
+ *     the last <code>reservedInteractive</code> slots, and BULK requests the
+ *     last <code>reservedInteractive + reservedNormal</code>;</li>
+ * <li>when a slot frees up, the waiting classes share it by weighted fair
+ *     queueing (stride scheduling): over time each class with requests
+ *     waiting gets slots in proportion to its weight, and a class that was
+ *     idle doesn't build up credit;</li>
+ * <li>in preemptive mode waiting requests are instead taken strictly by
+ *     priority, so an interactive request goes ahead of everything queued
+ *     before it. Requests already in flight are never interrupted.</li>
+ * </ul>
+ * A request holds its slot from before it connects until its response has
+ * been read or closed. How long each waited is recorded per priority in the
+ * client's metrics (see {@link com.cyc.webservice.client.metrics.WSClientMetrics#getQueueWait}).
+ * <p/>
+ * One scheduler may be shared by several clients to limit them together.
+ * This class is thread-safe.
+ */
+public class WSRequestScheduler {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSRequestScheduler</code>.
+   * @param maxConcurrent the most requests in flight at once
+   * @param reservedInteractive slots only INTERACTIVE requests may take
+   * @param reservedNormal further slots BULK requests may not take
+   */
+  public WSRequestScheduler(int maxConcurrent, int reservedInteractive, int reservedNormal) {
+    if ((reservedInteractive < 0) || (reservedNormal < 0)
+        || (maxConcurrent - reservedInteractive - reservedNormal < 1)) {
+      throw new IllegalArgumentException("Got invalid scheduler limits.");
+    }
+    this.maxConcurrent = maxConcurrent;
+    limits[WSPriority.INTERACTIVE.ordinal()] = maxConcurrent;
+    limits[WSPriority.NORMAL.ordinal()] = maxConcurrent - reservedInteractive;
+    limits[WSPriority.BULK.ordinal()] = maxConcurrent - reservedInteractive - reservedNormal;
+    weights[WSPriority.INTERACTIVE.ordinal()] = DEFAULT_INTERACTIVE_WEIGHT;
+    weights[WSPriority.NORMAL.ordinal()] = DEFAULT_NORMAL_WEIGHT;
+    weights[WSPriority.BULK.ordinal()] = DEFAULT_BULK_WEIGHT;
+    for (int i = 0; i < CLASSES; i++) {
+      queues.add(new ArrayDeque<Waiter>());
+    }
+  }
+
+  //// Public Area
+
+  /**
+   * Sets the share of freed slots <code>priority</code> gets while several
+   * classes are waiting.
+   * @param priority the priority
+   * @param weight a positive weight; the defaults are
+   * {@value #DEFAULT_INTERACTIVE_WEIGHT}, {@value #DEFAULT_NORMAL_WEIGHT} and
+   * {@value #DEFAULT_BULK_WEIGHT}
+   */
+  public void setWeight(WSPriority priority, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("Got invalid weight: " + weight);
+    }
+    lock.lock();
+    try {
+      weights[priority.ordinal()] = weight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getWeight(WSPriority priority) {
+    lock.lock();
+    try {
+      return weights[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets whether waiting requests are taken strictly by priority rather than
+   * by weighted fair queueing. Strict priority gives the best interactive
+   * latency but can starve bulk work while interactive requests keep coming.
+   */
+  public void setPreemptive(boolean preemptive) {
+    lock.lock();
+    try {
+      this.preemptive = preemptive;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isPreemptive() {
+    lock.lock();
+    try {
+      return preemptive;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  /** Returns the number of requests of <code>priority</code> in flight. */
+  public int getInFlight(WSPriority priority) {
+    lock.lock();
+    try {
+      return inFlight[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the number of requests of <code>priority</code> waiting for a slot. */
+  public int getQueued(WSPriority priority) {
+    lock.lock();
+    try {
+      return queues.get(priority.ordinal()).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //// Protected Area
+
+  /**
+   * Waits for a slot for a request of <code>priority</code>.
+   * @return how long the request waited, in nanoseconds
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  long acquire(WSPriority priority) throws InterruptedIOException {
+    int c = priority.ordinal();
+    long startTime = System.nanoTime();
+    lock.lock();
+    try {
+      if ((totalInFlight < limits[c]) && queues.get(c).isEmpty()) {
+        // any waiters are of classes that can't use a slot now
+        admit(c);
+        return 0;
+      }
+      if (queues.get(c).isEmpty()) {
+        pass[c] = Math.max(pass[c], virtualTime);
+      }
+      Waiter waiter = new Waiter(lock.newCondition());
+      queues.get(c).addLast(waiter);
+      try {
+        while (!waiter.admitted) {
+          waiter.condition.await();
+        }
+      } catch (InterruptedException e) {
+        if (waiter.admitted) {
+          release(priority);
+        } else {
+          queues.get(c).remove(waiter);
+        }
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a request slot.");
+      }
+      return System.nanoTime() - startTime;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Frees the slot of a finished request of <code>priority</code>. */
+  void release(WSPriority priority) {
+    lock.lock();
+    try {
+      inFlight[priority.ordinal()]--;
+      totalInFlight--;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //// Private Area
+
+  /** Hands free slots to waiting requests. Call holding the lock. */
+  private void dispatch() {
+    while (true) {
+      int next = -1;
+      for (int c = 0; c < CLASSES; c++) {
+        if (queues.get(c).isEmpty() || (totalInFlight >= limits[c])) {
+          continue;
+        }
+        if (preemptive) {
+          next = c;
+          break;
+        }
+        if ((next < 0) || (pass[c] < pass[next])) {
+          next = c;
+        }
+      }
+      if (next < 0) {
+        return;
+      }
+      Waiter waiter = queues.get(next).removeFirst();
+      admit(next);
+      waiter.admitted = true;
+      waiter.condition.signal();
+    }
+  }
+
+  /** Takes a slot for class <code>c</code> and advances its pass. Call holding the lock. */
+  private void admit(int c) {
+    inFlight[c]++;
+    totalInFlight++;
+    pass[c] = Math.max(pass[c], virtualTime);
+    virtualTime = pass[c];
+    pass[c] += 1.0 / weights[c];
+  }
+
+  /** A request waiting for a slot. */
+  private static final class Waiter {
+
+    Waiter(Condition condition) {
+      this.condition = condition;
+    }
+
+    final Condition condition;
+    boolean admitted = false;
+  }
+
+  //// Internal Rep
+
+  public static final int DEFAULT_INTERACTIVE_WEIGHT = 16;
+  public static final int DEFAULT_NORMAL_WEIGHT = 4;
+  public static final int DEFAULT_BULK_WEIGHT = 1;
+
+  private static final int CLASSES = WSPriority.values().length;
+
+  private final int maxConcurrent;
+  private final ReentrantLock lock = new ReentrantLock();
+  /** per class, the most requests in flight (of all classes) at which it may start another. */
+  private final int[] limits = new int[CLASSES];
+  private final int[] weights = new int[CLASSES];
+  private final int[] inFlight = new int[CLASSES];
+  /** per class, its virtual time: when it is next due a slot. */
+  private final double[] pass = new double[CLASSES];
+  private final List<ArrayDeque<Waiter>> queues = new ArrayList<ArrayDeque<Waiter>>(CLASSES);
+  private int totalInFlight = 0;
+  private double virtualTime = 0;
+  private boolean preemptive = false;
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.cyc.webservice.client.metrics.WSCallType;
+
+//// External Imports
+
+/**
+ * Carries the correlation id of one call and fans its phase events out to the
+ * registered listeners. When no listener is registered the shared {@link #NONE}
+ * instance is used and every method returns immediately, so untraced calls
+ * allocate nothing.
+ */
+class WSRequestTrace {
+
+  //// Constructors
+
+  WSRequestTrace(WSRequestListener[] listeners, String method, WSCallType callType, String url) {
+    this.listeners = listeners;
+    this.requestId = (listeners.length == 0) ? 0 : NEXT_REQUEST_ID.incrementAndGet();
+    this.method = method;
+    this.callType = callType;
+    this.url = url;
+  }
+
+  //// Public Area
+
+  /** The trace used when nobody is listening. */
+  static final WSRequestTrace NONE = new WSRequestTrace(new WSRequestListener[0], null, null, null);
+
+  boolean isEnabled() {
+    return listeners.length > 0;
+  }
+
+  void setUrl(String url) {
+    if (isEnabled()) {
+      this.url = url;
+    }
+  }
+
+  void fire(WSRequestPhase phase) {
+    fire(phase, null);
+  }
+
+  void fire(WSRequestPhase phase, Object detail) {
+    if (!isEnabled()) {
+      return;
+    }
+    if ((phase == WSRequestPhase.REQUEST_END) || (phase == WSRequestPhase.REQUEST_FAILED)) {
+      if (isDone) {
+        return;
+      }
+      isDone = true;
+    }
+    WSRequestEvent event = new WSRequestEvent(requestId, phase, System.nanoTime(),
+        method, callType, url, detail);
+    for (WSRequestListener listener : listeners) {
+      try {
+        listener.onEvent(event);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Request listener " + listener + " failed on " + event, e);
+      }
+    }
+  }
+
+  //// Internal Rep
+
+  private static final AtomicLong NEXT_REQUEST_ID = new AtomicLong();
+  private static final Logger LOGGER = Logger.getLogger(WSRequestTrace.class.getName());
+
+  private final WSRequestListener[] listeners;
+  private final long requestId;
+  private final String method;
+  private final WSCallType callType;
+  private volatile String url;
+
+  /** Whether REQUEST_END or REQUEST_FAILED has been fired. */
+  private volatile boolean isDone = false;
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.Arrays;
+
+//// External Imports
+
+/**
+ * <p/>The outcome of one call made by a {@link WSRequestProcessor}: the entire
+ * result as a <code>String</code>, or the exception the call failed with.
+ * A failed call does not end the stream of results.
+ */
+public final class WSResult {
+
+  //// Constructors
+
+  WSResult(long sequence, Object[] params, String value, Exception error) {
+    this.sequence = sequence;
+    this.params = params;
+    this.value = value;
+    this.error = error;
+  }
+
+  //// Public Area
+
+  /** Returns the position, counting from 0, of the request among those received. */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /** Returns the parameter names and values of the request. */
+  public Object[] getParams() {
+    return params;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /** Returns the result, or null if the call failed. */
+  public String getValue() {
+    return value;
+  }
+
+  /** Returns the exception the call failed with, or null if it succeeded. */
+  public Exception getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return "WSResult[" + sequence + " " + Arrays.toString(params)
+        + (isSuccess() ? "" : " failed: " + error) + "]";
+  }
+
+  //// Internal Rep
+
+  private final long sequence;
+  private final Object[] params;
+  private final String value;
+  private final Exception error;
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//// External Imports
+
+/**
+ * <p/>What {@link GenericRestfulWSClient#warmUp(int, List)} did: the
+ * connections it opened and the requests it replayed into the cache, and
+ * what failed. A warm-up never fails as a whole; whether a partly warm
+ * client is ready is left to the caller, e.g. via {@link #isSuccessful()}.
+ * <p/>
+ * This class is thread-safe.
+ */
+public class WSWarmUpResult {
+
+  //// Constructors
+
+  WSWarmUpResult() {
+  }
+
+  //// Public Area
+
+  @Override
+  public String toString() {
+    return "Warm-up: " + getConnectionsOpened() + " connections opened, "
+        + getConnectionsNotKept() + " not kept, " + getConnectionFailures() + " failed; " + getRequestsReplayed() + " requests replayed, "
+        + getRequestFailures() + " failed; in " + GenericRestfulWSClient.getDurationString(elapsedNanos);
+  }
+
+  /** Returns whether every connection and request succeeded. */
+  public boolean isSuccessful() {
+    return (getConnectionFailures() == 0) && (getRequestFailures() == 0);
+  }
+
+  public int getConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  /**
+   * Returns the number of warm-up requests that succeeded without leaving a
+   * new connection open, e.g. because the server closed it.
+   */
+  public int getConnectionsNotKept() {
+    return connectionsNotKept.get();
+  }
+
+  public int getConnectionFailures() {
+    return connectionFailures.get();
+  }
+
+  public int getRequestsReplayed() {
+    return requestsReplayed.get();
+  }
+
+  public int getRequestFailures() {
+    return requestFailures.get();
+  }
+
+  /** Returns the failures, in no particular order. */
+  public List<Exception> getErrors() {
+    synchronized (errors) {
+      return new ArrayList<Exception>(errors);
+    }
+  }
+
+  /** Returns how long the warm-up took, in milliseconds. */
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  //// Protected Area
+
+  void connectionOpened() {
+    connectionsOpened.incrementAndGet();
+  }
+
+  void connectionNotKept() {
+    connectionsNotKept.incrementAndGet();
+  }
+
+  void connectionFailed(Exception e) {
+    connectionFailures.incrementAndGet();
+    addError(e);
+  }
+
+  void requestReplayed() {
+    requestsReplayed.incrementAndGet();
+  }
+
+  void requestFailed(Exception e) {
+    requestFailures.incrementAndGet();
+    addError(e);
+  }
+
+  void setElapsedNanos(long elapsedNanos) {
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  //// Private Area
+
+  private void addError(Exception e) {
+    synchronized (errors) {
+      errors.add(e);
+    }
+  }
+
+  //// Internal Rep
+
+  private final AtomicInteger connectionsOpened = new AtomicInteger();
+  private final AtomicInteger connectionsNotKept = new AtomicInteger();
+  private final AtomicInteger connectionFailures = new AtomicInteger();
+  private final AtomicInteger requestsReplayed = new AtomicInteger();
+  private final AtomicInteger requestFailures = new AtomicInteger();
+  private final List<Exception> errors = new ArrayList<Exception>();
+  private volatile long elapsedNanos;
+}
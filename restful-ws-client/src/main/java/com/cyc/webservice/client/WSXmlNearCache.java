@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.w3c.dom.Document;
+
+//// External Imports
+
+import com.cyc.webservice.client.cache.CompactXml;
+
+/**
+ * <p/>A small LRU cache of parsed DOMs for the hottest XML cache keys. The
+ * cached DOMs are never handed out: every hit gets a deep clone, which is
+ * several times cheaper than parsing. Since DOM implementations may mutate
+ * internal state even on reads, cloning is serialized per DOM.
+ * <p/>
+ * Each DOM is tied to the {@link CompactXml} it was parsed from, so it is
+ * ignored as soon as the main cache holds a newer response.
+ */
+final class WSXmlNearCache {
+
+  //// Constructors
+
+  WSXmlNearCache(final int capacity) {
+    this.entries = new LinkedHashMap<WSRequestParams, NearEntry>(capacity * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<WSRequestParams, NearEntry> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  //// Public Area
+
+  /**
+   * Returns a private copy of the DOM cached for <code>key</code>, or null if
+   * there is none for <code>compact</code>.
+   */
+  Document get(WSRequestParams key, CompactXml compact) {
+    NearEntry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if ((entry == null) || (entry.compact != compact)) {
+      return null;
+    }
+    return copy(entry.master);
+  }
+
+  /**
+   * Caches <code>master</code>, which must not be handed out elsewhere, and
+   * returns a private copy of it.
+   */
+  Document put(WSRequestParams key, CompactXml compact, Document master) {
+    synchronized (entries) {
+      entries.put(key, new NearEntry(compact, master));
+    }
+    return copy(master);
+  }
+
+  void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  //// Private Area
+
+  private static Document copy(Document master) {
+    synchronized (master) {
+      return (Document) master.cloneNode(true);
+    }
+  }
+
+  private static final class NearEntry {
+
+    NearEntry(CompactXml compact, Document master) {
+      this.compact = compact;
+      this.master = master;
+    }
+
+    final CompactXml compact;
+    final Document master;
+  }
+
+  //// Internal Rep
+
+  private final Map<WSRequestParams, NearEntry> entries;
+}
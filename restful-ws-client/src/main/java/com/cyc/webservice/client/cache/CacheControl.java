@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+import java.util.Locale;
+
+//// External Imports
+
+/**
+ * <p/>The directives of an HTTP <code>Cache-Control</code> response header
+ * that matter to a private client cache. Unknown directives are ignored.
+ */
+public final class CacheControl {
+
+  //// Constructors
+
+  private CacheControl(long maxAgeSecs, boolean noCache, boolean noStore,
+      long staleWhileRevalidateSecs, long staleIfErrorSecs) {
+    this.maxAgeSecs = maxAgeSecs;
+    this.staleWhileRevalidateSecs = staleWhileRevalidateSecs;
+    this.staleIfErrorSecs = staleIfErrorSecs;
+    this.noCache = noCache;
+    this.noStore = noStore;
+  }
+
+  //// Public Area
+
+  /** The directives of a response without a <code>Cache-Control</code> header. */
+  public static final CacheControl NONE = new CacheControl(-1, false, false, -1, -1);
+
+  /**
+   * Parses a <code>Cache-Control</code> header value.
+   * @param header the header value, e.g. "public, max-age=300", or null
+   * @return the parsed directives, never null
+   */
+  public static CacheControl parse(String header) {
+    if ((header == null) || header.isEmpty()) {
+      return NONE;
+    }
+    long maxAgeSecs = -1;
+    boolean noCache = false;
+    boolean noStore = false;
+    long staleWhileRevalidateSecs = -1;
+    long staleIfErrorSecs = -1;
+    for (String directive : header.split(",")) {
+      int eq = directive.indexOf('=');
+      String name = ((eq < 0) ? directive : directive.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+      String value = (eq < 0) ? null : unquote(directive.substring(eq + 1).trim());
+      if ("max-age".equals(name)) {
+        maxAgeSecs = parseSeconds(value, maxAgeSecs);
+      } else if ("no-cache".equals(name)) {
+        noCache = true;
+      } else if ("no-store".equals(name)) {
+        noStore = true;
+      } else if ("stale-while-revalidate".equals(name)) {
+        staleWhileRevalidateSecs = parseSeconds(value, staleWhileRevalidateSecs);
+      } else if ("stale-if-error".equals(name)) {
+        staleIfErrorSecs = parseSeconds(value, staleIfErrorSecs);
+      }
+    }
+    return new CacheControl(maxAgeSecs, noCache, noStore, staleWhileRevalidateSecs, staleIfErrorSecs);
+  }
+
+  /** Returns the <code>max-age</code> in seconds, or -1 if absent. */
+  public long getMaxAgeSecs() {
+    return maxAgeSecs;
+  }
+
+  /**
+   * Returns how long after expiry the response may still be served while it
+   * is refreshed in the background (RFC 5861), or -1 if absent.
+   */
+  public long getStaleWhileRevalidateSecs() {
+    return staleWhileRevalidateSecs;
+  }
+
+  /**
+   * Returns how long after expiry the response may still be served when
+   * refreshing it fails (RFC 5861), or -1 if absent.
+   */
+  public long getStaleIfErrorSecs() {
+    return staleIfErrorSecs;
+  }
+
+  /** Returns whether the response must be revalidated before every reuse. */
+  public boolean isNoCache() {
+    return noCache;
+  }
+
+  /** Returns whether the response must not be cached at all. */
+  public boolean isNoStore() {
+    return noStore;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheControl[max-age=" + maxAgeSecs + (noCache ? ", no-cache" : "")
+        + (noStore ? ", no-store" : "")
+        + ((staleWhileRevalidateSecs >= 0) ? ", stale-while-revalidate=" + staleWhileRevalidateSecs : "")
+        + ((staleIfErrorSecs >= 0) ? ", stale-if-error=" + staleIfErrorSecs : "") + "]";
+  }
+
+  //// Private Area
+
+  private static String unquote(String value) {
+    if ((value.length() >= 2) && (value.charAt(0) == '"') && (value.charAt(value.length() - 1) == '"')) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  private static long parseSeconds(String value, long defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Math.max(0, Long.parseLong(value));
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  //// Internal Rep
+
+  private final long maxAgeSecs;
+  private final boolean noCache;
+  private final boolean noStore;
+  private final long staleWhileRevalidateSecs;
+  private final long staleIfErrorSecs;
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+//// External Imports
+
+/**
+ * <p/>The cached form of an XML response: its text as UTF-8 bytes, optionally
+ * deflated and optionally held off-heap in a direct buffer. A DOM typically
+ * costs several times its text; this costs about the text size (UTF-8) or
+ * much less (deflated), and being immutable it can be shared by any number of
+ * threads, each parsing its own independent <code>Document</code> from
+ * {@link #openReader()}.
+ */
+public final class CompactXml {
+
+  //// Constructors
+
+  private CompactXml(byte[] heapBytes, ByteBuffer directBytes, boolean compressed, int textLength) {
+    this.heapBytes = heapBytes;
+    this.directBytes = directBytes;
+    this.compressed = compressed;
+    this.textLength = textLength;
+  }
+
+  //// Public Area
+
+  /**
+   * Encodes XML text.
+   * @param text the XML text
+   * @param compress whether to deflate the text; only done when it is at least
+   * {@value #MIN_COMPRESS_BYTES} bytes and actually shrinks
+   * @param offHeap whether to keep the bytes in a direct buffer outside the Java heap
+   * @return the encoded text
+   */
+  public static CompactXml encode(String text, boolean compress, boolean offHeap) {
+    byte[] bytes = text.getBytes(UTF8);
+    boolean compressed = false;
+    if (compress && (bytes.length >= MIN_COMPRESS_BYTES)) {
+      byte[] deflated = deflate(bytes);
+      if (deflated.length < bytes.length) {
+        bytes = deflated;
+        compressed = true;
+      }
+    }
+    if (offHeap) {
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).flip();
+      return new CompactXml(null, direct, compressed, text.length());
+    }
+    return new CompactXml(bytes, null, compressed, text.length());
+  }
+
+  /** Returns a new reader over the text; independent of any other reader. */
+  public Reader openReader() {
+    return new InputStreamReader(openTextStream(), UTF8);
+  }
+
+  /**
+   * Returns whether <code>text</code> is the text this was encoded from,
+   * comparing its UTF-8 bytes with the (inflated) stored ones.
+   */
+  public boolean matches(String text) {
+    if (text.length() != textLength) {
+      return false;
+    }
+    byte[] bytes = text.getBytes(UTF8);
+    if (!compressed) {
+      return (heapBytes != null)
+          ? Arrays.equals(bytes, heapBytes) : directBytes.duplicate().equals(ByteBuffer.wrap(bytes));
+    }
+    InputStream in = openTextStream();
+    try {
+      byte[] buf = new byte[INFLATE_BUF_SIZE];
+      int offset = 0;
+      int bytesRead;
+      while ((bytesRead = in.read(buf)) > 0) {
+        if ((offset + bytesRead > bytes.length)
+            || !Arrays.equals(buf, 0, bytesRead, bytes, offset, offset + bytesRead)) {
+          return false;
+        }
+        offset += bytesRead;
+      }
+      return offset == bytes.length;
+    } catch (IOException e) {
+      return false; // can't happen; the bytes are in memory
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // nothing to release
+      }
+    }
+  }
+
+  /** Returns the number of bytes held, on or off heap. */
+  public int getStoredBytes() {
+    return (heapBytes != null) ? heapBytes.length : directBytes.capacity();
+  }
+
+  /** Returns the length of the text in chars. */
+  public int getTextLength() {
+    return textLength;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  public boolean isOffHeap() {
+    return directBytes != null;
+  }
+
+  /** Counts a cache hit on this value and returns the total so far. */
+  public int recordHit() {
+    return hits.incrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return "CompactXml[" + textLength + " chars in " + getStoredBytes() + " bytes"
+        + (compressed ? ", deflated" : "") + (isOffHeap() ? ", off-heap" : "") + "]";
+  }
+
+  //// Private Area
+
+  /** Returns a new stream over the UTF-8 bytes of the text. */
+  private InputStream openTextStream() {
+    InputStream in = (heapBytes != null)
+        ? new ByteArrayInputStream(heapBytes) : new ByteBufferInputStream(directBytes.duplicate());
+    if (compressed) {
+      in = new InflaterInputStream(in, new Inflater(true), INFLATE_BUF_SIZE);
+    }
+    return in;
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+      byte[] buf = new byte[INFLATE_BUF_SIZE];
+      while (!deflater.finished()) {
+        out.write(buf, 0, deflater.deflate(buf));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Reads a (private duplicate of a) direct buffer without copying it on-heap first. */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+
+    private final ByteBuffer buf;
+  }
+
+  //// Internal Rep
+
+  /** Texts smaller than this are not worth deflating. */
+  public static final int MIN_COMPRESS_BYTES = 512;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int INFLATE_BUF_SIZE = 8192;
+
+  private final byte[] heapBytes;
+  private final ByteBuffer directBytes;
+  private final boolean compressed;
+  private final int textLength;
+  private final AtomicInteger hits = new AtomicInteger();
+}
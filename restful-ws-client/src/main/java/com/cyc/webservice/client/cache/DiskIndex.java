@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//// External Imports
+
+/**
+ * <p/>The memory-mapped index of a {@link DiskResponseCache}: an open addressing
+ * hash table, with linear probing, from 64-bit key hashes to record locations.
+ * Because it is a plain mapped file it is usable as soon as it is opened, with
+ * no parsing on startup.
+ * <p/>
+ * Layout: a {@value #HEADER_BYTES} byte header followed by
+ * <code>capacity</code> slots of {@value #SLOT_BYTES} bytes:
+ * <pre>
+ *   long hash      0 = empty slot
+ *   int  segment   segment file id, -1 = deleted slot
+ *   int  offset    record offset within the segment
+ *   int  length    record length in bytes
+ *   int  unused
+ *   long expires   expiry time in epoch millis, Long.MAX_VALUE = never
+ * </pre>
+ * The index only knows hashes; the cache compares full keys against the
+ * records. Not thread-safe; the cache serializes access.
+ */
+class DiskIndex implements Closeable {
+
+  //// Constructors
+
+  private DiskIndex(RandomAccessFile raf, MappedByteBuffer buf, int capacity) {
+    this.raf = raf;
+    this.buf = buf;
+    this.capacity = capacity;
+  }
+
+  //// Public Area
+
+  /**
+   * Maps an existing index file.
+   * @param file the index file
+   * @return the index, or null if the file is missing or not a valid index
+   * @throws IOException if the file can't be mapped
+   */
+  static DiskIndex open(File file) throws IOException {
+    if (!file.isFile() || (file.length() < HEADER_BYTES)) {
+      return null;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    int capacity = buf.getInt(CAPACITY_POS);
+    if ((buf.getInt(MAGIC_POS) != MAGIC) || (buf.getInt(VERSION_POS) != VERSION)
+        || (capacity <= 0) || (capacity > MAX_CAPACITY)
+        || (raf.length() != HEADER_BYTES + ((long) capacity) * SLOT_BYTES)) {
+      raf.close();
+      return null;
+    }
+    return new DiskIndex(raf, buf, capacity);
+  }
+
+  /**
+   * Creates (or overwrites) an empty index file.
+   * @param file the index file
+   * @param capacity the number of slots
+   * @return the index, marked not clean
+   * @throws IOException if the file can't be created
+   */
+  static DiskIndex create(File file, int capacity) throws IOException {
+    if ((capacity <= 0) || (capacity > MAX_CAPACITY)) {
+      throw new IllegalArgumentException("Got invalid index capacity: " + capacity);
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to replace index: " + file);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    long length = HEADER_BYTES + ((long) capacity) * SLOT_BYTES;
+    raf.setLength(length);
+    MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    buf.putInt(MAGIC_POS, MAGIC);
+    buf.putInt(VERSION_POS, VERSION);
+    buf.putInt(CAPACITY_POS, capacity);
+    return new DiskIndex(raf, buf, capacity);
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /** Returns the number of occupied (not empty, not deleted) slots. */
+  int getCount() {
+    return buf.getInt(COUNT_POS);
+  }
+
+  /** Returns the number of deleted slots, which still lengthen probe chains. */
+  int getDeletedCount() {
+    return buf.getInt(DELETED_POS);
+  }
+
+  /** Returns the bytes of segment data referenced by occupied slots. */
+  long getLiveBytes() {
+    return buf.getLong(LIVE_BYTES_POS);
+  }
+
+  /** Returns the bytes of segment data written, live or not. */
+  long getTotalBytes() {
+    return buf.getLong(TOTAL_BYTES_POS);
+  }
+
+  void addTotalBytes(long bytes) {
+    buf.putLong(TOTAL_BYTES_POS, getTotalBytes() + bytes);
+  }
+
+  /** Returns whether the index was closed cleanly, i.e. is in sync with the segments. */
+  boolean isClean() {
+    return buf.getInt(CLEAN_POS) == 1;
+  }
+
+  /** Marks the index clean or dirty, and forces the change to disk. */
+  void setClean(boolean clean) {
+    buf.putInt(CLEAN_POS, clean ? 1 : 0);
+    buf.force();
+  }
+
+  /** Returns the slot to start probing at for <code>hash</code>. */
+  int firstSlot(long hash) {
+    return (int) ((hash ^ (hash >>> 32)) & 0x7fffffffL) % capacity;
+  }
+
+  int nextSlot(int slot) {
+    return (slot + 1 == capacity) ? 0 : slot + 1;
+  }
+
+  boolean isEmpty(int slot) {
+    return hashAt(slot) == 0;
+  }
+
+  boolean isDeleted(int slot) {
+    return !isEmpty(slot) && (segmentAt(slot) < 0);
+  }
+
+  long hashAt(int slot) {
+    return buf.getLong(pos(slot));
+  }
+
+  int segmentAt(int slot) {
+    return buf.getInt(pos(slot) + 8);
+  }
+
+  int offsetAt(int slot) {
+    return buf.getInt(pos(slot) + 12);
+  }
+
+  int lengthAt(int slot) {
+    return buf.getInt(pos(slot) + 16);
+  }
+
+  long expiresAt(int slot) {
+    return buf.getLong(pos(slot) + 24);
+  }
+
+  /** Fills an empty or deleted slot, or replaces an occupied one. */
+  void set(int slot, long hash, int segment, int offset, int length, long expires) {
+    if (isEmpty(slot)) {
+      buf.putInt(COUNT_POS, getCount() + 1);
+    } else if (isDeleted(slot)) {
+      buf.putInt(COUNT_POS, getCount() + 1);
+      buf.putInt(DELETED_POS, getDeletedCount() - 1);
+    } else {
+      buf.putLong(LIVE_BYTES_POS, getLiveBytes() - lengthAt(slot));
+    }
+    int p = pos(slot);
+    buf.putLong(p, hash);
+    buf.putInt(p + 8, segment);
+    buf.putInt(p + 12, offset);
+    buf.putInt(p + 16, length);
+    buf.putLong(p + 24, expires);
+    buf.putLong(LIVE_BYTES_POS, getLiveBytes() + length);
+  }
+
+  /** Marks an occupied slot deleted. */
+  void delete(int slot) {
+    buf.putLong(LIVE_BYTES_POS, getLiveBytes() - lengthAt(slot));
+    buf.putInt(pos(slot) + 8, -1);
+    buf.putInt(COUNT_POS, getCount() - 1);
+    buf.putInt(DELETED_POS, getDeletedCount() + 1);
+  }
+
+  /** Flushes pending changes to disk. */
+  void force() {
+    buf.force();
+  }
+
+  /** Unmaps (as far as Java allows) and closes the index file. */
+  @Override
+  public void close() throws IOException {
+    buf.force();
+    raf.close();
+  }
+
+  //// Private Area
+
+  private static int pos(int slot) {
+    return (int) (HEADER_BYTES + ((long) slot) * SLOT_BYTES); // < 2GB since capacity <= MAX_CAPACITY
+  }
+
+  //// Internal Rep
+
+  static final int HEADER_BYTES = 64;
+  static final int SLOT_BYTES = 32;
+
+  /** The most slots a mapped buffer, indexed by int, can address: a 1GB index. */
+  static final int MAX_CAPACITY = 1 << 25;
+
+  private static final int MAGIC = 0x57534958; // "WSIX"
+  private static final int VERSION = 1;
+  private static final int MAGIC_POS = 0;
+  private static final int VERSION_POS = 4;
+  private static final int CAPACITY_POS = 8;
+  private static final int COUNT_POS = 12;
+  private static final int DELETED_POS = 16;
+  private static final int CLEAN_POS = 20;
+  private static final int LIVE_BYTES_POS = 24;
+  private static final int TOTAL_BYTES_POS = 32;
+
+  private final RandomAccessFile raf;
+  private final MappedByteBuffer buf;
+  private final int capacity;
+}
@@ -0,0 +1,891 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+//// External Imports
+
+/**
+ * <p/>DiskResponseCache is a persistent, string to string cache of web service
+ * response bodies, meant as a second tier behind the in-memory cache of a
+ * <code>GenericRestfulWSClient</code> (see
+ * <code>GenericRestfulWSClient.setDiskCache</code>) so that a restarted service
+ * starts warm instead of hammering the upstream service.
+ * <p/>
+ * Entries are appended to segment files (<code>NNNNNNNN.seg</code>) as
+ * checksummed records carrying their write and expiry times and the
+ * response's <code>ETag</code> and <code>Last-Modified</code>; removals append
+ * tombstones. A memory-mapped hash index (<code>index.idx</code>) points at the
+ * latest record for each key, so opening a cleanly closed cache costs one mmap.
+ * After a crash the index is rebuilt by scanning the segments, truncating any
+ * torn record at the end of a segment and skipping corrupt ones before it.
+ * <p/>
+ * The index holds at most 2^25 slots; once it is that big and 80% full, new
+ * keys are not stored (existing ones are still updated) until removals or
+ * compaction make room.
+ * <p/>
+ * Overwritten, removed and expired records are reclaimed by compaction, which
+ * copies the live records into fresh segments. It runs on a background thread
+ * once the live fraction of the segment data falls below the compaction ratio,
+ * and blocks other cache operations while it runs.
+ * <p/>
+ * Instances are thread-safe. Only one instance may use a directory at a time.
+ */
+public class DiskResponseCache implements Closeable {
+
+  //// Constructors
+
+  /**
+   * Opens (or creates) the cache in <code>directory</code>.
+   * @param directory the directory holding the cache files; created if needed
+   * @param defaultTtlMillis how long entries live when no TTL is given,
+   * or 0 to keep them until removed
+   * @throws IOException if the directory or its files can't be opened
+   */
+  public DiskResponseCache(File directory, long defaultTtlMillis) throws IOException {
+    if (defaultTtlMillis < 0) {
+      throw new IllegalArgumentException("Invalid TTL: " + defaultTtlMillis + " msecs.");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create cache directory: " + directory);
+    }
+    this.directory = directory;
+    this.defaultTtlMillis = defaultTtlMillis;
+    long startTime = System.nanoTime();
+    openSegments();
+    index = DiskIndex.open(indexFile());
+    if ((index != null) && index.isClean()) {
+      index.setClean(false);
+    } else if ((segments.size() == 1) && (activeChannel.size() == 0)) {
+      if (index != null) {
+        index.close();
+      }
+      index = DiskIndex.create(indexFile(), MIN_CAPACITY);
+    } else {
+      rebuildIndex();
+    }
+    LOGGER.log(Level.FINE, "Opened disk cache {0} with {1} entries in {2} msecs.",
+        new Object[]{directory, index.getCount(), (System.nanoTime() - startTime) / 1000000});
+  }
+
+  //// Public Area
+
+  /**
+   * Returns the cached value for <code>key</code>.
+   * @param key the key to look up
+   * @return the value, or null if absent or expired
+   * @throws IOException if the cache files can't be read
+   */
+  public String get(String key) throws IOException {
+    WSCacheEntry entry = getEntry(key);
+    return (entry == null) ? null : (String) entry.getValue();
+  }
+
+  /**
+   * Returns the cached value for <code>key</code> with when it was stored,
+   * when it expires and the validators it was stored with.
+   * @param key the key to look up
+   * @return the entry, whose value is a String, or null if absent or expired
+   * @throws IOException if the cache files can't be read
+   */
+  public WSCacheEntry getEntry(String key) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF8);
+    long hash = hash(keyBytes);
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      int slot = findSlot(keyBytes, hash);
+      if ((slot < 0) || (index.expiresAt(slot) <= System.currentTimeMillis())) {
+        misses.increment();
+        return null;
+      }
+      ByteBuffer record = readRecord(index.segmentAt(slot), index.offsetAt(slot), index.lengthAt(slot));
+      if (record == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      int offset = RECORD_HEADER_BYTES + record.getInt(KEY_LEN_POS);
+      String etag = decodeString(record, offset, record.getInt(ETAG_LEN_POS));
+      offset += Math.max(record.getInt(ETAG_LEN_POS), 0);
+      String lastModified = decodeString(record, offset, record.getInt(LAST_MODIFIED_LEN_POS));
+      offset += Math.max(record.getInt(LAST_MODIFIED_LEN_POS), 0);
+      String value = decodeString(record, offset, record.getInt(VALUE_LEN_POS));
+      return new WSCacheEntry(value, null, record.getLong(WRITTEN_POS), record.getLong(EXPIRES_POS),
+          etag, lastModified);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Stores <code>value</code> under <code>key</code> with the default TTL.
+   * @param key the key
+   * @param value the value
+   * @throws IOException if the cache files can't be written
+   */
+  public void put(String key, String value) throws IOException {
+    put(key, value, defaultTtlMillis);
+  }
+
+  /**
+   * Stores <code>value</code> under <code>key</code>.
+   * @param key the key
+   * @param value the value
+   * @param ttlMillis how long the entry lives, or 0 to keep it until removed
+   * @throws IOException if the cache files can't be written
+   */
+  public void put(String key, String value, long ttlMillis) throws IOException {
+    put(key, value, ttlMillis, null, null);
+  }
+
+  /**
+   * Stores <code>value</code> under <code>key</code> with the validators of
+   * the response it came from, so that it can be revalidated once read back.
+   * @param key the key
+   * @param value the value
+   * @param ttlMillis how long the entry lives, or 0 to keep it until removed
+   * @param etag the <code>ETag</code> response header, or null
+   * @param lastModified the <code>Last-Modified</code> response header, or null
+   * @throws IOException if the cache files can't be written
+   */
+  public void put(String key, String value, long ttlMillis, String etag, String lastModified)
+      throws IOException {
+    if ((key == null) || (value == null) || (ttlMillis < 0)) {
+      throw new IllegalArgumentException();
+    }
+    long now = System.currentTimeMillis();
+    long expires = (ttlMillis == 0) ? NEVER : now + ttlMillis;
+    byte[] keyBytes = key.getBytes(UTF8);
+    ByteBuffer record = encodeRecord(keyBytes, value.getBytes(UTF8), now, expires,
+        (etag == null) ? null : etag.getBytes(UTF8),
+        (lastModified == null) ? null : lastModified.getBytes(UTF8));
+    long hash = hash(keyBytes);
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      int slot = findSlot(keyBytes, hash);
+      if ((slot < 0) && isFull(index)) {
+        full.increment();
+        LOGGER.log(Level.FINE, "Disk cache {0} is full; not storing {1}", new Object[]{directory, key});
+        return;
+      }
+      int length = record.remaining();
+      int offset = append(record);
+      index.set((slot >= 0) ? slot : freeSlot(index, hash), hash, activeSegmentId, offset, length, expires);
+      index.addTotalBytes(length);
+      maybeResizeIndex();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    maybeScheduleCompaction();
+  }
+
+  /**
+   * Removes the entry for <code>key</code>.
+   * @param key the key
+   * @return whether there was an entry
+   * @throws IOException if the cache files can't be written
+   */
+  public boolean remove(String key) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF8);
+    long hash = hash(keyBytes);
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      int slot = findSlot(keyBytes, hash);
+      if (slot < 0) {
+        return false;
+      }
+      ByteBuffer tombstone = encodeRecord(keyBytes, null, System.currentTimeMillis(), NEVER, null, null);
+      index.addTotalBytes(tombstone.remaining());
+      append(tombstone);
+      index.delete(slot);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes every entry whose key <code>keyFilter</code> accepts. Reads the
+   * key of every entry, so costs a disk read per entry.
+   * @param keyFilter accepts the keys to remove
+   * @return the number of entries removed
+   * @throws IOException if the cache files can't be read or written
+   */
+  public int removeIf(Predicate<String> keyFilter) throws IOException {
+    int result = 0;
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      for (int slot = 0, capacity = index.getCapacity(); slot < capacity; slot++) {
+        if (index.isEmpty(slot) || index.isDeleted(slot)) {
+          continue;
+        }
+        byte[] keyBytes = readKey(slot);
+        if ((keyBytes == null) || !keyFilter.test(new String(keyBytes, UTF8))) {
+          continue;
+        }
+        ByteBuffer tombstone = encodeRecord(keyBytes, null, System.currentTimeMillis(), NEVER, null, null);
+        index.addTotalBytes(tombstone.remaining());
+        append(tombstone);
+        index.delete(slot);
+        result++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (result > 0) {
+      maybeScheduleCompaction();
+    }
+    return result;
+  }
+
+  /**
+   * Removes every entry and deletes the segment files.
+   * @throws IOException if the cache files can't be deleted or recreated
+   */
+  public void clear() throws IOException {
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      index.close();
+      closeSegments(Integer.MAX_VALUE, true);
+      index = DiskIndex.create(indexFile(), MIN_CAPACITY);
+      openActiveSegment(activeSegmentId + 1);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Copies the live, unexpired records into fresh segments and deletes the old ones.
+   * Normally triggered automatically; blocks other cache operations while it runs.
+   * @throws IOException if the cache files can't be read or written
+   */
+  public void compact() throws IOException {
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      long now = System.currentTimeMillis();
+      int firstNewSegment = activeSegmentId + 1;
+      openActiveSegment(firstNewSegment);
+      File tmpFile = new File(directory, INDEX_FILE + ".tmp");
+      DiskIndex newIndex = DiskIndex.create(tmpFile, capacityFor(index.getCount()));
+      for (int slot = 0, capacity = index.getCapacity(); slot < capacity; slot++) {
+        if (index.isEmpty(slot) || index.isDeleted(slot) || (index.expiresAt(slot) <= now)) {
+          continue;
+        }
+        ByteBuffer record = readRecord(index.segmentAt(slot), index.offsetAt(slot), index.lengthAt(slot));
+        if (record == null) {
+          continue;
+        }
+        int length = record.remaining();
+        int offset = append(record);
+        long hash = index.hashAt(slot);
+        newIndex.set(freeSlot(newIndex, hash), hash, activeSegmentId, offset, length, index.expiresAt(slot));
+        newIndex.addTotalBytes(length);
+      }
+      activeChannel.force(false);
+      replaceIndex(newIndex, tmpFile);
+      closeSegments(firstNewSegment, true);
+      compactions.increment();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the number of entries, including expired ones not yet compacted away. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return (index == null) ? 0 : index.getCount();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the bytes of segment data holding current entries. */
+  public long getLiveBytes() {
+    lock.readLock().lock();
+    try {
+      return (index == null) ? 0 : index.getLiveBytes();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the bytes of segment data on disk, including reclaimable records. */
+  public long getTotalBytes() {
+    lock.readLock().lock();
+    try {
+      return (index == null) ? 0 : index.getTotalBytes();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns how long entries live when no TTL is given, or 0 if they are kept until removed. */
+  public long getDefaultTtlMillis() {
+    return defaultTtlMillis;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getCompactionCount() {
+    return compactions.sum();
+  }
+
+  /** Returns the number of new keys not stored because the index was at its maximum size. */
+  public long getRejectedPutCount() {
+    return full.sum();
+  }
+
+  /**
+   * Sets the size at which a new segment file is started (default 64MB).
+   * @param maxSegmentBytes the segment size, between 1KB and 1GB
+   */
+  public void setMaxSegmentBytes(long maxSegmentBytes) {
+    if ((maxSegmentBytes < 1024) || (maxSegmentBytes > (1 << 30))) {
+      throw new IllegalArgumentException("Invalid segment size: " + maxSegmentBytes);
+    }
+    this.maxSegmentBytes = maxSegmentBytes;
+  }
+
+  /**
+   * Sets when compaction is triggered: once at least <code>minBytes</code> of
+   * segment data exist and less than <code>ratio</code> of them are live.
+   * Defaults are 16MB and 0.5.
+   * @param ratio the live fraction below which to compact, 0 to never compact automatically
+   * @param minBytes the minimum amount of segment data worth compacting
+   */
+  public void setCompactionThreshold(double ratio, long minBytes) {
+    if ((ratio < 0.0) || (ratio >= 1.0) || (minBytes < 0)) {
+      throw new IllegalArgumentException("Invalid compaction threshold: " + ratio + ", " + minBytes);
+    }
+    this.compactionRatio = ratio;
+    this.compactionMinBytes = minBytes;
+  }
+
+  /**
+   * Waits for any running compaction, then flushes everything and marks the
+   * index clean so the next open needn't scan the segments.
+   * @throws IOException if the cache files can't be flushed
+   */
+  @Override
+  public void close() throws IOException {
+    compactor.shutdown();
+    lock.writeLock().lock();
+    try {
+      if (index == null) {
+        return;
+      }
+      activeChannel.force(true);
+      index.setClean(true);
+      index.close();
+      index = null;
+      closeSegments(Integer.MAX_VALUE, false);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DiskResponseCache at " + directory;
+  }
+
+  //// Private Area
+
+  private File indexFile() {
+    return new File(directory, INDEX_FILE);
+  }
+
+  private File segmentFile(int segmentId) {
+    return new File(directory, String.format("%08d%s", segmentId, SEGMENT_SUFFIX));
+  }
+
+  private void checkOpen() throws IOException {
+    if (index == null) {
+      throw new IOException("Disk cache is closed: " + directory);
+    }
+  }
+
+  /** Opens every existing segment and makes the newest one active. */
+  private void openSegments() throws IOException {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    int lastId = 0;
+    for (String name : names) {
+      try {
+        int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        segments.put(id, new RandomAccessFile(new File(directory, name), "rw").getChannel());
+        lastId = Math.max(lastId, id);
+      } catch (NumberFormatException e) {
+        // not ours
+      }
+    }
+    if (lastId == 0) {
+      openActiveSegment(1);
+    } else {
+      activeSegmentId = lastId;
+      activeChannel = segments.get(lastId);
+    }
+  }
+
+  private void openActiveSegment(int segmentId) throws IOException {
+    if (activeChannel != null) {
+      activeChannel.force(false);
+    }
+    activeChannel = new RandomAccessFile(segmentFile(segmentId), "rw").getChannel();
+    activeChannel.truncate(0);
+    activeSegmentId = segmentId;
+    segments.put(segmentId, activeChannel);
+  }
+
+  /** Closes (and optionally deletes) every segment with an id below <code>belowId</code>. */
+  private void closeSegments(int belowId, boolean delete) throws IOException {
+    Map<Integer, FileChannel> closing = segments.headMap(belowId);
+    for (Map.Entry<Integer, FileChannel> entry : closing.entrySet()) {
+      entry.getValue().close();
+      if (delete && !segmentFile(entry.getKey()).delete()) {
+        LOGGER.log(Level.WARNING, "Unable to delete {0}", segmentFile(entry.getKey()));
+      }
+    }
+    closing.clear();
+    if (!segments.containsKey(activeSegmentId)) {
+      activeChannel = null;
+    }
+  }
+
+  /** Rebuilds the index from scratch by replaying every segment in order. */
+  private void rebuildIndex() throws IOException {
+    long startTime = System.nanoTime();
+    if (index != null) {
+      index.close();
+    }
+    index = DiskIndex.create(indexFile(), MIN_CAPACITY);
+    for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+      int segmentId = entry.getKey();
+      FileChannel channel = entry.getValue();
+      long size = channel.size();
+      long offset = 0;
+      while (offset < size) {
+        ByteBuffer record = readRecordAt(segmentId, channel, offset, size);
+        if (record == null) {
+          long next = findNextRecord(segmentId, channel, offset + 1, size);
+          if (next < 0) {
+            LOGGER.log(Level.WARNING, "Truncating torn record at {0} in {1}",
+                new Object[]{offset, segmentFile(segmentId)});
+            channel.truncate(offset);
+            break;
+          }
+          LOGGER.log(Level.WARNING, "Skipping {0} corrupt bytes at {1} in {2}",
+              new Object[]{next - offset, offset, segmentFile(segmentId)});
+          index.addTotalBytes(next - offset);
+          offset = next;
+          continue;
+        }
+        int length = record.remaining();
+        int keyLen = record.getInt(KEY_LEN_POS);
+        byte[] keyBytes = new byte[keyLen];
+        System.arraycopy(record.array(), RECORD_HEADER_BYTES, keyBytes, 0, keyLen);
+        long hash = hash(keyBytes);
+        int slot = findSlot(keyBytes, hash);
+        if (record.getInt(VALUE_LEN_POS) < 0) {
+          if (slot >= 0) {
+            index.delete(slot);
+          }
+        } else if ((slot >= 0) || !isFull(index)) {
+          index.set((slot >= 0) ? slot : freeSlot(index, hash), hash, segmentId, (int) offset, length,
+              record.getLong(EXPIRES_POS));
+        }
+        index.addTotalBytes(length);
+        maybeResizeIndex();
+        offset += length;
+      }
+    }
+    index.force();
+    LOGGER.log(Level.INFO, "Rebuilt disk cache index for {0} with {1} entries in {2} msecs.",
+        new Object[]{directory, index.getCount(), (System.nanoTime() - startTime) / 1000000});
+  }
+
+  /**
+   * Grows the index (or purges deleted slots) once it is 70% full. At the
+   * maximum size it is only rebuilt once a tenth of it is deleted slots;
+   * otherwise a rebuild would free nothing, and see {@link #isFull(DiskIndex)}.
+   */
+  private void maybeResizeIndex() throws IOException {
+    int capacity = index.getCapacity();
+    if ((index.getCount() + index.getDeletedCount()) * 10L < capacity * 7L) {
+      return;
+    }
+    if ((capacityFor(index.getCount()) == capacity) && (index.getDeletedCount() * 10L < capacity)) {
+      return;
+    }
+    File tmpFile = new File(directory, INDEX_FILE + ".tmp");
+    DiskIndex newIndex = DiskIndex.create(tmpFile, capacityFor(index.getCount()));
+    for (int slot = 0; slot < capacity; slot++) {
+      if (!index.isEmpty(slot) && !index.isDeleted(slot)) {
+        long hash = index.hashAt(slot);
+        newIndex.set(freeSlot(newIndex, hash), hash, index.segmentAt(slot), index.offsetAt(slot),
+            index.lengthAt(slot), index.expiresAt(slot));
+      }
+    }
+    newIndex.addTotalBytes(index.getTotalBytes());
+    replaceIndex(newIndex, tmpFile);
+  }
+
+  private void replaceIndex(DiskIndex newIndex, File tmpFile) throws IOException {
+    newIndex.force();
+    index.close();
+    if (!tmpFile.renameTo(indexFile())) {
+      throw new IOException("Unable to replace index " + indexFile());
+    }
+    index = newIndex;
+  }
+
+  private static int capacityFor(int count) {
+    int capacity = MIN_CAPACITY;
+    while ((capacity < DiskIndex.MAX_CAPACITY) && (count * 10L >= capacity * 4L)) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Returns whether <code>target</code> can't take another key: it is at the
+   * maximum size and 80% full. Together with the deleted slots, at most a
+   * tenth more before they are purged, that leaves empty slots to end probes.
+   */
+  private static boolean isFull(DiskIndex target) {
+    return (target.getCapacity() >= DiskIndex.MAX_CAPACITY)
+        && (target.getCount() * 10L >= target.getCapacity() * 8L);
+  }
+
+  /** Returns the occupied slot holding <code>keyBytes</code>, or -1. */
+  private int findSlot(byte[] keyBytes, long hash) throws IOException {
+    int capacity = index.getCapacity();
+    int slot = index.firstSlot(hash);
+    for (int i = 0; i < capacity; i++, slot = index.nextSlot(slot)) {
+      if (index.isEmpty(slot)) {
+        return -1;
+      }
+      if (!index.isDeleted(slot) && (index.hashAt(slot) == hash) && keyMatches(slot, keyBytes)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the first empty or deleted slot in the probe chain of <code>hash</code>. */
+  private static int freeSlot(DiskIndex target, long hash) throws IOException {
+    int capacity = target.getCapacity();
+    int slot = target.firstSlot(hash);
+    for (int i = 0; i < capacity; i++, slot = target.nextSlot(slot)) {
+      if (target.isEmpty(slot) || target.isDeleted(slot)) {
+        return slot;
+      }
+    }
+    throw new IOException("Disk cache index is full");
+  }
+
+  private boolean keyMatches(int slot, byte[] keyBytes) throws IOException {
+    FileChannel channel = segments.get(index.segmentAt(slot));
+    if (channel == null) {
+      return false;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_BYTES + keyBytes.length);
+    readFully(channel, buf, index.offsetAt(slot));
+    if (buf.getInt(KEY_LEN_POS) != keyBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (buf.get(RECORD_HEADER_BYTES + i) != keyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the key of the record in <code>slot</code>, or null if it can't be read. */
+  private byte[] readKey(int slot) throws IOException {
+    FileChannel channel = segments.get(index.segmentAt(slot));
+    if (channel == null) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+    if (!readFully(channel, header, index.offsetAt(slot)) || (recordLength(header) != index.lengthAt(slot))) {
+      return null;
+    }
+    ByteBuffer key = ByteBuffer.allocate(header.getInt(KEY_LEN_POS));
+    if (!readFully(channel, key, index.offsetAt(slot) + RECORD_HEADER_BYTES)) {
+      return null;
+    }
+    return key.array();
+  }
+
+  /** Appends a record to the active segment, rolling to a new one if full. */
+  private int append(ByteBuffer record) throws IOException {
+    long offset = activeChannel.size();
+    if ((offset > 0) && (offset + record.remaining() > maxSegmentBytes)) {
+      openActiveSegment(activeSegmentId + 1);
+      offset = 0;
+    }
+    long position = offset;
+    while (record.hasRemaining()) {
+      position += activeChannel.write(record, position);
+    }
+    return (int) offset;
+  }
+
+  /** Reads and verifies the record at <code>offset</code> while scanning a segment, or returns null. */
+  private ByteBuffer readRecordAt(int segmentId, FileChannel channel, long offset, long size)
+      throws IOException {
+    if (offset + RECORD_OVERHEAD_BYTES > size) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+    readFully(channel, header, offset);
+    int length = recordLength(header);
+    if ((length < 0) || (offset + length > size)) {
+      return null;
+    }
+    return readRecord(segmentId, (int) offset, length);
+  }
+
+  /**
+   * Returns the offset of the first valid record at or after <code>from</code>,
+   * found by looking for its magic number, or -1 if there is none.
+   */
+  private long findNextRecord(int segmentId, FileChannel channel, long from, long size)
+      throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK_BYTES);
+    for (long start = from; start + RECORD_OVERHEAD_BYTES <= size; start += SCAN_CHUNK_BYTES - 3) {
+      chunk.clear();
+      chunk.limit((int) Math.min(SCAN_CHUNK_BYTES, size - start));
+      while (chunk.hasRemaining() && (channel.read(chunk, start + chunk.position()) >= 0)) {
+      }
+      for (int i = 0; i + 4 <= chunk.position(); i++) {
+        if ((chunk.getInt(i) == RECORD_MAGIC)
+            && (readRecordAt(segmentId, channel, start + i, size) != null)) {
+          return start + i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /** Reads and verifies a record, returning null (and logging) if it is corrupt. */
+  private ByteBuffer readRecord(int segmentId, int offset, int length) throws IOException {
+    FileChannel channel = segments.get(segmentId);
+    if ((channel == null) || (length < RECORD_OVERHEAD_BYTES)) {
+      return null;
+    }
+    ByteBuffer record = ByteBuffer.allocate(length);
+    if (!readFully(channel, record, offset) || (recordLength(record) != length)) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, length - 4);
+    if ((int) crc.getValue() != record.getInt(length - 4)) {
+      LOGGER.log(Level.WARNING, "Checksum mismatch at {0} in {1}", new Object[]{offset, segmentFile(segmentId)});
+      return null;
+    }
+    return record;
+  }
+
+  private static boolean readFully(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+    buf.clear();
+    while (buf.hasRemaining()) {
+      int bytesRead = channel.read(buf, offset + buf.position());
+      if (bytesRead < 0) {
+        return false;
+      }
+    }
+    buf.flip();
+    return true;
+  }
+
+  /** Returns the full length of the record whose header is in <code>buf</code>, or -1 if invalid. */
+  private static int recordLength(ByteBuffer buf) {
+    int keyLen = buf.getInt(KEY_LEN_POS);
+    int valueLen = buf.getInt(VALUE_LEN_POS);
+    int etagLen = buf.getInt(ETAG_LEN_POS);
+    int lastModifiedLen = buf.getInt(LAST_MODIFIED_LEN_POS);
+    if ((buf.getInt(0) != RECORD_MAGIC) || (keyLen < 0) || (valueLen < -1)
+        || (etagLen < -1) || (lastModifiedLen < -1)) {
+      return -1;
+    }
+    long length = (long) RECORD_OVERHEAD_BYTES + keyLen + Math.max(valueLen, 0)
+        + Math.max(etagLen, 0) + Math.max(lastModifiedLen, 0);
+    return (length > Integer.MAX_VALUE) ? -1 : (int) length;
+  }
+
+  /** Encodes a record; a null <code>valueBytes</code> makes a tombstone. */
+  private static ByteBuffer encodeRecord(byte[] keyBytes, byte[] valueBytes, long written, long expires,
+      byte[] etagBytes, byte[] lastModifiedBytes) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD_BYTES + keyBytes.length
+        + byteCount(valueBytes) + byteCount(etagBytes) + byteCount(lastModifiedBytes));
+    record.putInt(RECORD_MAGIC);
+    record.putInt(keyBytes.length);
+    record.putInt((valueBytes == null) ? -1 : valueBytes.length);
+    record.putLong(written);
+    record.putLong(expires);
+    record.putInt((etagBytes == null) ? -1 : etagBytes.length);
+    record.putInt((lastModifiedBytes == null) ? -1 : lastModifiedBytes.length);
+    record.put(keyBytes);
+    if (etagBytes != null) {
+      record.put(etagBytes);
+    }
+    if (lastModifiedBytes != null) {
+      record.put(lastModifiedBytes);
+    }
+    if (valueBytes != null) {
+      record.put(valueBytes);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, record.position());
+    record.putInt((int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  private static int byteCount(byte[] bytes) {
+    return (bytes == null) ? 0 : bytes.length;
+  }
+
+  /** Decodes <code>length</code> bytes of <code>record</code>; a length of -1 is null. */
+  private static String decodeString(ByteBuffer record, int offset, int length) {
+    return (length < 0) ? null : new String(record.array(), offset, length, UTF8);
+  }
+
+  /** 64-bit FNV-1a, never 0 since 0 marks an empty index slot. */
+  private static long hash(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash ^= (b & 0xff);
+      hash *= 0x100000001b3L;
+    }
+    return (hash == 0) ? 1 : hash;
+  }
+
+  private void maybeScheduleCompaction() {
+    if (compactionRatio <= 0.0) {
+      return;
+    }
+    long total = getTotalBytes();
+    if ((total < compactionMinBytes) || (getLiveBytes() >= total * compactionRatio)) {
+      return;
+    }
+    if (compactionScheduled.compareAndSet(false, true)) {
+      try {
+        compactor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              compact();
+            } catch (IOException e) {
+              LOGGER.log(Level.WARNING, "Disk cache compaction failed for " + directory, e);
+            } finally {
+              compactionScheduled.set(false);
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        // rejected because we're closing
+        compactionScheduled.set(false);
+      }
+    }
+  }
+
+  //// Internal Rep
+
+  private static final Logger LOGGER = Logger.getLogger(DiskResponseCache.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String INDEX_FILE = "index.idx";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final long NEVER = Long.MAX_VALUE;
+  private static final int MIN_CAPACITY = 1024;
+  private static final int SCAN_CHUNK_BYTES = 64 * 1024;
+
+  /**
+   * Record layout: int magic, int key length, int value length (-1 for a
+   * tombstone), long written millis, long expiry millis, int ETag length and
+   * int Last-Modified length (-1 for none), key bytes, ETag bytes,
+   * Last-Modified bytes, value bytes, int CRC32 of everything before it.
+   */
+  private static final int RECORD_MAGIC = 0x57535243; // "WSRC"
+  private static final int KEY_LEN_POS = 4;
+  private static final int VALUE_LEN_POS = 8;
+  private static final int WRITTEN_POS = 12;
+  private static final int EXPIRES_POS = 20;
+  private static final int ETAG_LEN_POS = 28;
+  private static final int LAST_MODIFIED_LEN_POS = 32;
+  private static final int RECORD_HEADER_BYTES = 36;
+  private static final int RECORD_OVERHEAD_BYTES = RECORD_HEADER_BYTES + 4;
+
+  private final File directory;
+  private final long defaultTtlMillis;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<Integer, FileChannel> segments = new TreeMap<Integer, FileChannel>();
+  private DiskIndex index;
+  private int activeSegmentId;
+  private FileChannel activeChannel;
+  private volatile long maxSegmentBytes = 64L * 1024 * 1024;
+  private volatile double compactionRatio = 0.5;
+  private volatile long compactionMinBytes = 16L * 1024 * 1024;
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder compactions = new LongAdder();
+  private final LongAdder full = new LongAdder();
+
+  /** Runs compactions off the request path. */
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "DiskResponseCache-compactor");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+//// External Imports
+
+/**
+ * <p/>A value in the in-memory cache of a <code>GenericRestfulWSClient</code>,
+ * with the freshness lifetime and HTTP validators (<code>ETag</code>,
+ * <code>Last-Modified</code>) of the response it came from. Once an entry
+ * expires, the client revalidates it with a conditional request and, on
+ * <code>304 Not Modified</code>, keeps the value under a new entry instead of
+ * downloading it again. An expired entry may also be served for a while
+ * (RFC 5861 <code>stale-while-revalidate</code> and <code>stale-if-error</code>)
+ * while it is refreshed in the background or while the upstream is failing.
+ * <p/>
+ * Entries are immutable and safe to share between threads.
+ */
+public final class WSCacheEntry {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCacheEntry</code>.
+   * @param value the cached value
+   * @param source the value this one was derived from (e.g. the response text
+   * a <code>Document</code> was parsed from), or null
+   * @param storedAt when the value was fetched or last revalidated, in epoch millis
+   * @param expiresAt when the value stops being fresh, in epoch millis, or {@link #NEVER}
+   * @param etag the <code>ETag</code> response header, or null
+   * @param lastModified the <code>Last-Modified</code> response header, or null
+   */
+  public WSCacheEntry(Object value, Object source, long storedAt, long expiresAt,
+      String etag, String lastModified) {
+    this(value, source, storedAt, expiresAt, etag, lastModified, 0, 0);
+  }
+
+  /**
+   * Creates a new instance of <code>WSCacheEntry</code> that may be served
+   * stale for a while after it expires.
+   * @param value the cached value
+   * @param source the value this one was derived from, or null
+   * @param storedAt when the value was fetched or last revalidated, in epoch millis
+   * @param expiresAt when the value stops being fresh, in epoch millis, or {@link #NEVER}
+   * @param etag the <code>ETag</code> response header, or null
+   * @param lastModified the <code>Last-Modified</code> response header, or null
+   * @param staleWhileRevalidateMillis how long after expiry the value may be
+   * served while it is refreshed in the background
+   * @param staleIfErrorMillis how long after expiry the value may be served
+   * when refreshing it fails
+   */
+  public WSCacheEntry(Object value, Object source, long storedAt, long expiresAt,
+      String etag, String lastModified, long staleWhileRevalidateMillis, long staleIfErrorMillis) {
+    if (value == null) {
+      throw new IllegalArgumentException("Got null cache value.");
+    }
+    this.value = value;
+    this.source = source;
+    this.storedAt = storedAt;
+    this.expiresAt = expiresAt;
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.staleWhileRevalidateMillis = Math.max(0, staleWhileRevalidateMillis);
+    this.staleIfErrorMillis = Math.max(0, staleIfErrorMillis);
+  }
+
+  //// Public Area
+
+  /** Expiry time of entries that never expire. */
+  public static final long NEVER = Long.MAX_VALUE;
+
+  public Object getValue() {
+    return value;
+  }
+
+  public Object getSource() {
+    return source;
+  }
+
+  public long getStoredAt() {
+    return storedAt;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public String getETag() {
+    return etag;
+  }
+
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /** Returns whether the entry may be used at <code>now</code> without revalidation. */
+  public boolean isFresh(long now) {
+    return now < expiresAt;
+  }
+
+  /**
+   * Returns whether the entry is fresh at <code>now</code> but has used up
+   * <code>fraction</code> of its lifetime, and so is worth refreshing ahead of expiry.
+   */
+  public boolean isNearExpiry(long now, double fraction) {
+    if ((expiresAt == NEVER) || !isFresh(now)) {
+      return false;
+    }
+    return now - storedAt >= (long) ((expiresAt - storedAt) * fraction);
+  }
+
+  /** Returns whether the expired entry may be served at <code>now</code> while it is refreshed. */
+  public boolean isStaleWhileRevalidate(long now) {
+    return !isFresh(now) && (now - expiresAt < staleWhileRevalidateMillis);
+  }
+
+  /** Returns whether the expired entry may be served at <code>now</code> because refreshing it failed. */
+  public boolean isStaleIfError(long now) {
+    return !isFresh(now) && (now - expiresAt < staleIfErrorMillis);
+  }
+
+  public long getStaleWhileRevalidateMillis() {
+    return staleWhileRevalidateMillis;
+  }
+
+  public long getStaleIfErrorMillis() {
+    return staleIfErrorMillis;
+  }
+
+  /** Returns whether the entry can be revalidated with a conditional request. */
+  public boolean hasValidators() {
+    return (etag != null) || (lastModified != null);
+  }
+
+  /**
+   * Returns a copy of this entry with a new lifetime and, where given, new validators.
+   * @param newStoredAt when the value was revalidated
+   * @param newExpiresAt the new expiry time
+   * @param newEtag the new <code>ETag</code>, or null to keep the current one
+   * @param newLastModified the new <code>Last-Modified</code>, or null to keep the current one
+   * @param newStaleWhileRevalidateMillis the new stale-while-revalidate window
+   * @param newStaleIfErrorMillis the new stale-if-error window
+   * @return the refreshed entry
+   */
+  public WSCacheEntry refresh(long newStoredAt, long newExpiresAt, String newEtag, String newLastModified,
+      long newStaleWhileRevalidateMillis, long newStaleIfErrorMillis) {
+    return new WSCacheEntry(value, source, newStoredAt, newExpiresAt,
+        (newEtag != null) ? newEtag : etag, (newLastModified != null) ? newLastModified : lastModified,
+        newStaleWhileRevalidateMillis, newStaleIfErrorMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "WSCacheEntry[storedAt=" + storedAt
+        + ", expiresAt=" + ((expiresAt == NEVER) ? "never" : String.valueOf(expiresAt))
+        + ((etag != null) ? ", etag=" + etag : "")
+        + ((lastModified != null) ? ", lastModified=" + lastModified : "") + "]";
+  }
+
+  //// Internal Rep
+
+  private final Object value;
+  private final Object source;
+  private final long storedAt;
+  private final long expiresAt;
+  private final String etag;
+  private final String lastModified;
+  private final long staleWhileRevalidateMillis;
+  private final long staleIfErrorMillis;
+}
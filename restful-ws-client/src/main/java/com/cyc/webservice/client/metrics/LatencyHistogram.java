@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+//// Internal Imports
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//// External Imports
+
+/**
+ * <p/>LatencyHistogram is a lock-free, fixed-size histogram of nanosecond
+ * durations. Values are grouped into log-linear buckets: every power of two
+ * is split into 16 equally sized sub-buckets, so any reported percentile is
+ * within ~6% of the true value. Recording a value is a handful of shifts and
+ * one atomic increment, which makes it cheap enough to sit on every call.
+ * <p/>
+ * Values larger than roughly 18 minutes are clamped into the last bucket.
+ */
+public class LatencyHistogram {
+
+  //// Constructors
+
+  /** Creates a new, empty instance of <code>LatencyHistogram</code>. */
+  public LatencyHistogram() {
+  }
+
+  //// Public Area
+
+  /**
+   * Records one observation.
+   * @param nanos the duration in nanoseconds; negative values are recorded as 0
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(indexFor(nanos));
+    count.increment();
+    sum.add(nanos);
+    long curMax;
+    while (nanos > (curMax = max.get())) {
+      if (max.compareAndSet(curMax, nanos)) {
+        break;
+      }
+    }
+  }
+
+  /** Returns the number of recorded observations. */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** Returns the sum of all recorded observations in nanoseconds. */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /** Returns the largest recorded observation in nanoseconds, or 0 if empty. */
+  public long getMax() {
+    return max.get();
+  }
+
+  /** Returns the mean of all recorded observations in nanoseconds, or 0 if empty. */
+  public double getMean() {
+    long n = getCount();
+    return (n == 0) ? 0.0 : ((double) getSum()) / n;
+  }
+
+  /**
+   * Returns the (approximate) value below which <code>percentile</code> percent
+   * of the observations fall.
+   * @param percentile a value between 0 and 100
+   * @return the value at the percentile in nanoseconds, or 0 if empty
+   * @throws IllegalArgumentException if percentile is not between 0 and 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    if ((percentile < 0.0) || (percentile > 100.0)) {
+      throw new IllegalArgumentException("Invalid percentile: " + percentile);
+    }
+    long[] snapshot = new long[NUM_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil((percentile / 100.0) * total));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        return Math.min(highestValueFor(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Clears all recorded observations. Observations recorded concurrently
+   * with a reset may be partially lost.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount()
+        + " mean=" + (long) getMean()
+        + " p50=" + getValueAtPercentile(50)
+        + " p99=" + getValueAtPercentile(99)
+        + " max=" + getMax();
+  }
+
+  //// Protected Area
+
+  //// Private Area
+
+  private static int indexFor(long nanos) {
+    if (nanos > MAX_TRACKABLE) {
+      nanos = MAX_TRACKABLE;
+    }
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(nanos);
+    int bucket = msb - SUB_BUCKET_BITS + 1;
+    int sub = (int) (nanos >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (bucket << SUB_BUCKET_BITS) + sub;
+  }
+
+  private static long highestValueFor(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int bucket = index >>> SUB_BUCKET_BITS;
+    int sub = index & (SUB_BUCKETS - 1);
+    int shift = bucket - 1;
+    long lowest = ((long) (SUB_BUCKETS + sub)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  //// Internal Rep
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Largest value that gets its own bucket, ~18 minutes in nanoseconds. */
+  private static final long MAX_TRACKABLE = (1L << 40) - 1;
+
+  private static final int NUM_BUCKETS = indexFor(MAX_TRACKABLE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+}
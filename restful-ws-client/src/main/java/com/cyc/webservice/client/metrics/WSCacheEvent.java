@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+/**
+ * Cache events beyond plain hits and misses: background refreshes, stale
+ * results served in place of an upstream call, and entries invalidated or
+ * updated by writes.
+ */
+public enum WSCacheEvent {
+
+  /** A background refresh was queued. */
+  REFRESH_SCHEDULED("refresh.scheduled"),
+  /** A background refresh stored a new or revalidated result. */
+  REFRESH_COMPLETED("refresh.completed"),
+  /** A background refresh failed; the cached result was left in place. */
+  REFRESH_FAILED("refresh.failed"),
+  /** A background refresh was dropped because the refresh queue was full. */
+  REFRESH_REJECTED("refresh.rejected"),
+  /** A stale result was served while it is refreshed in the background. */
+  STALE_WHILE_REVALIDATE("stale.whileRevalidate"),
+  /** A stale result was served because the upstream call failed. */
+  STALE_IF_ERROR("stale.ifError"),
+  /** A cached result was removed because a PUT, DELETE or PATCH changed it. */
+  INVALIDATED("invalidated"),
+  /** A fetched result wasn't cached because a write to it completed meanwhile. */
+  INVALIDATED_IN_FLIGHT("invalidated.inFlight"),
+  /** A PUT response was cached as the new result of its target. */
+  WRITE_THROUGH("writeThrough");
+
+  private WSCacheEvent(String displayName) {
+    this.displayName = displayName;
+  }
+
+  /** Returns the name used for this event in exported metric names. */
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  private final String displayName;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+/**
+ * The shape in which a web service call returns its result. Latency
+ * is tracked separately for each call type and HTTP method.
+ */
+public enum WSCallType {
+
+  /** The whole body read into a <code>String</code>. */
+  STRING("String"),
+  /** The body handed back as an <code>InputStream</code>. */
+  STREAM("Stream"),
+  /** The body handed back as a <code>Reader</code>. */
+  READER("Reader"),
+  /** The body handed back as a <code>javax.xml.transform.Source</code>. */
+  SOURCE("Source"),
+  /** The body fetched and parsed into a DOM <code>Document</code>. */
+  XML("XML"),
+  /** The body fetched and parsed as JSON, into a tree or as events. */
+  JSON("JSON"),
+  /** The body read only as far as needed to project a few values out of its XML. */
+  PROJECTION("Projection");
+
+  private WSCallType(String displayName) {
+    this.displayName = displayName;
+  }
+
+  /** Returns the name used for this call type in exported metric names. */
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  private final String displayName;
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+//// Internal Imports
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+//// External Imports
+
+/**
+ * <p/>WSClientMetrics collects the call statistics of one or more
+ * <code>GenericRestfulWSClient</code> instances: call latency per call type and
+ * HTTP method, time to first byte, bytes sent and received, errors by HTTP
+ * status, cache hits, misses, revalidations and evictions, background
+ * refresh and stale serving events, scheduler queue wait per priority, and,
+ * over an HTTP/2 transport, the streams and connections opened.
+ * <p/>
+ * All recording methods are lock-free and allocation free on the steady state,
+ * so a single instance can be shared by many clients and threads. Metrics can
+ * be pulled with {@link #snapshot()}, pushed to a {@link WSMetricsRegistry}
+ * with {@link #exportTo(String, WSMetricsRegistry)}, or published over JMX with
+ * {@link #registerMBean(String)}.
+ */
+public class WSClientMetrics {
+
+  //// Constructors
+
+  /** Creates a new instance of <code>WSClientMetrics</code> with all counts at zero. */
+  public WSClientMetrics() {
+  }
+
+  //// Public Area
+
+  /** Status code used by {@link #recordError(int)} when no HTTP status was received. */
+  public static final int NO_STATUS = -1;
+
+  /**
+   * Records the latency of a completed call.
+   * @param type the shape in which the result was returned
+   * @param method the HTTP method, e.g. "GET"
+   * @param nanos the elapsed time in nanoseconds
+   */
+  public void recordCall(WSCallType type, String method, long nanos) {
+    getLatency(type, method).record(nanos);
+  }
+
+  /**
+   * Records the time between starting a request and receiving the response headers.
+   * @param method the HTTP method, e.g. "GET"
+   * @param nanos the elapsed time in nanoseconds
+   */
+  public void recordTimeToFirstByte(String method, long nanos) {
+    getTimeToFirstByte(method).record(nanos);
+  }
+
+  /** Records <code>bytes</code> bytes read from the web service. */
+  public void recordBytesIn(long bytes) {
+    bytesIn.add(bytes);
+  }
+
+  /** Records <code>bytes</code> bytes written to the web service. */
+  public void recordBytesOut(long bytes) {
+    bytesOut.add(bytes);
+  }
+
+  /**
+   * Records a failed request.
+   * @param status the HTTP status code, or {@link #NO_STATUS} if the request
+   * failed before a status was received
+   */
+  public void recordError(int status) {
+    LongAdder counter = errors.get(status);
+    if (counter == null) {
+      LongAdder newCounter = new LongAdder();
+      counter = errors.putIfAbsent(status, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.increment();
+  }
+
+  /** Records a cache lookup that found a value. */
+  public void recordCacheHit() {
+    cacheHits.increment();
+  }
+
+  /** Records a cache lookup that found nothing. */
+  public void recordCacheMiss() {
+    cacheMisses.increment();
+  }
+
+  /** Records a stale cache entry renewed by a 304 Not Modified response. */
+  public void recordCacheRevalidation() {
+    cacheRevalidations.increment();
+  }
+
+  /** Records a background refresh, stale serving or invalidation event. */
+  public void recordCacheEvent(WSCacheEvent event) {
+    cacheEvents[event.ordinal()].increment();
+  }
+
+  /**
+   * Records how long a request waited for the request scheduler.
+   * @param priority the request's priority
+   * @param nanos the wait in nanoseconds
+   */
+  public void recordQueueWait(WSPriority priority, long nanos) {
+    queueWaits[priority.ordinal()].record(nanos);
+  }
+
+  /** Records <code>count</code> entries removed from the cache. */
+  public void recordCacheEvictions(long count) {
+    cacheEvictions.add(count);
+  }
+
+  /** Records an exchange made as a stream over an HTTP/2 connection. */
+  public void recordHttp2Stream() {
+    http2Streams.increment();
+  }
+
+  /** Records the first exchange over a new HTTP/2 connection. */
+  public void recordHttp2Connection() {
+    http2Connections.increment();
+  }
+
+  /** Records an exchange over an HTTP/2 transport that the server answered over HTTP/1.1. */
+  public void recordHttp1Exchange() {
+    http1Exchanges.increment();
+  }
+
+  /**
+   * Returns the latency histogram for the given call type and method, creating it if needed.
+   * @param type the call type
+   * @param method the HTTP method, e.g. "GET"
+   * @return the live histogram, values in nanoseconds
+   */
+  public LatencyHistogram getLatency(WSCallType type, String method) {
+    return histogramsFor(method)[type.ordinal()];
+  }
+
+  /**
+   * Returns the time to first byte histogram for the given method, creating it if needed.
+   * @param method the HTTP method, e.g. "GET"
+   * @return the live histogram, values in nanoseconds
+   */
+  public LatencyHistogram getTimeToFirstByte(String method) {
+    return histogramsFor(method)[TTFB_INDEX];
+  }
+
+  /** Returns the total number of bytes read from the web service. */
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  /** Returns the total number of bytes written to the web service. */
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Returns the number of failed requests keyed by HTTP status code;
+   * {@link #NO_STATUS} counts failures that never received a status.
+   * @return a sorted copy of the error counts
+   */
+  public Map<Integer, Long> getErrorCounts() {
+    Map<Integer, Long> result = new TreeMap<Integer, Long>();
+    for (Map.Entry<Integer, LongAdder> entry : errors.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result;
+  }
+
+  /** Returns the number of cache lookups that found a value. */
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  /** Returns the number of cache lookups that found nothing. */
+  public long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  /** Returns the number of stale cache entries renewed by a 304 Not Modified response. */
+  public long getCacheRevalidations() {
+    return cacheRevalidations.sum();
+  }
+
+  /** Returns the number of times <code>event</code> happened. */
+  public long getCacheEventCount(WSCacheEvent event) {
+    return cacheEvents[event.ordinal()].sum();
+  }
+
+  /**
+   * Returns the scheduler queue wait histogram for the given priority.
+   * @param priority the priority
+   * @return the live histogram, values in nanoseconds
+   */
+  public LatencyHistogram getQueueWait(WSPriority priority) {
+    return queueWaits[priority.ordinal()];
+  }
+
+  /** Returns the number of entries removed from the cache. */
+  public long getCacheEvictions() {
+    return cacheEvictions.sum();
+  }
+
+  /** Returns the number of exchanges made as HTTP/2 streams. */
+  public long getHttp2Streams() {
+    return http2Streams.sum();
+  }
+
+  /** Returns the number of HTTP/2 connections opened. */
+  public long getHttp2Connections() {
+    return http2Connections.sum();
+  }
+
+  /** Returns the number of exchanges over an HTTP/2 transport answered over HTTP/1.1. */
+  public long getHttp1Exchanges() {
+    return http1Exchanges.sum();
+  }
+
+  /**
+   * Returns the fraction of cache lookups that found a value.
+   * @return a value between 0 and 1, or 0 if there have been no lookups
+   */
+  public double getCacheHitRatio() {
+    long hits = getCacheHits();
+    long total = hits + getCacheMisses();
+    return (total == 0) ? 0.0 : ((double) hits) / total;
+  }
+
+  /** Resets every metric to zero. */
+  public void reset() {
+    for (LatencyHistogram[] histograms : latencies.values()) {
+      for (LatencyHistogram histogram : histograms) {
+        histogram.reset();
+      }
+    }
+    bytesIn.reset();
+    bytesOut.reset();
+    errors.clear();
+    cacheHits.reset();
+    cacheMisses.reset();
+    cacheRevalidations.reset();
+    for (LongAdder counter : cacheEvents) {
+      counter.reset();
+    }
+    cacheEvictions.reset();
+    for (LatencyHistogram histogram : queueWaits) {
+      histogram.reset();
+    }
+    http2Streams.reset();
+    http2Connections.reset();
+    http1Exchanges.reset();
+  }
+
+  /**
+   * Walks every metric and reports it to <code>registry</code>.
+   * @param prefix prepended with a '.' to every metric name, or null for none
+   * @param registry the registry to report to
+   */
+  public void exportTo(String prefix, WSMetricsRegistry registry) {
+    String p = ((prefix == null) || "".equals(prefix)) ? "" : prefix + ".";
+    for (Map.Entry<String, LatencyHistogram[]> entry : latencies.entrySet()) {
+      LatencyHistogram[] histograms = entry.getValue();
+      for (WSCallType type : WSCallType.values()) {
+        LatencyHistogram histogram = histograms[type.ordinal()];
+        if (histogram.getCount() > 0) {
+          registry.histogram(p + "latency." + entry.getKey() + "." + type.getDisplayName(), histogram);
+        }
+      }
+      if (histograms[TTFB_INDEX].getCount() > 0) {
+        registry.histogram(p + "ttfb." + entry.getKey(), histograms[TTFB_INDEX]);
+      }
+    }
+    registry.counter(p + "bytes.in", getBytesIn());
+    registry.counter(p + "bytes.out", getBytesOut());
+    for (Map.Entry<Integer, Long> entry : getErrorCounts().entrySet()) {
+      registry.counter(p + "errors." + statusName(entry.getKey()), entry.getValue());
+    }
+    registry.counter(p + "cache.hits", getCacheHits());
+    registry.counter(p + "cache.misses", getCacheMisses());
+    registry.counter(p + "cache.revalidations", getCacheRevalidations());
+    registry.counter(p + "cache.evictions", getCacheEvictions());
+    for (WSCacheEvent event : WSCacheEvent.values()) {
+      registry.counter(p + "cache." + event.getDisplayName(), getCacheEventCount(event));
+    }
+    registry.gauge(p + "cache.hitRatio", getCacheHitRatio());
+    for (WSPriority priority : WSPriority.values()) {
+      LatencyHistogram histogram = queueWaits[priority.ordinal()];
+      if (histogram.getCount() > 0) {
+        registry.histogram(p + "queue.wait." + priority.getDisplayName(), histogram);
+      }
+    }
+    if ((getHttp2Streams() > 0) || (getHttp1Exchanges() > 0)) {
+      registry.counter(p + "http2.streams", getHttp2Streams());
+      registry.counter(p + "http2.connections", getHttp2Connections());
+      registry.counter(p + "http2.http1Exchanges", getHttp1Exchanges());
+    }
+  }
+
+  /**
+   * Returns a flat, sorted view of every metric. Histograms are expanded into
+   * <code>.count</code>, <code>.mean</code>, <code>.p50</code>, <code>.p90</code>,
+   * <code>.p99</code>, <code>.p999</code> and <code>.max</code> entries, in nanoseconds.
+   * @return a name to value map
+   */
+  public Map<String, Number> snapshot() {
+    final Map<String, Number> result = new TreeMap<String, Number>();
+    exportTo(null, new WSMetricsRegistry() {
+      @Override
+      public void counter(String name, long value) {
+        result.put(name, value);
+      }
+
+      @Override
+      public void gauge(String name, double value) {
+        result.put(name, value);
+      }
+
+      @Override
+      public void histogram(String name, LatencyHistogram histogram) {
+        result.put(name + ".count", histogram.getCount());
+        result.put(name + ".mean", (long) histogram.getMean());
+        result.put(name + ".p50", histogram.getValueAtPercentile(50));
+        result.put(name + ".p90", histogram.getValueAtPercentile(90));
+        result.put(name + ".p99", histogram.getValueAtPercentile(99));
+        result.put(name + ".p999", histogram.getValueAtPercentile(99.9));
+        result.put(name + ".max", histogram.getMax());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Publishes these metrics on the platform MBean server as read-only attributes.
+   * @param objectName the JMX object name, e.g.
+   * <code>com.cyc.webservice.client:type=WSClientMetrics,name=concept-find</code>
+   * @return the registered object name
+   * @throws JMException if the name is malformed or already registered
+   */
+  public ObjectName registerMBean(String objectName) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(objectName);
+    server.registerMBean(new WSClientMetricsJmx(this), name);
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return "WSClientMetrics" + snapshot();
+  }
+
+  //// Protected Area
+
+  //// Private Area
+
+  private LatencyHistogram[] histogramsFor(String method) {
+    LatencyHistogram[] result = latencies.get(method);
+    if (result == null) {
+      LatencyHistogram[] newHistograms = newHistograms(TTFB_INDEX + 1);
+      result = latencies.putIfAbsent(method, newHistograms);
+      if (result == null) {
+        result = newHistograms;
+      }
+    }
+    return result;
+  }
+
+  private static LongAdder[] newCounters(int size) {
+    LongAdder[] result = new LongAdder[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = new LongAdder();
+    }
+    return result;
+  }
+
+  private static LatencyHistogram[] newHistograms(int size) {
+    LatencyHistogram[] result = new LatencyHistogram[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = new LatencyHistogram();
+    }
+    return result;
+  }
+
+  private static String statusName(int status) {
+    return (status == NO_STATUS) ? "io" : String.valueOf(status);
+  }
+
+  //// Internal Rep
+
+  /** Slot for the time to first byte histogram, after one slot per call type. */
+  private static final int TTFB_INDEX = WSCallType.values().length;
+
+  /** HTTP method to per call type latency histograms, plus time to first byte. */
+  private final ConcurrentMap<String, LatencyHistogram[]> latencies =
+      new ConcurrentHashMap<String, LatencyHistogram[]>();
+  private final ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<Integer, LongAdder>();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+  private final LongAdder cacheRevalidations = new LongAdder();
+  private final LongAdder cacheEvictions = new LongAdder();
+  private final LongAdder[] cacheEvents = newCounters(WSCacheEvent.values().length);
+  private final LatencyHistogram[] queueWaits = newHistograms(WSPriority.values().length);
+  private final LongAdder http2Streams = new LongAdder();
+  private final LongAdder http2Connections = new LongAdder();
+  private final LongAdder http1Exchanges = new LongAdder();
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+//// Internal Imports
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+//// External Imports
+
+/**
+ * Exposes a {@link WSClientMetrics#snapshot()} as read-only JMX attributes, plus
+ * a <code>reset</code> operation. The attribute set follows whatever metrics have
+ * been recorded so far, so it is recomputed on each <code>getMBeanInfo</code>.
+ */
+class WSClientMetricsJmx implements DynamicMBean {
+
+  //// Constructors
+
+  WSClientMetricsJmx(WSClientMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  //// Public Area
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Number value = metrics.snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics attribute " + attribute.getName() + " is read-only.");
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Number> snapshot = metrics.snapshot();
+    AttributeList result = new AttributeList();
+    for (String attribute : attributes) {
+      Number value = snapshot.get(attribute);
+      if (value != null) {
+        result.add(new Attribute(attribute, value));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    if ("reset".equals(actionName)) {
+      metrics.reset();
+      return null;
+    }
+    throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation: " + actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (Map.Entry<String, Number> entry : metrics.snapshot().entrySet()) {
+      attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+          entry.getKey(), true, false, false));
+    }
+    MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets every metric to zero.",
+        null, "void", MBeanOperationInfo.ACTION);
+    return new MBeanInfo(getClass().getName(), "Web service client metrics",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+        new MBeanOperationInfo[]{reset}, null);
+  }
+
+  //// Internal Rep
+
+  private final WSClientMetrics metrics;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+/**
+ * <p/>A minimal sink for exporting {@link WSClientMetrics}. Implement this
+ * to bridge into whatever metrics library the application already uses;
+ * {@link WSClientMetrics#exportTo(String, WSMetricsRegistry)} walks every
+ * metric once and hands it to the registry.
+ * <p/>
+ * Metric names are dot separated, e.g. <code>prefix.latency.GET.String</code>.
+ */
+public interface WSMetricsRegistry {
+
+  /**
+   * Reports a monotonically increasing count.
+   * @param name the metric name
+   * @param value the current count
+   */
+  void counter(String name, long value);
+
+  /**
+   * Reports a point-in-time value.
+   * @param name the metric name
+   * @param value the current value
+   */
+  void gauge(String name, double value);
+
+  /**
+   * Reports a latency distribution. The histogram is live; implementations
+   * that need a stable view should copy out what they need immediately.
+   * @param name the metric name
+   * @param histogram the histogram, values in nanoseconds
+   */
+  void histogram(String name, LatencyHistogram histogram);
+}
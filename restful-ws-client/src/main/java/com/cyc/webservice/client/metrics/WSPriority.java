@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.metrics;
+
+/**
+ * The priority class of a request, from most to least urgent, used to share
+ * a client's connections between user-facing and background traffic.
+ */
+public enum WSPriority {
+
+  /** A user is waiting on the result. */
+  INTERACTIVE("interactive"),
+  /** The default. */
+  NORMAL("normal"),
+  /** Background or batch work that can wait. */
+  BULK("bulk");
+
+  private WSPriority(String displayName) {
+    this.displayName = displayName;
+  }
+
+  /** Returns the name used for this priority in exported metric names. */
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  private final String displayName;
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.recording;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.metrics.WSCallType;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+//// External Imports
+
+/**
+ * Reads a call log written by {@link WSCallLogWriter}. Instances are not thread-safe.
+ */
+public class WSCallLogReader implements Closeable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCallLogReader</code> and checks the log header.
+   * @param in the stream to read from; it is buffered by this reader
+   * @throws IOException if the stream is not a call log of a supported version
+   */
+  public WSCallLogReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(in, 1024 * 32));
+    if (this.in.readInt() != WSCallLogWriter.MAGIC) {
+      throw new IOException("Not a web service call log.");
+    }
+    version = this.in.readUnsignedByte();
+    if ((version != 1) && (version != WSCallLogWriter.VERSION)) {
+      throw new IOException("Unsupported call log version: " + version);
+    }
+  }
+
+  //// Public Area
+
+  /**
+   * Reads every record in <code>file</code>.
+   * @param file the call log
+   * @return the records, in the order they were written
+   * @throws IOException if the file can't be read or is not a call log
+   */
+  public static List<WSCallRecord> readAll(File file) throws IOException {
+    WSCallLogReader reader = new WSCallLogReader(new FileInputStream(file));
+    try {
+      List<WSCallRecord> result = new ArrayList<WSCallRecord>();
+      WSCallRecord record;
+      while ((record = reader.read()) != null) {
+        result.add(record);
+      }
+      return result;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the next record.
+   * @return the next record, or null at the end of the log
+   * @throws IOException if reading fails or the log is corrupt
+   */
+  public WSCallRecord read() throws IOException {
+    int first = in.read();
+    if (first < 0) {
+      return null;
+    }
+    long startMicros = readVarLong(first);
+    String method = readString();
+    int flags = in.readUnsignedByte();
+    int callTypeIndex = flags & WSCallLogWriter.CALL_TYPE_MASK;
+    if (callTypeIndex >= CALL_TYPES.length) {
+      throw new IOException("Corrupt call log: unknown call type " + callTypeIndex);
+    }
+    int status = (int) readVarLong(in.readUnsignedByte()) - 1;
+    long responseBytes = readVarLong(in.readUnsignedByte());
+    long latencyMicros = readVarLong(in.readUnsignedByte());
+    String[] params = new String[(int) readVarLong(in.readUnsignedByte())];
+    for (int i = 0; i < params.length; i++) {
+      params[i] = readString();
+    }
+    return new WSCallRecord(startMicros, method, CALL_TYPES[callTypeIndex], params,
+        status, responseBytes, latencyMicros,
+        (flags & WSCallLogWriter.FLAG_CACHE_HIT) != 0, (flags & WSCallLogWriter.FLAG_FAILED) != 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  //// Private Area
+
+  private String readString() throws IOException {
+    long tag = readVarLong(in.readUnsignedByte());
+    if (version == 1) { // 0 = new string in modified UTF-8, else a reference + 1; never cleared
+      if (tag == 0) {
+        String result = in.readUTF();
+        dictionary.add(result);
+        return result;
+      }
+      return getDictionaryString(tag - 1);
+    }
+    if ((tag == WSCallLogWriter.TAG_INTERNED) || (tag == WSCallLogWriter.TAG_LITERAL)) {
+      long length = readVarLong(in.readUnsignedByte());
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Corrupt call log: string of " + length + " bytes");
+      }
+      byte[] bytes = new byte[(int) length];
+      in.readFully(bytes);
+      String result = new String(bytes, WSCallLogWriter.UTF8);
+      if (tag == WSCallLogWriter.TAG_INTERNED) {
+        if (dictionary.size() == WSCallLogWriter.MAX_DICTIONARY_SIZE) {
+          dictionary.clear();
+        }
+        dictionary.add(result);
+      }
+      return result;
+    }
+    return getDictionaryString(tag - WSCallLogWriter.TAG_FIRST_REFERENCE);
+  }
+
+  private String getDictionaryString(long index) throws IOException {
+    if (index >= dictionary.size()) {
+      throw new IOException("Corrupt call log: unknown string #" + index);
+    }
+    return dictionary.get((int) index);
+  }
+
+  /** Reads a varint whose first byte has already been read. */
+  private long readVarLong(int firstByte) throws IOException {
+    long result = firstByte & 0x7f;
+    int shift = 7;
+    int b = firstByte;
+    while ((b & 0x80) != 0) {
+      if (shift > 63) {
+        throw new IOException("Corrupt call log: varint too long");
+      }
+      b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      result |= ((long) (b & 0x7f)) << shift;
+      shift += 7;
+    }
+    return result;
+  }
+
+  //// Internal Rep
+
+  private static final WSCallType[] CALL_TYPES = WSCallType.values();
+
+  private final DataInputStream in;
+  private final int version;
+  private final List<String> dictionary = new ArrayList<String>();
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.recording;
+
+//// Internal Imports
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+//// External Imports
+
+/**
+ * <p/>Writes {@link WSCallRecord}s in the compact binary call log format read by
+ * {@link WSCallLogReader}.
+ * <p/>
+ * The format is a 4 byte magic number and a version byte, then one entry per
+ * call. Numbers are written as unsigned LEB128 varints. Strings (methods,
+ * parameter names and values) are written as a tag, then for a new string its
+ * UTF-8 length and bytes. Short strings are interned into a dictionary as
+ * the log is written: the first occurrence is written in full, later ones as
+ * a back reference, so logs of repetitive traffic stay small. The dictionary
+ * holds at most {@value #MAX_DICTIONARY_SIZE} strings of at most
+ * {@value #MAX_INTERNED_CHARS} chars; when it is full it is cleared before the
+ * next string is added, by the reader too, so memory use stays bounded
+ * however long the log.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class WSCallLogWriter implements Closeable, Flushable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCallLogWriter</code> and writes the log header.
+   * @param out the stream to write to; it is buffered by this writer
+   * @throws IOException if writing the header fails
+   */
+  public WSCallLogWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 1024 * 32));
+    this.out.writeInt(MAGIC);
+    this.out.writeByte(VERSION);
+  }
+
+  //// Public Area
+
+  /**
+   * Appends one record to the log.
+   * @param record the record to append
+   * @throws IOException if writing fails
+   */
+  public void write(WSCallRecord record) throws IOException {
+    writeVarLong(record.getStartMicros());
+    writeString(record.getMethod());
+    int flags = record.getCallType().ordinal();
+    if (record.isCacheHit()) {
+      flags |= FLAG_CACHE_HIT;
+    }
+    if (record.isFailed()) {
+      flags |= FLAG_FAILED;
+    }
+    out.writeByte(flags);
+    writeVarLong(record.getStatus() + 1);
+    writeVarLong(record.getResponseBytes());
+    writeVarLong(record.getLatencyMicros());
+    String[] params = record.getParamStrings();
+    writeVarLong(params.length);
+    for (String param : params) {
+      writeString(param);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  //// Protected Area
+
+  static final int MAGIC = 0x5753524c; // "WSRL"
+  static final int VERSION = 2;
+  static final int MAX_DICTIONARY_SIZE = 4096;
+  static final int MAX_INTERNED_CHARS = 256;
+
+  /** String tags: a new string to intern, a new string not to intern, else a back reference + 2. */
+  static final int TAG_INTERNED = 0;
+  static final int TAG_LITERAL = 1;
+  static final int TAG_FIRST_REFERENCE = 2;
+  static final Charset UTF8 = Charset.forName("UTF-8");
+  static final int CALL_TYPE_MASK = 0x0f;
+  static final int FLAG_CACHE_HIT = 0x10;
+  static final int FLAG_FAILED = 0x20;
+
+  //// Private Area
+
+  private void writeString(String str) throws IOException {
+    Integer index = dictionary.get(str);
+    if (index != null) {
+      writeVarLong(index + TAG_FIRST_REFERENCE);
+      return;
+    }
+    boolean intern = str.length() <= MAX_INTERNED_CHARS;
+    writeVarLong(intern ? TAG_INTERNED : TAG_LITERAL);
+    byte[] bytes = str.getBytes(UTF8);
+    writeVarLong(bytes.length);
+    out.write(bytes);
+    if (intern) {
+      if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+        dictionary.clear();
+      }
+      dictionary.put(str, dictionary.size());
+    }
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    if (value < 0) {
+      throw new IllegalArgumentException("Can't log negative value: " + value);
+    }
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  //// Internal Rep
+
+  private final DataOutputStream out;
+  private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+}
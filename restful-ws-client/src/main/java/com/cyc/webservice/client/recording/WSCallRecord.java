@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.recording;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.metrics.WSCallType;
+import java.util.Arrays;
+
+//// External Imports
+
+/**
+ * One recorded web service call: what was asked for, and how it went.
+ * Parameter values are kept as strings, which is how they go over the wire.
+ */
+public class WSCallRecord {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCallRecord</code>.
+   * @param startMicros when the call started, in microseconds since the log was started
+   * @param method the HTTP method, e.g. "GET"
+   * @param callType the shape in which the result was requested
+   * @param paramNameThenValue the parameter names and values, as strings
+   * @param status the HTTP status, or -1 if none was received (cache hits, I/O failures)
+   * @param responseBytes the size of the response body, or 0 if none was read
+   * @param latencyMicros how long the call took, in microseconds
+   * @param cacheHit whether the call was answered from the cache
+   * @param failed whether the call threw an exception
+   */
+  public WSCallRecord(long startMicros, String method, WSCallType callType,
+      String[] paramNameThenValue, int status, long responseBytes, long latencyMicros,
+      boolean cacheHit, boolean failed) {
+    if ((method == null) || (callType == null) || (paramNameThenValue == null)) {
+      throw new IllegalArgumentException();
+    }
+    this.startMicros = startMicros;
+    this.method = method;
+    this.callType = callType;
+    this.paramNameThenValue = paramNameThenValue;
+    this.status = status;
+    this.responseBytes = responseBytes;
+    this.latencyMicros = latencyMicros;
+    this.cacheHit = cacheHit;
+    this.failed = failed;
+  }
+
+  //// Public Area
+
+  public long getStartMicros() {
+    return startMicros;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public WSCallType getCallType() {
+    return callType;
+  }
+
+  /** Returns a copy of the parameter names and values. */
+  public Object[] getParams() {
+    return Arrays.copyOf(paramNameThenValue, paramNameThenValue.length, Object[].class);
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  public long getLatencyMicros() {
+    return latencyMicros;
+  }
+
+  public boolean isCacheHit() {
+    return cacheHit;
+  }
+
+  public boolean isFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return "+" + startMicros + "us " + method + " " + callType.getDisplayName()
+        + " " + Arrays.toString(paramNameThenValue) + " -> " + status
+        + " " + responseBytes + "B " + latencyMicros + "us"
+        + (cacheHit ? " (cached)" : "") + (failed ? " (failed)" : "");
+  }
+
+  //// Protected Area
+
+  String[] getParamStrings() {
+    return paramNameThenValue;
+  }
+
+  //// Internal Rep
+
+  private final long startMicros;
+  private final String method;
+  private final WSCallType callType;
+  private final String[] paramNameThenValue;
+  private final int status;
+  private final long responseBytes;
+  private final long latencyMicros;
+  private final boolean cacheHit;
+  private final boolean failed;
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.recording;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.WSRequestEvent;
+import com.cyc.webservice.client.WSRequestListener;
+import com.cyc.webservice.client.WSRequestPhase;
+import com.cyc.webservice.client.metrics.WSCallType;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//// External Imports
+
+/**
+ * <p/>A {@link WSRequestListener} that records every call made through the
+ * clients it is added to into a compact call log, for later replay by a load
+ * generator. Each record holds the method, call type and parameters, the
+ * response status and size, the latency, and whether the call was a cache hit.
+ * <p/>
+ * Example:
+ * <code><pre>
+ *    WSCallRecorder recorder = new WSCallRecorder(new File("concept-find.wslog"), 0.1);
+ *    client.addRequestListener(recorder);
+ *    ...
+ *    client.removeRequestListener(recorder);
+ *    recorder.close();
+ * </pre></code>
+ * <p/>
+ * Recording is safe to leave on in production: calls are sampled, records
+ * are written through a buffer under a short lock, and a failure to write
+ * disables the recorder instead of failing calls. Memory use is bounded: the
+ * log's string dictionary has a fixed size (see {@link WSCallLogWriter}), at most
+ * {@value #MAX_PENDING} calls are tracked at once, and a call that hasn't
+ * finished after {@value #PENDING_TIMEOUT_MINUTES} minutes, such as a stream
+ * the caller never closed, is dropped unrecorded. A log should hold calls to
+ * a single service.
+ */
+public class WSCallRecorder implements WSRequestListener, Closeable {
+
+  //// Constructors
+
+  /**
+   * Creates a new instance of <code>WSCallRecorder</code>, truncating <code>file</code>.
+   * @param file the call log to write
+   * @param sampleRate the fraction of calls to record, between 0 and 1
+   * @throws IOException if the file can't be opened
+   */
+  public WSCallRecorder(File file, double sampleRate) throws IOException {
+    this(new WSCallLogWriter(new FileOutputStream(file)), sampleRate);
+  }
+
+  /**
+   * Creates a new instance of <code>WSCallRecorder</code>.
+   * @param writer the call log to write; it is closed when this recorder is
+   * @param sampleRate the fraction of calls to record, between 0 and 1
+   */
+  public WSCallRecorder(WSCallLogWriter writer, double sampleRate) {
+    if ((sampleRate < 0.0) || (sampleRate > 1.0)) {
+      throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+    }
+    this.writer = writer;
+    this.sampleRate = sampleRate;
+  }
+
+  //// Public Area
+
+  @Override
+  public void onEvent(WSRequestEvent event) {
+    if (writer == null) {
+      return;
+    }
+    long requestId = event.getRequestId();
+    switch (event.getPhase()) {
+      case REQUEST_START:
+        if ((sampleRate >= 1.0) || (ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+          if (startCount.incrementAndGet() % EXPIRY_INTERVAL == 0) {
+            expirePending(event.getNanoTime());
+          }
+          if (pending.size() < MAX_PENDING) {
+            pending.put(requestId, new PendingCall(event));
+          } else {
+            abandoned.increment();
+          }
+        }
+        break;
+      case CACHE_HIT:
+        PendingCall hit = pending.get(requestId);
+        if (hit != null) {
+          hit.cacheHit = true;
+        }
+        break;
+      case RESPONSE_HEADERS:
+        PendingCall headers = pending.get(requestId);
+        if (headers != null) {
+          headers.status = (Integer) event.getDetail();
+        }
+        break;
+      case RESPONSE_BODY_END:
+        PendingCall body = pending.get(requestId);
+        if (body != null) {
+          body.responseBytes = (Long) event.getDetail();
+        }
+        break;
+      case REQUEST_END:
+      case REQUEST_FAILED:
+        PendingCall done = pending.remove(requestId);
+        if (done != null) {
+          write(done.toRecord(event, startNanos));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Returns the number of calls written to the log so far. */
+  public synchronized long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns the number of sampled calls not recorded because they didn't
+   * finish in time or too many were in flight.
+   */
+  public long getAbandonedCount() {
+    return abandoned.sum();
+  }
+
+  /** Flushes and closes the call log. Calls still in flight are not recorded. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      WSCallLogWriter oldWriter = writer;
+      writer = null;
+      pending.clear();
+      oldWriter.close();
+    }
+  }
+
+  //// Private Area
+
+  /** Drops the pending calls that started more than PENDING_TIMEOUT_MINUTES before <code>now</code>. */
+  private void expirePending(long now) {
+    long timeoutNanos = TimeUnit.MINUTES.toNanos(PENDING_TIMEOUT_MINUTES);
+    Iterator<PendingCall> it = pending.values().iterator();
+    while (it.hasNext()) {
+      if (now - it.next().startNanoTime > timeoutNanos) {
+        it.remove();
+        abandoned.increment();
+      }
+    }
+  }
+
+  private synchronized void write(WSCallRecord record) {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.write(record);
+      recordCount++;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Call recording failed and has been stopped.", e);
+      try {
+        close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /** What is known about a sampled call that has not finished yet. */
+  private static class PendingCall {
+
+    PendingCall(WSRequestEvent start) {
+      this.startNanoTime = start.getNanoTime();
+      this.method = start.getMethod();
+      this.callType = start.getCallType();
+      Object[] params = (Object[]) start.getDetail();
+      this.paramNameThenValue = new String[(params == null) ? 0 : params.length];
+      for (int i = 0; i < paramNameThenValue.length; i++) {
+        paramNameThenValue[i] = "" + params[i];
+      }
+    }
+
+    WSCallRecord toRecord(WSRequestEvent end, long logStartNanos) {
+      return new WSCallRecord(
+          Math.max(0, TimeUnit.NANOSECONDS.toMicros(startNanoTime - logStartNanos)),
+          method, callType, paramNameThenValue, status, responseBytes,
+          TimeUnit.NANOSECONDS.toMicros(end.getNanoTime() - startNanoTime),
+          cacheHit, end.getPhase() == WSRequestPhase.REQUEST_FAILED);
+    }
+
+    final long startNanoTime;
+    final String method;
+    final WSCallType callType;
+    final String[] paramNameThenValue;
+    volatile int status = -1;
+    volatile long responseBytes = 0;
+    volatile boolean cacheHit = false;
+  }
+
+  //// Internal Rep
+
+  private static final Logger LOGGER = Logger.getLogger(WSCallRecorder.class.getName());
+
+  /** The most calls tracked at once. */
+  public static final int MAX_PENDING = 10000;
+
+  /** How long a call may take before it is dropped unrecorded. */
+  public static final int PENDING_TIMEOUT_MINUTES = 10;
+
+  /** How many sampled calls start between sweeps for expired ones. */
+  private static final int EXPIRY_INTERVAL = 1024;
+
+  private volatile WSCallLogWriter writer;
+  private final double sampleRate;
+  private final long startNanos = System.nanoTime();
+  private final ConcurrentMap<Long, PendingCall> pending = new ConcurrentHashMap<Long, PendingCall>();
+  private final AtomicLong startCount = new AtomicLong();
+  private final LongAdder abandoned = new LongAdder();
+  private long recordCount = 0;
+}
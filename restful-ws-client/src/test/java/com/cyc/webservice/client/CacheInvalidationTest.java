@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client;
+
+//// Internal Imports
+
+import com.cyc.webservice.client.GenericRestfulWSClient.RequestType;
+import com.cyc.webservice.client.cache.DiskResponseCache;
+import com.cyc.webservice.client.metrics.WSCacheEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//// External Imports
+
+/**
+ * Tests that writes remove the results they make stale from the memory and
+ * disk caches, against a local server whose GET results change with every
+ * PUT or DELETE.
+ */
+public class CacheInvalidationTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/svc", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange);
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+    client = new GenericRestfulWSClient("http", "127.0.0.1", server.getAddress().getPort(), "/svc",
+        null, Collections.synchronizedMap(new HashMap<WSRequestParams, Object>()));
+    client.setPostableParams(new HashSet<String>(Collections.singleton("name")));
+    client.setCacheTtlMillis(60000); // long enough to be written to disk
+    diskCache = new DiskResponseCache(tmp.newFolder("cache"), 0);
+    client.setDiskCache(diskCache);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.stop(0);
+    serverThreads.shutdownNow();
+    diskCache.close();
+  }
+
+  @Test
+  public void testWritesInvalidateMemoryAndDisk() throws IOException {
+    String first = client.get("id", "5");
+    assertEquals(first, client.get("id", "5"));
+    assertEquals(1, gets.get());
+    assertNotNull(diskCache.get(diskKey("id", "5")));
+    client.put("id", "5", "name", "Rex");
+    assertNull(diskCache.get(diskKey("id", "5")));
+    String second = client.get("id", "5");
+    assertFalse(first.equals(second));
+    assertEquals(2, gets.get());
+    client.delete("id", "5");
+    assertNull(diskCache.get(diskKey("id", "5")));
+    assertFalse(second.equals(client.get("id", "5")));
+    assertEquals(3, gets.get());
+    assertEquals(2, client.getMetrics().getCacheEventCount(WSCacheEvent.INVALIDATED));
+  }
+
+  @Test
+  public void testWriteLeavesOtherResourcesCached() throws IOException {
+    client.get("id", "5", "details", "full");
+    client.get("id", "50");
+    client.put("id", "5", "name", "Rex");
+    // without rules only the write's own URL is invalidated
+    client.get("id", "5", "details", "full");
+    client.get("id", "50");
+    assertEquals(2, gets.get());
+    assertNotNull(diskCache.get(diskKey("id", "50")));
+  }
+
+  @Test
+  public void testParamRule() throws IOException {
+    client.addInvalidationRule(new WSParamInvalidationRule("id"));
+    client.get("id", "5", "details", "full");
+    client.get("id", "50");
+    client.get("other", "1");
+    client.put("id", "5", "name", "Rex");
+    assertNull(diskCache.get(diskKey("id", "5", "details", "full")));
+    assertNotNull(diskCache.get(diskKey("id", "50")));
+    client.get("id", "5", "details", "full");
+    client.get("id", "50");
+    client.get("other", "1");
+    assertEquals(4, gets.get());
+  }
+
+  @Test
+  public void testParamRuleMatching() {
+    WSParamInvalidationRule rule = new WSParamInvalidationRule("id", "kind");
+    String url = "http://h/svc";
+    assertTrue(rule.invalidates(RequestType.PUT, url + "?id=5&kind=a&name=Rex", url + "?kind=a&x=1&id=5"));
+    assertFalse(rule.invalidates(RequestType.PUT, url + "?id=5&kind=a", url + "?id=50&kind=a"));
+    assertFalse(rule.invalidates(RequestType.PUT, url + "?id=5&kind=a", url + "?id=5&kind=ab"));
+    assertFalse(rule.invalidates(RequestType.PUT, url + "?id=5", url + "?id=5&kind=a")); // lacks kind
+    assertFalse(rule.invalidates(RequestType.PUT, url + "?id=5&kind=a", url + "?xid=5&kind=a"));
+    assertTrue(WSInvalidationRule.URL_PREFIX.invalidates(RequestType.DELETE, url + "?id=5", url + "?id=5"));
+    assertTrue(WSInvalidationRule.URL_PREFIX.invalidates(RequestType.DELETE, url + "?id=5",
+        url + "?id=5&details=full"));
+    assertFalse(WSInvalidationRule.URL_PREFIX.invalidates(RequestType.DELETE, url + "?id=5", url + "?id=50"));
+  }
+
+  @Test
+  public void testPrefixRule() throws IOException {
+    String starter = client.getUrlStarter();
+    client.addInvalidationRule(new WSPrefixInvalidationRule(starter + "?id=", starter + "?list="));
+    client.get("list", "all");
+    client.get("other", "1");
+    client.put("id", "5", "name", "Rex");
+    assertNull(diskCache.get(diskKey("list", "all")));
+    client.get("list", "all");
+    client.get("other", "1");
+    assertEquals(3, gets.get());
+    assertTrue(new WSPrefixInvalidationRule(starter + "?list=")
+        .invalidates(RequestType.DELETE, starter + "?any=1", starter + "?list=all"));
+    assertFalse(new WSPrefixInvalidationRule(starter + "?id=", starter + "?list=")
+        .invalidates(RequestType.DELETE, starter + "?other=1", starter + "?list=all"));
+  }
+
+  @Test
+  public void testGetInFlightDuringWriteIsNotCached() throws Exception {
+    ExecutorService caller = Executors.newSingleThreadExecutor();
+    try {
+      slowGetArrived = new CountDownLatch(1);
+      releaseSlowGet = new CountDownLatch(1);
+      Future<String> slow = caller.submit(new Callable<String>() {
+        @Override
+        public String call() throws IOException {
+          return client.get("id", "7", "slow", "1");
+        }
+      });
+      assertTrue(slowGetArrived.await(5, TimeUnit.SECONDS));
+      client.addInvalidationRule(new WSParamInvalidationRule("id"));
+      client.put("id", "7", "name", "Rex");
+      releaseSlowGet.countDown();
+      String stale = slow.get(5, TimeUnit.SECONDS);
+      assertEquals(1, client.getMetrics().getCacheEventCount(WSCacheEvent.INVALIDATED_IN_FLIGHT));
+      assertNull(diskCache.get(diskKey("id", "7", "slow", "1")));
+      assertFalse(stale.equals(client.get("id", "7", "slow", "1")));
+      assertEquals(2, gets.get());
+    } finally {
+      caller.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWriteThroughReplacesGetEntry() throws IOException {
+    client.setWriteThrough(true);
+    String before = client.get("id", "9");
+    String written = client.put("id", "9", "name", "Rex");
+    assertFalse(before.equals(written));
+    assertEquals(written, client.get("id", "9"));
+    assertEquals(1, gets.get());
+    assertEquals(written, diskCache.get(diskKey("id", "9")));
+    assertEquals(1, client.getMetrics().getCacheEventCount(WSCacheEvent.WRITE_THROUGH));
+  }
+
+  //// Private Area
+
+  private String diskKey(Object... paramNameThenValue) {
+    return "GET " + client.getURLStringForRequest(false, paramNameThenValue);
+  }
+
+  /**
+   * Answers a GET with its query and the number of writes so far, and a write
+   * with what a GET would now return.
+   */
+  private void respond(HttpExchange exchange) throws IOException {
+    try {
+      InputStream in = exchange.getRequestBody();
+      while (in.read() >= 0) {
+      }
+      String method = exchange.getRequestMethod();
+      String query = exchange.getRequestURI().getRawQuery();
+      int version;
+      if ("GET".equals(method)) {
+        gets.incrementAndGet();
+        version = writes.get();
+        if ((query != null) && query.contains("slow=") && (slowGetArrived != null)) {
+          slowGetArrived.countDown();
+          releaseSlowGet.await(5, TimeUnit.SECONDS); // answers as of before the write it waits out
+        }
+      } else {
+        version = writes.incrementAndGet();
+      }
+      byte[] body = ("<r query=\"" + query + "\" version=\"" + version + "\"/>").getBytes(UTF8);
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  //// Internal Rep
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private GenericRestfulWSClient client;
+  private DiskResponseCache diskCache;
+  private final AtomicInteger gets = new AtomicInteger();
+  private final AtomicInteger writes = new AtomicInteger();
+  private volatile CountDownLatch slowGetArrived;
+  private volatile CountDownLatch releaseSlowGet;
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015 Cycorp, Inc.  All rights reserved.
+ * This software is the proprietary information of Cycorp, Inc.
+ * Use is subject to license terms.
+ */
+package com.cyc.webservice.client.cache;
+
+//// Internal Imports
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//// External Imports
+
+/**
+ * Tests DiskResponseCache, mainly rebuilding its index after a crash.
+ * A crash is simulated by opening the directory again without closing the
+ * previous instance, whose index is then still marked dirty.
+ */
+public class DiskResponseCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws IOException {
+    dir = tmp.newFolder("cache");
+    cache = new DiskResponseCache(dir, 0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    cache.close();
+  }
+
+  @Test
+  public void testPutGetRemove() throws IOException {
+    cache.put("a", "alpha");
+    cache.put("b", "beta");
+    cache.put("a", "alpha2");
+    assertEquals("alpha2", cache.get("a"));
+    assertEquals("beta", cache.get("b"));
+    assertTrue(cache.remove("b"));
+    assertNull(cache.get("b"));
+    assertNull(cache.get("missing"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    cache.put("short", "lived", 1);
+    cache.put("long", "lived");
+    Thread.sleep(20);
+    assertNull(cache.get("short"));
+    assertEquals("lived", cache.get("long"));
+  }
+
+  @Test
+  public void testEntryKeepsLifetimeAndValidators() throws IOException {
+    long before = System.currentTimeMillis();
+    cache.put("a", "alpha", 60000, "\"v1\"", "Mon, 19 Oct 2026 10:00:00 GMT");
+    cache.put("b", "beta", 60000, null, null);
+    reopenAfterCrash();
+    WSCacheEntry a = cache.getEntry("a");
+    assertEquals("alpha", a.getValue());
+    assertEquals("\"v1\"", a.getETag());
+    assertEquals("Mon, 19 Oct 2026 10:00:00 GMT", a.getLastModified());
+    assertTrue(a.getStoredAt() >= before);
+    assertEquals(a.getStoredAt() + 60000, a.getExpiresAt());
+    WSCacheEntry b = cache.getEntry("b");
+    assertEquals("beta", b.getValue());
+    assertNull(b.getETag());
+    assertNull(b.getLastModified());
+    assertNull(cache.getEntry("missing"));
+  }
+
+  @Test
+  public void testReopenAfterCleanClose() throws IOException {
+    for (int i = 0; i < 3000; i++) { // enough to grow the index
+      cache.put("k" + i, "v" + i);
+    }
+    cache.close();
+    cache = new DiskResponseCache(dir, 0);
+    assertEquals(3000, cache.size());
+    assertEquals("v0", cache.get("k0"));
+    assertEquals("v2999", cache.get("k2999"));
+  }
+
+  @Test
+  public void testRebuildReplaysOverwritesAndRemovals() throws IOException {
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.put("a", "3");
+    cache.remove("b");
+    reopenAfterCrash();
+    assertEquals("3", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testTornTailIsTruncated() throws IOException {
+    cache.put("a", "alpha");
+    cache.put("b", "beta");
+    File segment = segmentFile();
+    long goodLength = segment.length();
+    // the start of a record whose rest never made it to disk
+    byte[] torn = new byte[] {0x57, 0x53, 0x52, 0x43, 0, 0, 0, 1, 0, 0, 0, 100, 0, 0};
+    append(segment, torn);
+    reopenAfterCrash();
+    assertEquals("alpha", cache.get("a"));
+    assertEquals("beta", cache.get("b"));
+    assertEquals(goodLength, segment.length());
+    cache.put("c", "gamma"); // appends where the torn record was
+    assertEquals("gamma", cache.get("c"));
+  }
+
+  @Test
+  public void testCorruptRecordBeforeValidOnesIsSkipped() throws IOException {
+    cache.put("a", "alpha");
+    cache.put("b", "bravo-bravo");
+    cache.put("c", "charlie");
+    File segment = segmentFile();
+    long length = segment.length();
+    corrupt(segment, "bravo-bravo");
+    reopenAfterCrash();
+    assertEquals("alpha", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("charlie", cache.get("c"));
+    assertEquals(length, segment.length());
+  }
+
+  @Test
+  public void testCorruptHeaderBeforeValidOnesIsSkipped() throws IOException {
+    cache.put("a", "alpha");
+    cache.put("b", "bravo");
+    cache.put("c", "charlie");
+    File segment = segmentFile();
+    // b's magic number, before its 36 byte header and 1 byte key
+    overwrite(segment, indexOf(segment, "bravo") - 37, new byte[] {1, 2, 3, 4});
+    reopenAfterCrash();
+    assertEquals("alpha", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("charlie", cache.get("c"));
+  }
+
+  //// Private Area
+
+  /** Opens the directory again while the current instance still has it open. */
+  private void reopenAfterCrash() throws IOException {
+    crashed = cache;
+    cache = new DiskResponseCache(dir, 0);
+  }
+
+  private File segmentFile() {
+    return new File(dir, "00000001.seg");
+  }
+
+  private static void append(File file, byte[] bytes) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length());
+      raf.write(bytes);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void overwrite(File file, long offset, byte[] bytes) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(offset);
+      raf.write(bytes);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Flips a bit in the first occurrence of <code>text</code>, breaking its record's checksum. */
+  private static void corrupt(File file, String text) throws IOException {
+    long offset = indexOf(file, text);
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    overwrite(file, offset, new byte[] {(byte) (bytes[(int) offset] ^ 1)});
+  }
+
+  private static long indexOf(File file, String text) throws IOException {
+    String contents = new String(Files.readAllBytes(file.toPath()), LATIN1);
+    int result = contents.indexOf(text);
+    assertTrue("no " + text + " in " + file, result >= 0);
+    return result;
+  }
+
+  //// Internal Rep
+
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private File dir;
+  private DiskResponseCache cache;
+  @SuppressWarnings("unused")
+  private DiskResponseCache crashed; // kept open, as after a crash
+}